@@ -1,3 +1,4 @@
+import cli.CommandLine;
 import ui.MainWindow;
 
 import javax.swing.*;
@@ -11,9 +12,15 @@ public class Main {
     /**
      * Main method to start the application.
      * 
-     * @param args Command line arguments (not used)
+     * @param args Command line arguments; with a command such as send, receive or discover
+     *             the application runs headless, without loading Swing
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            CommandLine.main(args);
+            return;
+        }
+
         // Set look and feel to system default
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -0,0 +1,426 @@
+package cli;
+
+import network.FileReceiver;
+import network.FileSender;
+import network.PeerDiscovery;
+import network.TransferHandle;
+import network.TransferResult;
+import network.TransferStats;
+import utils.Config;
+import utils.TransferHistoryManager;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Headless entry point for the SecureShare application.
+ * Drives the same network classes as the desktop client without loading Swing or AWT,
+ * so a receiver can run as a service on a machine without a display and sends can be scripted.
+ * <p>
+ * Log messages go to standard output and status lines to standard error. The exit status is
+ * 0 on success, 1 if a transfer or the receiver failed and 2 for invalid arguments.
+ */
+public class CommandLine {
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage:",
+            "  send [options] <host> <file or directory>...",
+            "      --port <port>          Port of the receiver (default " + Config.DEFAULT_PORT + ")",
+            "      --streams <count>      Parallel streams, 0 for automatic (default 1)",
+            "      --resumable            Resume after dropped connections",
+            "      --compress             Compress chunks",
+            "      --encrypt              Encrypt chunks",
+            "      --verify               Verify chunks with SHA-256",
+            "                             (these three send single files only, buffered over one connection)",
+            "      --read-ahead <depth>   Chunks read ahead when not zero-copying (default " + Config.READ_AHEAD_DEPTH + ")",
+            "      --no-zero-copy         Always copy through buffers",
+            "      --fixed-tuning         Use fixed socket buffers instead of autotuning",
+            "      --no-history           Do not record the transfer in the history",
+            "      --quiet                Only print the summary and errors",
+            "  receive [options]",
+            "      --port <port>          Port to listen on (default " + Config.DEFAULT_PORT + ")",
+            "      --dir <directory>      Directory to save files in (default " + Config.DEFAULT_SAVE_DIRECTORY + ")",
+            "      --max-transfers <n>    Concurrent transfers (default " + Config.MAX_CONCURRENT_TRANSFERS + ")",
+            "      --no-discovery         Do not answer discovery requests",
+            "      --no-zero-copy         Always copy through buffers",
+            "      --no-pipelined-writes  Write to disk on the connection thread",
+            "      --fixed-tuning         Use fixed socket buffers instead of autotuning",
+            "      --no-history           Do not record transfers in the history",
+            "      --quiet                Only print errors and transfer summaries",
+            "  discover [--quiet]",
+            "      Lists receivers on the local network as name, address and port separated by tabs");
+
+    /**
+     * Runs a command and exits with its status.
+     * 
+     * @param args The command followed by its options and arguments
+     */
+    public static void main(String[] args) {
+        int status = run(args);
+
+        // A receiver stopped by a shutdown hook ends normally; calling exit from within the hook would block
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Runs a command.
+     * 
+     * @param args The command followed by its options and arguments
+     * @return The exit status
+     */
+    public static int run(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        Options options;
+        try {
+            options = new Options(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        try {
+            switch (args[0]) {
+                case "send":
+                    return send(options);
+                case "receive":
+                    return receive(options);
+                case "discover":
+                    return discover(options);
+                default:
+                    System.err.println("Error: Unknown command: " + args[0]);
+                    System.err.println(USAGE);
+                    return 2;
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted");
+            return 1;
+        }
+    }
+
+    /**
+     * Sends files to a receiver and waits until they are sent.
+     */
+    private static int send(Options options) throws InterruptedException {
+        if (options.arguments.size() < 2) {
+            System.err.println("Error: send needs a host and at least one file");
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        String host = options.arguments.get(0);
+        List<File> files = new ArrayList<>();
+        for (String path : options.arguments.subList(1, options.arguments.size())) {
+            File file = new File(path);
+            if (!file.exists()) {
+                System.err.println("Error: File not found: " + path);
+                return 2;
+            }
+            files.add(file);
+        }
+
+        FileSender sender = new FileSender(options.logCallback(), options.historyManager());
+        sender.setParallelStreams(options.streams);
+        sender.setResumable(options.resumable);
+        sender.setCompressionEnabled(options.compress);
+        sender.setEncryptionEnabled(options.encrypt);
+        sender.setVerificationEnabled(options.verify);
+        sender.setReadAheadDepth(options.readAheadDepth);
+        sender.setZeroCopyEnabled(options.zeroCopy);
+        sender.setAutotuningEnabled(options.autotuning);
+
+        ProgressPrinter progress = ProgressPrinter.start(sender.getTransferStats(), options.quiet, false);
+        boolean sent = true;
+        try {
+            if (files.size() == 1 || files.stream().anyMatch(File::isDirectory)) {
+                // Directories are sent one tree per connection
+                for (File file : files) {
+                    sent &= await(sender.sendFile(file, host, options.port));
+                }
+            } else {
+                sent = await(sender.sendFiles(files, host, options.port));
+            }
+        } finally {
+            progress.stop();
+        }
+
+        if (!sent) {
+            return 1;
+        }
+
+        TransferStats stats = sender.getTransferStats();
+        stats.sample();
+        System.out.println(stats.describe());
+        return 0;
+    }
+
+    /**
+     * Runs a receiver until the process is stopped.
+     */
+    private static int receive(Options options) throws InterruptedException {
+        if (!options.arguments.isEmpty()) {
+            System.err.println("Error: Unexpected argument: " + options.arguments.get(0));
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        FileReceiver receiver = new FileReceiver(options.saveDirectory, options.logCallback(), options.historyManager());
+        receiver.setMaxConcurrentTransfers(options.maxTransfers);
+        receiver.setZeroCopyEnabled(options.zeroCopy);
+        receiver.setPipelinedWritesEnabled(options.pipelinedWrites);
+        receiver.setAutotuningEnabled(options.autotuning);
+
+        if (!receiver.start(options.port) || !receiver.awaitStartup()) {
+            System.err.println("Error: Could not start the receiver on port " + options.port);
+            return 1;
+        }
+        System.out.println("Saving files to " + options.saveDirectory);
+
+        PeerDiscovery discovery = null;
+        if (options.discovery) {
+            discovery = new PeerDiscovery();
+            if (!options.quiet) {
+                discovery.addLogListener(System.out::println);
+            }
+            discovery.startReceiver(options.port);
+        }
+
+        ProgressPrinter progress = ProgressPrinter.start(receiver.getTransferStats(), options.quiet, true);
+
+        // Stop cleanly on Ctrl+C or SIGTERM, so partial files and the buffer pool are cleaned up
+        PeerDiscovery stoppedDiscovery = discovery;
+        Thread shutdownHook = new Thread(() -> {
+            receiver.stop();
+            if (stoppedDiscovery != null) {
+                stoppedDiscovery.stop();
+            }
+        }, "receiver-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        receiver.awaitTermination();
+        progress.stop();
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The hook is running: the receiver was stopped on purpose
+            return 0;
+        }
+
+        // The server socket failed; stop the transfers and the discovery service as well
+        shutdownHook.run();
+        return 1;
+    }
+
+    /**
+     * Lists the receivers that answer a discovery broadcast.
+     */
+    private static int discover(Options options) throws InterruptedException {
+        PeerDiscovery discovery = new PeerDiscovery();
+        if (!options.quiet) {
+            discovery.addLogListener(System.err::println);
+        }
+
+        List<PeerDiscovery.ReceiverDevice> found = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        discovery.searchDevices(devices -> {
+            found.addAll(devices);
+            done.countDown();
+        });
+        done.await();
+
+        for (PeerDiscovery.ReceiverDevice device : found) {
+            System.out.println(device.getName() + "\t" + device.getIpAddress() + "\t" + device.getPort());
+        }
+        return 0;
+    }
+
+    private static boolean await(TransferHandle<TransferResult> transfer) throws InterruptedException {
+        try {
+            transfer.await();
+            return true;
+        } catch (ExecutionException e) {
+            System.err.println("Error: " + transfer.getName() + " failed: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Prints a status line for the running transfers every Config.CLI_PROGRESS_INTERVAL_MS,
+     * and optionally a summary whenever the transfers finish.
+     */
+    private static class ProgressPrinter implements Runnable {
+        private final TransferStats stats;
+        private final boolean quiet;
+        private final boolean summaries;
+        private final PrintStream out = System.err;
+        private volatile boolean stopped;
+        private Thread thread;
+
+        private ProgressPrinter(TransferStats stats, boolean quiet, boolean summaries) {
+            this.stats = stats;
+            this.quiet = quiet;
+            this.summaries = summaries;
+        }
+
+        static ProgressPrinter start(TransferStats stats, boolean quiet, boolean summaries) {
+            ProgressPrinter printer = new ProgressPrinter(stats, quiet, summaries);
+            printer.thread = new Thread(printer, "progress-printer");
+            printer.thread.setDaemon(true);
+            printer.thread.start();
+            return printer;
+        }
+
+        void stop() {
+            stopped = true;
+            thread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            String lastSummary = null;
+            while (!stopped) {
+                try {
+                    Thread.sleep(Config.CLI_PROGRESS_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (!stats.hasStarted()) {
+                    continue;
+                }
+                stats.sample();
+                if (stats.isActive()) {
+                    lastSummary = null;
+                    if (!quiet) {
+                        out.println(stats.getPercentage() + "% " + stats.describe());
+                    }
+                } else if (summaries) {
+                    // Transfers shorter than the interval are only seen once they are done
+                    String summary = stats.describe();
+                    if (!summary.equals(lastSummary)) {
+                        lastSummary = summary;
+                        out.println(summary);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The options of a command, with the remaining arguments in order.
+     */
+    private static class Options {
+        final List<String> arguments = new ArrayList<>();
+        int port = Config.DEFAULT_PORT;
+        int streams = 1;
+        boolean resumable;
+        boolean compress;
+        boolean encrypt;
+        boolean verify;
+        int readAheadDepth = Config.READ_AHEAD_DEPTH;
+        boolean zeroCopy = Config.ZERO_COPY_ENABLED;
+        boolean pipelinedWrites = Config.PIPELINED_WRITES_ENABLED;
+        boolean autotuning = Config.SOCKET_AUTOTUNING_ENABLED;
+        boolean history = true;
+        boolean quiet;
+        String saveDirectory = Config.DEFAULT_SAVE_DIRECTORY;
+        int maxTransfers = Config.MAX_CONCURRENT_TRANSFERS;
+        boolean discovery = true;
+
+        Options(String[] args) {
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--port":
+                        port = parseInt(arg, value(args, ++i, arg), 1, 65535);
+                        break;
+                    case "--streams":
+                        streams = parseInt(arg, value(args, ++i, arg), 0, Config.MAX_PARALLEL_STREAMS);
+                        break;
+                    case "--resumable":
+                        resumable = true;
+                        break;
+                    case "--compress":
+                        compress = true;
+                        break;
+                    case "--encrypt":
+                        encrypt = true;
+                        break;
+                    case "--verify":
+                        verify = true;
+                        break;
+                    case "--read-ahead":
+                        readAheadDepth = parseInt(arg, value(args, ++i, arg), 0, Config.MAX_READ_AHEAD_DEPTH);
+                        break;
+                    case "--no-zero-copy":
+                        zeroCopy = false;
+                        break;
+                    case "--no-pipelined-writes":
+                        pipelinedWrites = false;
+                        break;
+                    case "--fixed-tuning":
+                        autotuning = false;
+                        break;
+                    case "--no-history":
+                        history = false;
+                        break;
+                    case "--quiet":
+                        quiet = true;
+                        break;
+                    case "--dir":
+                        saveDirectory = value(args, ++i, arg);
+                        break;
+                    case "--max-transfers":
+                        maxTransfers = parseInt(arg, value(args, ++i, arg), 1, Integer.MAX_VALUE);
+                        break;
+                    case "--no-discovery":
+                        discovery = false;
+                        break;
+                    default:
+                        if (arg.startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        arguments.add(arg);
+                }
+            }
+        }
+
+        Consumer<String> logCallback() {
+            return quiet ? null : System.out::println;
+        }
+
+        TransferHistoryManager historyManager() {
+            return history ? new TransferHistoryManager() : null;
+        }
+
+        private static String value(String[] args, int index, String option) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException(option + " needs a value");
+            }
+            return args[index];
+        }
+
+        private static int parseInt(String option, String value, int min, int max) {
+            try {
+                int number = Integer.parseInt(value);
+                if (number >= min && number <= max) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException(option + " must be a number from " + min + " to " + max);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package network;
+
+import utils.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends many files over a single connection.
+ * The connection carries a manifest of every file name and size, followed by the file
+ * bodies back to back in manifest order. The receiver acknowledges once the last file
+ * has been written, so the whole batch pays for one TCP handshake and one slow start.
+ */
+public class BatchSender {
+    private final List<File> files;
+    private final String ipAddress;
+    private final int port;
+    private final Consumer<String> logCallback;
+    private final LongConsumer progressCallback;
+
+    /**
+     * Creates a new BatchSender.
+     * 
+     * @param files The files to send, in order
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @param logCallback Callback for log messages
+     * @param progressCallback Callback receiving the total number of bytes sent so far
+     */
+    public BatchSender(List<File> files, String ipAddress, int port, Consumer<String> logCallback, LongConsumer progressCallback) {
+        this.files = files;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.logCallback = logCallback;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * Gets the combined size of all files in a batch.
+     * 
+     * @param files The files in the batch
+     * @return The total size in bytes
+     */
+    public static long totalSize(List<File> files) {
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+        }
+        return totalSize;
+    }
+
+    /**
+     * Sends the batch and blocks until the receiver has confirmed every file.
+     */
+    public void send() throws IOException {
+        // Take the sizes once, so the manifest and the bodies always agree
+        long[] fileSizes = new long[files.size()];
+        for (int i = 0; i < fileSizes.length; i++) {
+            fileSizes[i] = files.get(i).length();
+        }
+
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ipAddress, port))) {
+            DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+
+            Protocol.writeHeader(dataOutputStream, Protocol.MODE_BATCH);
+            dataOutputStream.writeInt(files.size());
+            for (int i = 0; i < fileSizes.length; i++) {
+                dataOutputStream.writeUTF(files.get(i).getName());
+                dataOutputStream.writeLong(fileSizes[i]);
+            }
+            dataOutputStream.flush();
+
+            log("Sent manifest of " + files.size() + " file(s)");
+
+            long totalBytesSent = 0;
+            for (int i = 0; i < fileSizes.length; i++) {
+                try (FileChannel fileChannel = FileChannel.open(files.get(i).toPath(), StandardOpenOption.READ)) {
+                    totalBytesSent = sendBody(files.get(i), fileChannel, socketChannel, fileSizes[i], totalBytesSent);
+                }
+            }
+
+            // The receiver acknowledges once every file has been written
+            if (new DataInputStream(Channels.newInputStream(socketChannel)).read() != Protocol.ACK) {
+                throw new EOFException("Receiver closed the connection before acknowledging the batch");
+            }
+        }
+    }
+
+    /**
+     * Sends one file body with FileChannel.transferTo, falling back to a pooled buffer
+     * if zero-copy stops making progress.
+     * 
+     * @param file The file being sent
+     * @param fileChannel The channel of the file
+     * @param socketChannel The connection to send on
+     * @param fileSize The size announced in the manifest
+     * @param totalBytesSent The number of batch bytes sent before this file
+     * @return The number of batch bytes sent after this file
+     */
+    private long sendBody(File file, FileChannel fileChannel, SocketChannel socketChannel, long fileSize, long totalBytesSent) throws IOException {
+        long position = 0;
+        ByteBuffer buffer = null;
+
+        try {
+            while (position < fileSize) {
+                long count = Math.min(Config.ZERO_COPY_CHUNK_SIZE, fileSize - position);
+                long bytesSent = fileChannel.transferTo(position, count, socketChannel);
+
+                if (bytesSent <= 0) {
+                    if (buffer == null) {
+                        buffer = BufferPool.shared().acquire(Config.BUFFER_SIZE);
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), fileSize - position));
+                    if (fileChannel.read(buffer, position) < 0) {
+                        throw new EOFException("File was truncated while sending: " + file.getName());
+                    }
+                    buffer.flip();
+                    bytesSent = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        socketChannel.write(buffer);
+                    }
+                }
+
+                position += bytesSent;
+                totalBytesSent += bytesSent;
+                if (progressCallback != null) {
+                    progressCallback.accept(totalBytesSent);
+                }
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+
+        return totalBytesSent;
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package network;
+
+import utils.Config;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A bounded pool of direct buffers shared by every transfer path.
+ * <p>
+ * Buffers are kept per size class, one class per exact capacity, since the transfer paths
+ * only ask for a handful of sizes and some of them rely on the capacity they asked for.
+ * All buffers the pool has allocated, whether lent out or idle, count against a memory
+ * budget. When a request does not fit, idle buffers of other sizes are dropped first, and
+ * if that is not enough the caller waits until other transfers return their buffers.
+ * This caps the off-heap memory a receiver uses no matter how many uploads arrive at once.
+ * <p>
+ * Buffers that are lent out must be returned with release, or with discard if they may
+ * still be in use by a thread that could not be stopped.
+ */
+public class BufferPool {
+    private static final BufferPool SHARED = new BufferPool(Config.BUFFER_POOL_BUDGET);
+
+    private final long budget;
+    private final Map<Integer, Deque<ByteBuffer>> idleBuffers = new HashMap<>();
+
+    private long allocatedBytes;
+    private long outstandingBytes;
+    private long peakOutstandingBytes;
+    private long hits;
+    private long misses;
+    private long waits;
+    private long evictions;
+
+    /**
+     * Creates a pool.
+     * 
+     * @param budget The most bytes the pool may have allocated at any time
+     */
+    public BufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the pool shared by the sender and the receiver.
+     * 
+     * @return The shared pool, bounded by Config.BUFFER_POOL_BUDGET
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrows a cleared buffer, waiting if the budget is used up.
+     * 
+     * @param size The capacity of the buffer
+     * @return A direct buffer with exactly the requested capacity
+     * @throws InterruptedIOException If interrupted while waiting, so transfer code can treat it like any I/O failure
+     */
+    public ByteBuffer acquire(int size) throws InterruptedIOException {
+        return acquire(1, size)[0];
+    }
+
+    /**
+     * Borrows several buffers at once. Either all of them are handed out or the caller waits,
+     * so two transfers that each need several buffers can never hold part of a set and wait
+     * for each other.
+     * 
+     * @param count The number of buffers
+     * @param size The capacity of each buffer
+     * @return Cleared direct buffers with exactly the requested capacity
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    public synchronized ByteBuffer[] acquire(int count, int size) throws InterruptedIOException {
+        if (count < 1 || size < 1) {
+            throw new IllegalArgumentException("Invalid buffer request: " + count + " x " + size);
+        }
+        if ((long) count * size > budget) {
+            throw new IllegalArgumentException("Buffer request of " + count + " x " + size
+                    + " bytes exceeds the pool budget of " + budget + " bytes");
+        }
+
+        boolean waited = false;
+        while (!canSatisfy(count, size)) {
+            waited = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + count + " x " + size + " bytes of buffer memory");
+            }
+        }
+        if (waited) {
+            waits++;
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        Deque<ByteBuffer> idle = idleBuffers.get(size);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = idle != null ? idle.poll() : null;
+            if (buffer != null) {
+                hits++;
+            } else {
+                evictUntilFits(size);
+                buffer = ByteBuffer.allocateDirect(size);
+                allocatedBytes += size;
+                misses++;
+            }
+            buffers[i] = buffer.clear();
+        }
+
+        outstandingBytes += (long) count * size;
+        peakOutstandingBytes = Math.max(peakOutstandingBytes, outstandingBytes);
+        return buffers;
+    }
+
+    /**
+     * Returns borrowed buffers so they can be lent out again.
+     * 
+     * @param buffers Buffers returned by acquire; null entries are ignored
+     */
+    public synchronized void release(ByteBuffer... buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer != null) {
+                outstandingBytes -= buffer.capacity();
+                idleBuffers.computeIfAbsent(buffer.capacity(), capacity -> new ArrayDeque<>()).push(buffer);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gives up borrowed buffers without reusing them, for buffers that another thread may still
+     * be writing into. Their memory is freed once the garbage collector finds them unreachable.
+     * 
+     * @param buffers Buffers returned by acquire; null entries are ignored
+     */
+    public synchronized void discard(ByteBuffer... buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer != null) {
+                outstandingBytes -= buffer.capacity();
+                allocatedBytes -= buffer.capacity();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Checks if count buffers of the given size can be handed out now,
+     * counting idle buffers of other sizes as memory that can be freed.
+     */
+    private boolean canSatisfy(int count, int size) {
+        Deque<ByteBuffer> idle = idleBuffers.get(size);
+        int reusable = idle != null ? Math.min(count, idle.size()) : 0;
+        long idleOtherBytes = allocatedBytes - outstandingBytes - (idle != null ? (long) idle.size() * size : 0);
+        return allocatedBytes - idleOtherBytes + (long) (count - reusable) * size <= budget;
+    }
+
+    /**
+     * Drops idle buffers of other sizes until a new buffer of the given size fits the budget.
+     */
+    private void evictUntilFits(int size) {
+        Iterator<Map.Entry<Integer, Deque<ByteBuffer>>> classes = idleBuffers.entrySet().iterator();
+        while (allocatedBytes + size > budget && classes.hasNext()) {
+            Map.Entry<Integer, Deque<ByteBuffer>> sizeClass = classes.next();
+            if (sizeClass.getKey() == size) {
+                continue;
+            }
+            Deque<ByteBuffer> idle = sizeClass.getValue();
+            while (allocatedBytes + size > budget && idle.poll() != null) {
+                allocatedBytes -= sizeClass.getKey();
+                evictions++;
+            }
+            if (idle.isEmpty()) {
+                classes.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the most bytes the pool may have allocated.
+     * 
+     * @return The budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the number of bytes currently lent out.
+     * 
+     * @return The outstanding bytes
+     */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    /**
+     * Gets the largest number of bytes that were lent out at the same time.
+     * 
+     * @return The peak outstanding bytes
+     */
+    public synchronized long getPeakOutstandingBytes() {
+        return peakOutstandingBytes;
+    }
+
+    /**
+     * Gets the number of bytes allocated by the pool, lent out or idle.
+     * 
+     * @return The allocated bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets how many buffers were served from idle buffers.
+     * 
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets how many buffers had to be allocated.
+     * 
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets how many requests had to wait for the budget.
+     * 
+     * @return The number of waits
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * Summarizes the pool for the log.
+     * 
+     * @return A one-line summary
+     */
+    public synchronized String describe() {
+        long requests = hits + misses;
+        return String.format("Buffer pool: %.1f of %.1f MB allocated, %.1f MB outstanding (peak %.1f MB), "
+                        + "%d hits / %d misses (%.0f%% hit rate), %d waits, %d evictions",
+                allocatedBytes / (1024.0 * 1024), budget / (1024.0 * 1024),
+                outstandingBytes / (1024.0 * 1024), peakOutstandingBytes / (1024.0 * 1024),
+                hits, misses, requests == 0 ? 0 : hits * 100.0 / requests, waits, evictions);
+    }
+}
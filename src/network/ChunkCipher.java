@@ -0,0 +1,188 @@
+package network;
+
+import utils.Config;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Encrypts and authenticates the chunks of a chunked transfer with AES-GCM.
+ * <p>
+ * Both ends generate an ephemeral X25519 key pair per transfer and derive the AES key from the
+ * shared secret and both public keys, so every transfer has a fresh key and the chunk index,
+ * together with the retransmission round, can serve as the nonce. Each chunk is sealed on its
+ * own, which lets the ChunkCodec pool encrypt and decrypt chunks in parallel. The additional
+ * authenticated data binds a chunk to its index, its encoding, its original length and whether
+ * it is the last chunk, so chunks cannot be reordered, swapped between encodings or cut off at
+ * the end without the receiver noticing.
+ * <p>
+ * The key exchange itself is not authenticated: it protects against eavesdropping, not against an
+ * active attacker who can intercept the connection before it reaches the receiver.
+ */
+public class ChunkCipher {
+    private static final String KEY_AGREEMENT = "X25519";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] KEY_LABEL = "SecureShare chunk key v1".getBytes();
+    private static final int MAX_PUBLIC_KEY_SIZE = 1024;
+    private static final int NONCE_SIZE = 12;
+
+    public static final int TAG_SIZE = 16;
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    });
+
+    private final SecretKeySpec key;
+
+    private ChunkCipher(byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Runs the sender's side of the key exchange.
+     * 
+     * @param out The stream to the receiver
+     * @param in The stream from the receiver
+     * @return The cipher for the transfer
+     */
+    public static ChunkCipher handshakeAsSender(DataOutputStream out, DataInputStream in) throws IOException {
+        KeyPair keyPair = generateKeyPair();
+        byte[] senderKey = keyPair.getPublic().getEncoded();
+        writePublicKey(out, senderKey);
+        byte[] receiverKey = readPublicKey(in);
+        return new ChunkCipher(deriveKey(keyPair, receiverKey, senderKey, receiverKey));
+    }
+
+    /**
+     * Runs the receiver's side of the key exchange.
+     * 
+     * @param out The stream to the sender
+     * @param in The stream from the sender
+     * @return The cipher for the transfer
+     */
+    public static ChunkCipher handshakeAsReceiver(DataOutputStream out, DataInputStream in) throws IOException {
+        byte[] senderKey = readPublicKey(in);
+        KeyPair keyPair = generateKeyPair();
+        byte[] receiverKey = keyPair.getPublic().getEncoded();
+        writePublicKey(out, receiverKey);
+        return new ChunkCipher(deriveKey(keyPair, senderKey, senderKey, receiverKey));
+    }
+
+    /**
+     * Encrypts a chunk.
+     * 
+     * @param index The index of the chunk in the file
+     * @param round The retransmission round of the chunk
+     * @param last true if this is the last chunk of the file
+     * @param chunk The encoded chunk
+     * @return The chunk with its data replaced by the ciphertext and tag
+     */
+    public ChunkCodec.EncodedChunk seal(long index, int round, boolean last, ChunkCodec.EncodedChunk chunk) throws IOException {
+        try {
+            Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, index, round, last, chunk.getEncoding(), chunk.getRawLength());
+            byte[] sealed = cipher.doFinal(chunk.getData(), 0, chunk.getLength());
+            return new ChunkCodec.EncodedChunk(chunk.getEncoding(), chunk.getRawLength(), sealed, sealed.length, chunk.getDigest());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts a chunk and checks that it has not been tampered with.
+     * 
+     * @param index The index of the chunk in the file
+     * @param round The retransmission round of the chunk
+     * @param last true if this is the last chunk of the file
+     * @param chunk The chunk as received
+     * @return The chunk with its data replaced by the plaintext
+     */
+    public ChunkCodec.EncodedChunk open(long index, int round, boolean last, ChunkCodec.EncodedChunk chunk) throws IOException {
+        try {
+            Cipher cipher = initCipher(Cipher.DECRYPT_MODE, index, round, last, chunk.getEncoding(), chunk.getRawLength());
+            byte[] opened = cipher.doFinal(chunk.getData(), 0, chunk.getLength());
+            return new ChunkCodec.EncodedChunk(chunk.getEncoding(), chunk.getRawLength(), opened, opened.length);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " failed authentication");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prepares the calling thread's cipher for one chunk.
+     */
+    private Cipher initCipher(int mode, long index, int round, boolean last, byte encoding, int rawLength) throws GeneralSecurityException {
+        // The key is unique to the transfer, so the round and chunk index make the nonce unique
+        byte[] nonce = ByteBuffer.allocate(NONCE_SIZE).putInt(round).putLong(index).array();
+        byte[] aad = ByteBuffer.allocate(Long.BYTES + 2 + Integer.BYTES)
+                .putLong(index).put(last ? (byte) 1 : 0).put(encoding).putInt(rawLength).array();
+
+        Cipher cipher = CIPHERS.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.updateAAD(aad);
+        return cipher;
+    }
+
+    private static KeyPair generateKeyPair() throws IOException {
+        try {
+            return KeyPairGenerator.getInstance(KEY_AGREEMENT).generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Key generation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Derives the AES key as SHA-256 over a label, the shared secret and both public keys.
+     */
+    private static byte[] deriveKey(KeyPair ownKeyPair, byte[] peerKey, byte[] senderKey, byte[] receiverKey) throws IOException {
+        try {
+            PublicKey peerPublicKey = KeyFactory.getInstance(KEY_AGREEMENT).generatePublic(new X509EncodedKeySpec(peerKey));
+            KeyAgreement agreement = KeyAgreement.getInstance(KEY_AGREEMENT);
+            agreement.init(ownKeyPair.getPrivate());
+            agreement.doPhase(peerPublicKey, true);
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(KEY_LABEL);
+            digest.update(agreement.generateSecret());
+            digest.update(senderKey);
+            digest.update(receiverKey);
+            return digest.digest();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Key exchange failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writePublicKey(DataOutputStream out, byte[] publicKey) throws IOException {
+        out.writeShort(publicKey.length);
+        out.write(publicKey);
+        out.flush();
+    }
+
+    private static byte[] readPublicKey(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > MAX_PUBLIC_KEY_SIZE) {
+            throw new IOException("Invalid public key length " + length);
+        }
+        byte[] publicKey = new byte[length];
+        in.readFully(publicKey);
+        return publicKey;
+    }
+}
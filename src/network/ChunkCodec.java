@@ -0,0 +1,246 @@
+package network;
+
+import utils.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the chunks of a chunked transfer.
+ * Chunks are compressed first and then, for an encrypted transfer, sealed by a ChunkCipher.
+ * <p>
+ * Each chunk is compressed on its own, so chunks can be encoded and decoded in parallel and
+ * a chunk that does not shrink enough (JPEG, zip, video) is sent as stored bytes instead.
+ * Deflaters and inflaters are kept per thread and reused, since creating them allocates native memory.
+ */
+public class ChunkCodec {
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Config.COMPRESSION_LEVEL, true));
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Config.CODEC_THREADS, new CodecThreadFactory());
+
+    private ChunkCodec() {
+    }
+
+    /**
+     * A chunk as it travels on the connection.
+     */
+    public static class EncodedChunk {
+        private final byte encoding;
+        private final int rawLength;
+        private final byte[] data;
+        private final int length;
+        private final byte[] digest;
+
+        public EncodedChunk(byte encoding, int rawLength, byte[] data, int length) {
+            this(encoding, rawLength, data, length, null);
+        }
+
+        public EncodedChunk(byte encoding, int rawLength, byte[] data, int length, byte[] digest) {
+            this.encoding = encoding;
+            this.rawLength = rawLength;
+            this.data = data;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        public byte getEncoding() {
+            return encoding;
+        }
+
+        public int getRawLength() {
+            return rawLength;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the leaf digest of the original chunk contents.
+         * 
+         * @return The digest, or null if the transfer is not verified
+         */
+        public byte[] getDigest() {
+            return digest;
+        }
+    }
+
+    /**
+     * Gets the shared pool that chunks are encoded and decoded on.
+     * 
+     * @return The codec executor
+     */
+    public static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Encodes a chunk: compresses it if the transfer asked for compression and it pays off,
+     * appends the digest of the original contents if the transfer is verified, and finally
+     * encrypts it if the transfer is encrypted.
+     * 
+     * @param raw The chunk contents
+     * @param rawLength The number of valid bytes in raw
+     * @param flags The transfer flags from the header
+     * @param cipher The cipher of an encrypted transfer, or null
+     * @param index The index of the chunk in the file
+     * @param round The retransmission round, 0 for the first time a chunk is sent
+     * @param last true if this is the last chunk of the file
+     * @return The encoded chunk
+     */
+    public static EncodedChunk encode(byte[] raw, int rawLength, int flags, ChunkCipher cipher,
+                                      long index, int round, boolean last) throws IOException {
+        EncodedChunk chunk = compress(raw, rawLength, flags);
+
+        if ((flags & Protocol.FLAG_VERIFIED) != 0) {
+            // Hashing runs here on the codec pool, in parallel with the transfer
+            byte[] digest = ChunkDigests.leaf(raw, rawLength);
+            byte[] data = Arrays.copyOf(chunk.data, chunk.length + ChunkDigests.DIGEST_SIZE);
+            System.arraycopy(digest, 0, data, chunk.length, ChunkDigests.DIGEST_SIZE);
+            chunk = new EncodedChunk(chunk.encoding, rawLength, data, data.length, digest);
+        }
+
+        return cipher != null ? cipher.seal(index, round, last, chunk) : chunk;
+    }
+
+    /**
+     * Compresses a chunk, or keeps it stored if compression is off or does not pay off.
+     */
+    private static EncodedChunk compress(byte[] raw, int rawLength, int flags) {
+        if ((flags & Protocol.FLAG_COMPRESSED) != 0 && rawLength > 0 && looksCompressible(raw, rawLength)) {
+            // Anything above the limit is not worth the receiver's time to inflate
+            int limit = (int) (rawLength * Config.COMPRESSION_MAX_RATIO);
+            byte[] compressed = new byte[limit];
+
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int compressedLength = deflater.deflate(compressed, 0, limit);
+
+            if (deflater.finished()) {
+                return new EncodedChunk(Protocol.CHUNK_DEFLATED, rawLength, compressed, compressedLength);
+            }
+        }
+
+        return new EncodedChunk(Protocol.CHUNK_STORED, rawLength, raw, rawLength);
+    }
+
+    /**
+     * Compresses a sample from the start of a large chunk, so chunks of already compressed
+     * data are sent stored without spending time on compressing all of them.
+     */
+    private static boolean looksCompressible(byte[] raw, int rawLength) {
+        int sampleLength = Config.COMPRESSION_SAMPLE_SIZE;
+        if (rawLength < 2 * sampleLength) {
+            return true;
+        }
+
+        int limit = (int) (sampleLength * Config.COMPRESSION_MAX_RATIO);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(raw, 0, sampleLength);
+        deflater.finish();
+        deflater.deflate(new byte[limit], 0, limit);
+        return deflater.finished();
+    }
+
+    /**
+     * Decodes a chunk back to its original contents, undoing each step of encode.
+     * For a verified transfer the contents are hashed and checked against the digest the sender appended.
+     * 
+     * @param chunk The chunk as received
+     * @param flags The transfer flags from the header
+     * @param cipher The cipher of an encrypted transfer, or null
+     * @param index The index of the chunk in the file
+     * @param round The retransmission round, 0 for the first time a chunk is sent
+     * @param last true if this is the last chunk of the file
+     * @return The chunk in stored form, exactly rawLength bytes long, with its digest if the transfer is verified
+     */
+    public static EncodedChunk decode(EncodedChunk chunk, int flags, ChunkCipher cipher,
+                                      long index, int round, boolean last) throws IOException {
+        if (cipher != null) {
+            chunk = cipher.open(index, round, last, chunk);
+        }
+
+        if ((flags & Protocol.FLAG_VERIFIED) == 0) {
+            byte[] raw = decompress(chunk);
+            return new EncodedChunk(Protocol.CHUNK_STORED, raw.length, raw, raw.length);
+        }
+
+        int length = chunk.length - ChunkDigests.DIGEST_SIZE;
+        if (length < 0) {
+            throw new IOException("Chunk " + index + " is too short to carry a digest");
+        }
+        byte[] expected = Arrays.copyOfRange(chunk.data, length, chunk.length);
+        byte[] raw = decompress(new EncodedChunk(chunk.encoding, chunk.rawLength, chunk.data, length));
+
+        byte[] digest = ChunkDigests.leaf(raw, raw.length);
+        if (!ChunkDigests.matches(expected, digest)) {
+            throw new IOException("Chunk " + index + " does not match its digest");
+        }
+        return new EncodedChunk(Protocol.CHUNK_STORED, raw.length, raw, raw.length, digest);
+    }
+
+    /**
+     * Inflates a compressed chunk, or checks the length of a stored one.
+     */
+    private static byte[] decompress(EncodedChunk chunk) throws IOException {
+        if (chunk.encoding == Protocol.CHUNK_STORED) {
+            if (chunk.length != chunk.rawLength) {
+                throw new IOException("Stored chunk has " + chunk.length + " bytes, expected " + chunk.rawLength);
+            }
+            return chunk.data.length == chunk.length ? chunk.data : Arrays.copyOf(chunk.data, chunk.length);
+        }
+
+        if (chunk.encoding != Protocol.CHUNK_DEFLATED) {
+            throw new IOException("Unknown chunk encoding " + chunk.encoding);
+        }
+
+        byte[] raw = new byte[chunk.rawLength];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(chunk.data, 0, chunk.length);
+        try {
+            int rawLength = inflater.inflate(raw);
+            if (!inflater.finished()) {
+                // The end of the stream can still be pending once the output is full
+                rawLength += inflater.inflate(new byte[1]);
+            }
+            if (rawLength != chunk.rawLength || !inflater.finished()) {
+                throw new IOException("Compressed chunk inflated to " + rawLength + " bytes, expected " + chunk.rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed chunk: " + e.getMessage(), e);
+        }
+        return raw;
+    }
+
+    /**
+     * Creates the daemon threads of the codec pool.
+     */
+    private static class CodecThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chunk-codec-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package network;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests of file chunks and the Merkle root over them.
+ * <p>
+ * Leaves are SHA-256(0x00 || chunk) and inner nodes SHA-256(0x01 || left || right), so a leaf
+ * can never be mistaken for an inner node. A node without a sibling is carried up unchanged.
+ * The root commits to every chunk and its position, so matching roots mean matching files.
+ */
+public class ChunkDigests {
+    public static final int DIGEST_SIZE = 32;
+
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private ChunkDigests() {
+    }
+
+    /**
+     * Computes the leaf digest of a chunk.
+     * 
+     * @param data The chunk contents
+     * @param length The number of valid bytes in data
+     * @return The leaf digest
+     */
+    public static byte[] leaf(byte[] data, int length) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(LEAF_PREFIX);
+        digest.update(data, 0, length);
+        return digest.digest();
+    }
+
+    /**
+     * Computes the Merkle root over the leaf digests of every chunk, in file order.
+     * 
+     * @param leaves The leaf digests
+     * @return The root digest; the digest of an empty chunk for an empty file
+     */
+    public static byte[] merkleRoot(byte[][] leaves) {
+        if (leaves.length == 0) {
+            return leaf(new byte[0], 0);
+        }
+
+        MessageDigest digest = DIGESTS.get();
+        byte[][] level = leaves.clone();
+        int size = level.length;
+
+        while (size > 1) {
+            int parents = 0;
+            for (int i = 0; i < size; i += 2) {
+                if (i + 1 < size) {
+                    digest.update(NODE_PREFIX);
+                    digest.update(level[i]);
+                    digest.update(level[i + 1]);
+                    level[parents++] = digest.digest();
+                } else {
+                    level[parents++] = level[i];
+                }
+            }
+            size = parents;
+        }
+
+        return level[0];
+    }
+
+    /**
+     * Formats a digest for the log.
+     * 
+     * @param digest The digest
+     * @return The digest as lowercase hex
+     */
+    public static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Compares two digests in constant time.
+     * 
+     * @return true if the digests are equal
+     */
+    public static boolean matches(byte[] expected, byte[] actual) {
+        return expected != null && actual != null && MessageDigest.isEqual(expected, actual);
+    }
+}
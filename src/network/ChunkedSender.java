@@ -0,0 +1,254 @@
+package network;
+
+import utils.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends a file as a sequence of independently encoded chunks.
+ * <p>
+ * The file is read in Config.CODEC_CHUNK_SIZE chunks on the sending thread, each chunk is
+ * encoded on the ChunkCodec pool, and the encoded chunks are written to the connection in
+ * file order. Up to Config.CODEC_PIPELINE_DEPTH chunks are in flight, so reading, encoding
+ * and sending overlap. Each chunk goes out as [byte encoding][int raw length][int length][bytes].
+ * An encrypted transfer runs the ChunkCipher key exchange right after the header.
+ * <p>
+ * A verified transfer appends each chunk's SHA-256 digest inside the chunk and sends the
+ * Merkle root after the last chunk. The receiver answers with the chunks that failed
+ * verification, which are sent again until none are left or Config.VERIFY_MAX_ROUNDS is reached.
+ */
+public class ChunkedSender {
+    private final File file;
+    private final String ipAddress;
+    private final int port;
+    private final int flags;
+    private final Consumer<String> logCallback;
+    private final LongConsumer progressCallback;
+
+    /**
+     * Creates a new ChunkedSender.
+     * 
+     * @param file The file to send
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @param flags The Protocol.FLAG_* options for the transfer
+     * @param logCallback Callback for log messages
+     * @param progressCallback Callback receiving the number of file bytes sent so far
+     */
+    public ChunkedSender(File file, String ipAddress, int port, int flags, Consumer<String> logCallback, LongConsumer progressCallback) {
+        this.file = file;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.flags = flags;
+        this.logCallback = logCallback;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * Sends the file and blocks until the receiver has confirmed it.
+     */
+    public void send() throws IOException, InterruptedException {
+        long fileSize = file.length();
+        int chunkSize = Config.CODEC_CHUNK_SIZE;
+        int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        boolean verified = (flags & Protocol.FLAG_VERIFIED) != 0;
+
+        try (
+            SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ipAddress, port));
+            FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+        ) {
+            DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+            DataInputStream dataInputStream = new DataInputStream(Channels.newInputStream(socketChannel));
+
+            Protocol.writeHeader(dataOutputStream, Protocol.MODE_CHUNKED);
+            dataOutputStream.writeUTF(file.getName());
+            dataOutputStream.writeLong(fileSize);
+            dataOutputStream.writeInt(flags);
+            dataOutputStream.writeInt(chunkSize);
+            dataOutputStream.flush();
+
+            ChunkCipher cipher = null;
+            if ((flags & Protocol.FLAG_ENCRYPTED) != 0) {
+                cipher = ChunkCipher.handshakeAsSender(dataOutputStream, dataInputStream);
+                log("Encrypted session established");
+            }
+
+            int[] allChunks = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                allChunks[i] = i;
+            }
+            byte[][] digests = verified ? new byte[chunkCount][] : null;
+
+            long encodedBytes = sendChunks(dataOutputStream, fileChannel, cipher, allChunks, 0, digests);
+
+            if (fileSize > 0 && (flags & Protocol.FLAG_COMPRESSED) != 0) {
+                log(String.format("Compressed %d bytes to %d (%.1f%%)", fileSize, encodedBytes, encodedBytes * 100.0 / fileSize));
+            }
+
+            if (verified) {
+                // The root goes after the first round; the receiver checks it against the chunks it verified
+                byte[] root = ChunkDigests.merkleRoot(digests);
+                dataOutputStream.write(root);
+                dataOutputStream.flush();
+                log("Merkle root: " + ChunkDigests.toHex(root));
+
+                // Resend only the chunks the receiver could not verify
+                for (int round = 1; ; round++) {
+                    int[] failedChunks = readFailedChunks(dataInputStream, chunkCount);
+                    if (failedChunks.length == 0) {
+                        break;
+                    }
+                    if (round >= Config.VERIFY_MAX_ROUNDS) {
+                        throw new IOException(failedChunks.length + " chunk(s) still failed verification after " + round + " rounds");
+                    }
+
+                    log("Receiver asked for " + failedChunks.length + " chunk(s) again");
+                    sendChunks(dataOutputStream, fileChannel, cipher, failedChunks, round, null);
+                }
+            }
+
+            // The receiver acknowledges once every chunk has been decoded, written and verified
+            if (dataInputStream.read() != Protocol.ACK) {
+                throw new EOFException("Receiver closed the connection before acknowledging the file");
+            }
+        }
+    }
+
+    /**
+     * Sends one round of chunks through the encoding pipeline.
+     * 
+     * @param out The stream to the receiver
+     * @param fileChannel The channel of the file
+     * @param cipher The cipher of an encrypted transfer, or null
+     * @param indices The chunks to send, in order
+     * @param round The retransmission round
+     * @param digests Receives the digest of every chunk sent, or null
+     * @return The number of encoded bytes sent
+     */
+    private long sendChunks(DataOutputStream out, FileChannel fileChannel, ChunkCipher cipher,
+                            int[] indices, int round, byte[][] digests) throws IOException, InterruptedException {
+        long fileSize = file.length();
+        int chunkSize = Config.CODEC_CHUNK_SIZE;
+        int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        Deque<Future<ChunkCodec.EncodedChunk>> pipeline = new ArrayDeque<>();
+        Deque<Integer> pipelineIndices = new ArrayDeque<>();
+        long encodedBytes = 0;
+
+        try {
+            for (int i = 0; i <= indices.length; i++) {
+                if (i < indices.length) {
+                    int index = indices[i];
+                    long position = (long) index * chunkSize;
+                    int length = (int) Math.min(chunkSize, fileSize - position);
+                    byte[] raw = readChunk(fileChannel, position, length);
+                    boolean last = index == chunkCount - 1;
+
+                    pipeline.add(ChunkCodec.executor().submit(() ->
+                            ChunkCodec.encode(raw, length, flags, cipher, index, round, last)));
+                    pipelineIndices.add(index);
+                }
+
+                // Write the oldest chunk once the pipeline is full, and drain it at the end
+                while (pipeline.size() >= Config.CODEC_PIPELINE_DEPTH || (i == indices.length && !pipeline.isEmpty())) {
+                    int index = pipelineIndices.poll();
+                    ChunkCodec.EncodedChunk chunk = writeChunk(out, pipeline.poll());
+                    encodedBytes += chunk.getLength();
+                    if (digests != null) {
+                        digests[index] = chunk.getDigest();
+                    }
+                    if (round == 0) {
+                        reportProgress(Math.min(fileSize, (long) (index + 1) * chunkSize));
+                    }
+                }
+            }
+        } finally {
+            for (Future<ChunkCodec.EncodedChunk> pending : pipeline) {
+                pending.cancel(true);
+            }
+        }
+
+        out.flush();
+        return encodedBytes;
+    }
+
+    /**
+     * Reads the list of chunks the receiver could not verify.
+     */
+    private int[] readFailedChunks(DataInputStream in, int chunkCount) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > chunkCount) {
+            throw new IOException("Invalid failed chunk count " + count);
+        }
+
+        int[] failedChunks = new int[count];
+        for (int i = 0; i < count; i++) {
+            failedChunks[i] = in.readInt();
+            if (failedChunks[i] < 0 || failedChunks[i] >= chunkCount) {
+                throw new IOException("Invalid failed chunk index " + failedChunks[i]);
+            }
+        }
+        return failedChunks;
+    }
+
+    /**
+     * Reads one chunk of the file into a new array, which the encoder then owns.
+     */
+    private byte[] readChunk(FileChannel fileChannel, long position, int length) throws IOException {
+        byte[] raw = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File was truncated while sending: " + file.getName());
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Waits for a chunk to finish encoding and writes it to the connection.
+     */
+    private ChunkCodec.EncodedChunk writeChunk(DataOutputStream out, Future<ChunkCodec.EncodedChunk> future) throws IOException, InterruptedException {
+        ChunkCodec.EncodedChunk chunk;
+        try {
+            chunk = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Encoding failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        out.writeByte(chunk.getEncoding());
+        out.writeInt(chunk.getRawLength());
+        out.writeInt(chunk.getLength());
+        out.write(chunk.getData(), 0, chunk.getLength());
+        return chunk;
+    }
+
+    private void reportProgress(long bytes) {
+        if (progressCallback != null) {
+            progressCallback.accept(bytes);
+        }
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package network;
+
+import utils.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends a directory tree over a single connection.
+ * <p>
+ * The tree is walked in parallel, one fork/join task per directory, before anything is sent.
+ * Entries then stream in frames of up to Config.DIRECTORY_FRAME_SIZE bytes: each frame is a
+ * length followed by entries of the form [byte type][short path length][path][long size].
+ * Small files carry their contents inside the frame, so thousands of them go out in a handful
+ * of socket writes without building an archive on disk. A large file is the last entry of its
+ * frame and its contents follow the frame directly, sent with FileChannel.transferTo.
+ * Directories always precede their contents, and paths are relative to the tree's root using '/'.
+ */
+public class DirectorySender {
+    private static final int ENTRY_HEADER_SIZE = Byte.BYTES + Short.BYTES + Long.BYTES;
+
+    private final File directory;
+    private final List<Entry> entries;
+    private final String ipAddress;
+    private final int port;
+    private final Consumer<String> logCallback;
+    private final LongConsumer progressCallback;
+
+    /**
+     * Creates a new DirectorySender.
+     * 
+     * @param directory The root of the tree to send
+     * @param entries The entries of the tree, as returned by walk
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @param logCallback Callback for log messages
+     * @param progressCallback Callback receiving the number of file bytes sent so far
+     */
+    public DirectorySender(File directory, List<Entry> entries, String ipAddress, int port, Consumer<String> logCallback, LongConsumer progressCallback) {
+        this.directory = directory;
+        this.entries = entries;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.logCallback = logCallback;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * A directory or file found while walking the tree.
+     */
+    public static class Entry {
+        private final File file;
+        private final String relativePath;
+        private final long size;
+
+        private Entry(File file, String relativePath, long size) {
+            this.file = file;
+            this.relativePath = relativePath;
+            this.size = size;
+        }
+
+        public boolean isDirectory() {
+            return size < 0;
+        }
+
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        public long getSize() {
+            return Math.max(size, 0);
+        }
+    }
+
+    /**
+     * Walks a directory tree in parallel.
+     * Every directory appears before its contents. Symbolic links to directories are not followed.
+     * 
+     * @param directory The root of the tree
+     * @return The entries below the root, not including the root itself
+     */
+    public static List<Entry> walk(File directory) {
+        return ForkJoinPool.commonPool().invoke(new WalkTask(directory, ""));
+    }
+
+    /**
+     * Lists one directory, forking a task for each subdirectory.
+     */
+    private static class WalkTask extends RecursiveTask<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+        private final String prefix;
+
+        WalkTask(File directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            File[] children = directory.listFiles();
+            if (children == null) {
+                return new ArrayList<>();
+            }
+            Arrays.sort(children, Comparator.comparing(File::getName));
+
+            List<Entry> files = new ArrayList<>();
+            List<Entry> subdirectories = new ArrayList<>();
+            List<WalkTask> subtasks = new ArrayList<>();
+
+            for (File child : children) {
+                String relativePath = prefix + child.getName();
+                if (child.isDirectory()) {
+                    if (Files.isSymbolicLink(child.toPath())) {
+                        continue;
+                    }
+                    WalkTask subtask = new WalkTask(child, relativePath + "/");
+                    subtask.fork();
+                    subtasks.add(subtask);
+                    subdirectories.add(new Entry(child, relativePath, -1));
+                } else if (child.isFile()) {
+                    files.add(new Entry(child, relativePath, child.length()));
+                }
+            }
+
+            // Each subdirectory entry is followed by everything below it
+            for (int i = 0; i < subtasks.size(); i++) {
+                files.add(subdirectories.get(i));
+                files.addAll(subtasks.get(i).join());
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Gets the combined size of the files in a walked tree.
+     * 
+     * @param entries The entries of the tree
+     * @return The total size in bytes
+     */
+    public static long totalSize(List<Entry> entries) {
+        long totalSize = 0;
+        for (Entry entry : entries) {
+            totalSize += entry.getSize();
+        }
+        return totalSize;
+    }
+
+    /**
+     * Sends the tree and blocks until the receiver has confirmed every entry.
+     */
+    public void send() throws IOException {
+        long totalSize = totalSize(entries);
+
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ipAddress, port))) {
+            DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+
+            Protocol.writeHeader(dataOutputStream, Protocol.MODE_DIRECTORY);
+            dataOutputStream.writeUTF(directory.getName());
+            dataOutputStream.writeLong(totalSize);
+            dataOutputStream.writeInt(entries.size());
+            dataOutputStream.flush();
+
+            log("Sending " + entries.size() + " entries of " + directory.getName());
+
+            // The first four bytes of the frame hold its length, filled in when it is sent
+            ByteBuffer frame = BufferPool.shared().acquire(Integer.BYTES + Config.DIRECTORY_FRAME_SIZE);
+            frame.position(Integer.BYTES);
+            long totalBytesSent = 0;
+
+            try {
+                for (Entry entry : entries) {
+                    byte[] path = entry.relativePath.getBytes(StandardCharsets.UTF_8);
+                    if (path.length > 0xFFFF) {
+                        throw new IOException("Path is too long: " + entry.relativePath);
+                    }
+
+                    boolean large = !entry.isDirectory() && entry.size > Config.SMALL_FILE_THRESHOLD;
+                    long packedSize = ENTRY_HEADER_SIZE + path.length + (entry.isDirectory() || large ? 0 : entry.size);
+                    if (frame.position() + packedSize > frame.capacity()) {
+                        sendFrame(frame, socketChannel);
+                    }
+
+                    byte type = entry.isDirectory() ? Protocol.ENTRY_DIRECTORY
+                            : large ? Protocol.ENTRY_LARGE_FILE : Protocol.ENTRY_FILE;
+                    frame.put(type).putShort((short) path.length).put(path).putLong(entry.getSize());
+
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+
+                    try (FileChannel fileChannel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ)) {
+                        if (large) {
+                            // The frame ends here; the contents follow it on the raw connection
+                            sendFrame(frame, socketChannel);
+                            totalBytesSent = sendLargeFile(entry, fileChannel, socketChannel, totalBytesSent);
+                        } else {
+                            packFile(entry, fileChannel, frame);
+                            totalBytesSent += entry.size;
+                            reportProgress(totalBytesSent);
+                        }
+                    }
+                }
+
+                sendFrame(frame, socketChannel);
+                ByteBuffer end = ByteBuffer.allocate(Integer.BYTES).putInt(Protocol.END_OF_FRAMES);
+                end.flip();
+                while (end.hasRemaining()) {
+                    socketChannel.write(end);
+                }
+
+                // The receiver acknowledges once every entry has been written
+                if (new DataInputStream(Channels.newInputStream(socketChannel)).read() != Protocol.ACK) {
+                    throw new EOFException("Receiver closed the connection before acknowledging the directory");
+                }
+            } finally {
+                BufferPool.shared().release(frame);
+            }
+        }
+    }
+
+    /**
+     * Copies a small file's contents into the frame.
+     */
+    private void packFile(Entry entry, FileChannel fileChannel, ByteBuffer frame) throws IOException {
+        int end = frame.position() + (int) entry.size;
+        ByteBuffer contents = frame.duplicate();
+        contents.limit(end);
+
+        while (contents.hasRemaining()) {
+            if (fileChannel.read(contents) < 0) {
+                throw new EOFException("File was truncated while sending: " + entry.relativePath);
+            }
+        }
+        frame.position(end);
+    }
+
+    /**
+     * Sends the frame if it holds any entries and starts a new one.
+     */
+    private void sendFrame(ByteBuffer frame, SocketChannel socketChannel) throws IOException {
+        int length = frame.position() - Integer.BYTES;
+        if (length == 0) {
+            return;
+        }
+
+        frame.putInt(0, length);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            socketChannel.write(frame);
+        }
+
+        frame.clear();
+        frame.position(Integer.BYTES);
+    }
+
+    /**
+     * Sends a large file's contents with FileChannel.transferTo, falling back to a pooled buffer
+     * if zero-copy stops making progress.
+     * 
+     * @return The number of tree bytes sent after this file
+     */
+    private long sendLargeFile(Entry entry, FileChannel fileChannel, SocketChannel socketChannel, long totalBytesSent) throws IOException {
+        long position = 0;
+        ByteBuffer buffer = null;
+
+        try {
+            while (position < entry.size) {
+                long count = Math.min(Config.ZERO_COPY_CHUNK_SIZE, entry.size - position);
+                long bytesSent = fileChannel.transferTo(position, count, socketChannel);
+
+                if (bytesSent <= 0) {
+                    if (buffer == null) {
+                        buffer = BufferPool.shared().acquire(Config.BUFFER_SIZE);
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), entry.size - position));
+                    if (fileChannel.read(buffer, position) < 0) {
+                        throw new EOFException("File was truncated while sending: " + entry.relativePath);
+                    }
+                    buffer.flip();
+                    bytesSent = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        socketChannel.write(buffer);
+                    }
+                }
+
+                position += bytesSent;
+                totalBytesSent += bytesSent;
+                reportProgress(totalBytesSent);
+            }
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+
+        return totalBytesSent;
+    }
+
+    private void reportProgress(long bytes) {
+        if (progressCallback != null) {
+            progressCallback.accept(bytes);
+        }
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
@@ -1,46 +1,84 @@
 package network;
 
 import utils.Config;
-import utils.FileUtils;
 import utils.TransferHistoryManager;
 import utils.TransferRecord;
 
-import javax.swing.*;
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 
 /**
  * Handles the network operations for receiving files over TCP.
+ * Each accepted connection is served on its own worker thread, up to a configurable
+ * number of concurrent transfers. Nothing here touches Swing or AWT, so a receiver
+ * can also run headless as a service.
  */
 public class FileReceiver {
     private final Consumer<String> logCallback;
-    private final Consumer<Integer> progressCallback;
     private final String saveDirectory;
     private final TransferHistoryManager historyManager;
 
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
     private ReceiverThread receiverThread;
-    private boolean isRunning = false;
+    private TransferHandle<Void> receiverHandle;
+    private ExecutorService connectionPool;
+    private ExecutorService diskWriterPool;
+    private volatile boolean isRunning = false;
+    private volatile boolean zeroCopyEnabled = Config.ZERO_COPY_ENABLED;
+    private volatile boolean pipelinedWritesEnabled = Config.PIPELINED_WRITES_ENABLED;
+    private volatile boolean autotuningEnabled = Config.SOCKET_AUTOTUNING_ENABLED;
+    private volatile int maxConcurrentTransfers = Config.MAX_CONCURRENT_TRANSFERS;
+
+    private final Map<Object, ActiveTransfer> activeTransfers = new ConcurrentHashMap<>();
+    private final TransferStats transferStats = new TransferStats();
+    private final Map<Long, StripedFile> stripedFiles = new ConcurrentHashMap<>();
+    private final Map<String, ConnectionHandler> resumableOwners = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionCounter = new AtomicInteger();
 
     /**
-     * Creates a new FileReceiver with callbacks for logging and progress updates.
+     * Creates a new FileReceiver with a callback for logging.
+     * Progress is read from getTransferStats.
      * 
      * @param saveDirectory The directory where received files will be saved
      * @param logCallback Callback for log messages
-     * @param progressCallback Callback for progress updates
      * @param historyManager Manager for tracking transfer history
      */
-    public FileReceiver(String saveDirectory, Consumer<String> logCallback, Consumer<Integer> progressCallback, TransferHistoryManager historyManager) {
+    public FileReceiver(String saveDirectory, Consumer<String> logCallback, TransferHistoryManager historyManager) {
         this.saveDirectory = saveDirectory;
         this.logCallback = logCallback;
-        this.progressCallback = progressCallback;
         this.historyManager = historyManager;
 
-        // Ensure the save directory exists
-        FileUtils.ensureDirectoryExists(saveDirectory);
+        // Ensure the save directory exists; FileUtils is avoided here since it pulls in Swing for its dialogs
+        new File(saveDirectory).mkdirs();
     }
 
     /**
@@ -56,9 +94,9 @@ public class FileReceiver {
         }
 
         try {
-            // Start the receiver thread
+            // Start the receiver thread; engine threads are daemons, so use awaitTermination to keep a headless receiver alive
             receiverThread = new ReceiverThread(port);
-            receiverThread.execute();
+            receiverHandle = TransferEngine.shared().submit("receiver on port " + port, receiverThread);
             return true;
         } catch (Exception e) {
             log("Error starting receiver: " + e.getMessage());
@@ -77,24 +115,64 @@ public class FileReceiver {
 
         log("Stopping receiver...");
 
-        // Close the server socket
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        // Close the server channel, which also wakes up a blocked accept
+        if (serverChannel != null && serverChannel.isOpen()) {
             try {
-                serverSocket.close();
+                serverChannel.close();
             } catch (IOException e) {
                 log("Error closing server socket: " + e.getMessage());
             }
         }
 
         // Cancel the receiver thread
-        if (receiverThread != null && !receiverThread.isDone()) {
-            receiverThread.cancel(true);
+        if (receiverHandle != null) {
+            receiverHandle.cancel();
+        }
+
+        // Interrupt transfers in progress; interrupting a blocked channel read closes the connection
+        if (connectionPool != null) {
+            connectionPool.shutdownNow();
+        }
+        if (diskWriterPool != null) {
+            diskWriterPool.shutdownNow();
+        }
+        for (StripedFile stripedFile : stripedFiles.values()) {
+            stripedFile.abort(true);
         }
 
         isRunning = false;
+        log(BufferPool.shared().describe());
         log("Receiver stopped.");
     }
 
+    /**
+     * Waits until the receiver is listening, or has failed to start.
+     * 
+     * @return true if the receiver is listening, false if it could not bind its port or was never started
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitStartup() throws InterruptedException {
+        ReceiverThread thread = receiverThread;
+        if (thread == null) {
+            return false;
+        }
+        thread.started.await();
+        return isRunning;
+    }
+
+    /**
+     * Waits until the receiver has stopped accepting connections, either because stop was called
+     * or because the server socket failed.
+     * 
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        ReceiverThread thread = receiverThread;
+        if (thread != null) {
+            thread.terminated.await();
+        }
+    }
+
     /**
      * Checks if the receiver is currently running.
      * 
@@ -104,6 +182,101 @@ public class FileReceiver {
         return isRunning;
     }
 
+    /**
+     * Enables or disables the zero-copy receive path.
+     * When disabled, file bodies are read into a direct buffer and written with FileChannel.write.
+     * 
+     * @param zeroCopyEnabled true to receive file bodies with FileChannel.transferFrom
+     */
+    public void setZeroCopyEnabled(boolean zeroCopyEnabled) {
+        this.zeroCopyEnabled = zeroCopyEnabled;
+    }
+
+    /**
+     * Checks if the zero-copy receive path is enabled.
+     * 
+     * @return true if file bodies are received with FileChannel.transferFrom
+     */
+    public boolean isZeroCopyEnabled() {
+        return zeroCopyEnabled;
+    }
+
+    /**
+     * Enables or disables the decoupled network-read and disk-write pipeline.
+     * When enabled, file bodies are read from the connection on the connection's thread and
+     * written to disk on a separate writer thread, with a ring of Config.WRITE_PIPELINE_BUFFERS
+     * buffers between them, so a slow disk does not stop the socket from being drained.
+     * Bodies that fit in one buffer are still written directly. Takes precedence over the
+     * zero-copy receive path.
+     * 
+     * @param pipelinedWritesEnabled true to write file bodies on a separate thread
+     */
+    public void setPipelinedWritesEnabled(boolean pipelinedWritesEnabled) {
+        this.pipelinedWritesEnabled = pipelinedWritesEnabled;
+    }
+
+    /**
+     * Checks if file bodies are written on a separate thread.
+     * 
+     * @return true if the write pipeline is enabled
+     */
+    public boolean isPipelinedWritesEnabled() {
+        return pipelinedWritesEnabled;
+    }
+
+    /**
+     * Enables or disables socket autotuning. When enabled, receive buffers are left to the
+     * operating system's own autotuning; when disabled, every connection uses the fixed
+     * Config.FIXED_SOCKET_BUFFER_SIZE, for reproducible benchmarks. The listening socket picks
+     * up a change on the next start.
+     * 
+     * @param autotuningEnabled true to tune socket options automatically
+     */
+    public void setAutotuningEnabled(boolean autotuningEnabled) {
+        this.autotuningEnabled = autotuningEnabled;
+    }
+
+    /**
+     * Checks if socket options are tuned automatically.
+     * 
+     * @return true for automatic tuning, false for the fixed profile
+     */
+    public boolean isAutotuningEnabled() {
+        return autotuningEnabled;
+    }
+
+    /**
+     * Sets how many transfers may be received at the same time.
+     * Further senders wait in the connection backlog until a transfer finishes.
+     * Takes effect the next time the receiver is started.
+     * 
+     * @param maxConcurrentTransfers The maximum number of concurrent transfers (at least 1)
+     */
+    public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+        if (maxConcurrentTransfers < 1) {
+            throw new IllegalArgumentException("At least one concurrent transfer is required");
+        }
+        this.maxConcurrentTransfers = maxConcurrentTransfers;
+    }
+
+    /**
+     * Gets how many transfers may be received at the same time.
+     * 
+     * @return The maximum number of concurrent transfers
+     */
+    public int getMaxConcurrentTransfers() {
+        return maxConcurrentTransfers;
+    }
+
+    /**
+     * Gets the number of transfers currently being received.
+     * 
+     * @return The number of active transfers
+     */
+    public int getActiveTransferCount() {
+        return activeTransfers.size();
+    }
+
     /**
      * Logs a message using the log callback.
      * 
@@ -116,151 +289,1284 @@ public class FileReceiver {
     }
 
     /**
-     * Updates progress using the progress callback.
+     * Gets the combined progress of the transfers being received.
+     * The receive loops only update counters; call TransferStats.sample to read them.
+     * 
+     * @return The transfer statistics
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Registers a transfer with the active transfers and the transfer stats.
+     * 
+     * @param key The key of the transfer
+     * @param transfer The transfer
+     * @param alreadyReceived Bytes that were already on disk before this connection
+     */
+    private void beginTransfer(Object key, ActiveTransfer transfer, long alreadyReceived) {
+        activeTransfers.put(key, transfer);
+        transferStats.begin(transfer.getFileSize(), alreadyReceived);
+    }
+
+    /**
+     * Unregisters a transfer, whether it completed or failed.
      * 
-     * @param percentage The progress percentage (0-100)
+     * @param key The key of the transfer
+     * @param transfer The transfer
      */
-    private void updateProgress(int percentage) {
-        if (progressCallback != null) {
-            progressCallback.accept(percentage);
+    private void endTransfer(Object key, ActiveTransfer transfer) {
+        if (activeTransfers.remove(key, transfer)) {
+            transferStats.end(transfer.getFileSize(), transfer.getBytesReceived());
         }
     }
 
     /**
-     * SwingWorker class to handle file receiving in a background thread.
+     * A file being received, as seen by the combined progress.
      */
-    private class ReceiverThread extends SwingWorker<Void, String> {
+    private interface ActiveTransfer {
+        long getFileSize();
+
+        long getBytesReceived();
+    }
+
+    /**
+     * Accepts connections and hands each one to the connection pool.
+     * Runs on the transfer engine until its handle is cancelled.
+     */
+    private class ReceiverThread implements TransferTask<Void> {
         private final int port;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private TransferHandle<Void> handle;
 
         public ReceiverThread(int port) {
             this.port = port;
         }
 
+        private boolean isCancelled() {
+            return handle.isCancelled();
+        }
+
         @Override
-        protected Void doInBackground() throws Exception {
+        public Void run(TransferHandle<Void> handle) {
+            this.handle = handle;
+            int maxTransfers = maxConcurrentTransfers;
+            boolean automatic = autotuningEnabled;
+            Semaphore transferSlots = new Semaphore(maxTransfers);
+
             try {
-                serverSocket = new ServerSocket(port);
+                // Open through a channel so accepted sockets expose a SocketChannel for zero-copy reads
+                serverChannel = ServerSocketChannel.open();
+                SocketTuner.configureServer(serverChannel, automatic);
+                serverChannel.bind(new InetSocketAddress(port));
+                // The transfer slots bound how many connections and disk writers run at once
+                connectionPool = TransferEngine.shared().newExecutor("receiver-connection-");
+                diskWriterPool = TransferEngine.shared().newExecutor("receiver-disk-writer-");
                 isRunning = true;
+                started.countDown();
 
-                publish("File receiver started. Listening on port " + port);
+                log("File receiver started. Listening on port " + port
+                        + " (up to " + maxTransfers + " concurrent transfers)");
+                log("Socket tuning: " + (automatic ? "automatic" : "fixed")
+                        + ", SO_RCVBUF " + serverChannel.getOption(StandardSocketOptions.SO_RCVBUF) + " bytes");
 
                 while (!isCancelled()) {
-                    publish("Waiting for sender to connect...");
+                    // Wait for a free slot first, so excess senders queue in the TCP backlog
+                    transferSlots.acquire();
 
+                    SocketChannel clientChannel;
                     try {
-                        // Accept client connection (with timeout to check for cancellation)
-                        serverSocket.setSoTimeout(1000); // 1 second timeout
-                        Socket clientSocket = serverSocket.accept();
-
-                        try (
-                            // Get input streams
-                            InputStream inputStream = clientSocket.getInputStream();
-                            DataInputStream dataInputStream = new DataInputStream(inputStream)
-                        ) {
-                            // Log connection
-                            publish("Connection established with: " + 
-                                   clientSocket.getInetAddress().getHostAddress());
-
-                            // Read the filename
-                            String fileName = dataInputStream.readUTF();
-
-                            // Read the file size
-                            long fileSize = dataInputStream.readLong();
-
-                            publish("Receiving file: " + fileName);
-                            publish("File size: " + fileSize + " bytes");
-
-                            // Create the complete file path
-                            String filePath = Paths.get(saveDirectory, fileName).toString();
-
-                            // Create output stream to save the file
-                            try (FileOutputStream fileOutputStream = new FileOutputStream(filePath)) {
-                                byte[] buffer = new byte[Config.BUFFER_SIZE];
-                                int bytesRead;
-                                long totalBytesRead = 0;
-                                long lastProgressUpdate = 0;
-
-                                publish("Receiving...");
-
-                                // Read data from socket and write to file
-                                while (totalBytesRead < fileSize && 
-                                      (bytesRead = inputStream.read(buffer, 0, 
-                                                  (int) Math.min(buffer.length, fileSize - totalBytesRead))) != -1) {
-
-                                    if (isCancelled()) {
-                                        throw new InterruptedException("File transfer cancelled");
-                                    }
-
-                                    fileOutputStream.write(buffer, 0, bytesRead);
-                                    totalBytesRead += bytesRead;
-
-                                    // Update progress every X% or at least every Y bytes
-                                    long currentProgress = (totalBytesRead * 100) / fileSize;
-                                    if (currentProgress > lastProgressUpdate + Config.PROGRESS_UPDATE_PERCENTAGE || 
-                                        totalBytesRead - lastProgressUpdate * fileSize / 100 > Config.PROGRESS_UPDATE_BYTES) {
-                                        lastProgressUpdate = currentProgress;
-                                        updateProgress((int)currentProgress);
-                                        publish(String.format("Progress: %d%%", currentProgress));
-                                    }
-                                }
-
-                                publish("File received successfully!");
-                                publish("Saved to: " + filePath);
-
-                                // Record the transfer in history
-                                if (historyManager != null) {
-                                    TransferRecord record = new TransferRecord(fileName, fileSize, TransferRecord.Direction.RECEIVED);
-                                    historyManager.addTransferRecord(record);
-                                }
-                            }
+                        // Blocks until a sender connects; stop() closes the channel to end the loop
+                        clientChannel = serverChannel.accept();
+                    } catch (IOException e) {
+                        transferSlots.release();
+                        throw e;
+                    }
 
+                    ConnectionHandler handler = new ConnectionHandler(connectionCounter.incrementAndGet(), clientChannel);
+                    connectionPool.execute(() -> {
+                        try {
+                            handler.run();
                         } finally {
-                            // Ensure client socket is closed
-                            if (clientSocket != null && !clientSocket.isClosed()) {
-                                clientSocket.close();
-                            }
+                            transferSlots.release();
                         }
-
-                    } catch (java.net.SocketTimeoutException e) {
-                        // This is expected due to the timeout we set
-                        // Just continue the loop to check for cancellation
-                    } catch (IOException e) {
-                        if (!isCancelled() && isRunning) {
-                            publish("Error receiving file: " + e.getMessage());
-                        }
-                    }
+                    });
                 }
 
+            } catch (ClosedChannelException | InterruptedException e) {
+                // The receiver was stopped
             } catch (IOException e) {
                 if (!isCancelled()) {
-                    publish("Server error: " + e.getMessage());
+                    log("Server error: " + e.getMessage());
                 }
             } finally {
-                // Ensure server socket is closed
-                if (serverSocket != null && !serverSocket.isClosed()) {
+                // Ensure server channel is closed
+                if (serverChannel != null && serverChannel.isOpen()) {
                     try {
-                        serverSocket.close();
+                        serverChannel.close();
                     } catch (IOException e) {
-                        publish("Error closing server socket: " + e.getMessage());
+                        log("Error closing server socket: " + e.getMessage());
                     }
                 }
+                if (connectionPool != null) {
+                    connectionPool.shutdown();
+                }
+                if (diskWriterPool != null) {
+                    diskWriterPool.shutdown();
+                }
                 isRunning = false;
+                started.countDown();
+                terminated.countDown();
             }
 
             return null;
         }
+    }
+
+    /**
+     * Gets the shared file of a striped transfer, creating and preallocating it for its first segment.
+     * 
+     * @param transferId The identifier the sender chose for the transfer
+     * @param filePath Where the file is saved, already checked to be inside the save directory
+     * @param fileSize The size of the file in bytes
+     * @param peerAddress The address of the sender
+     * @return The striped file
+     */
+    private StripedFile openStripedFile(long transferId, Path filePath, long fileSize, String peerAddress) throws IOException {
+        try {
+            return stripedFiles.computeIfAbsent(transferId, id -> {
+                try {
+                    return new StripedFile(id, filePath, fileSize, peerAddress);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A file assembled from segments arriving over several connections.
+     * Segments are written with positional transfers, so connections never contend for a file position.
+     * The file is assembled under a partial name, since the preallocated file has its full size long
+     * before every segment has arrived, and only renamed to its real name once it is complete.
+     */
+    private class StripedFile implements ActiveTransfer {
+        private final long transferId;
+        private final String fileName;
+        private final long fileSize;
+        private final Path filePath;
+        private final Path partialPath;
+        private final String peerAddress;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel fileChannel;
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final ThroughputMeter meter = new ThroughputMeter();
+
+        public StripedFile(long transferId, Path filePath, long fileSize, String peerAddress) throws IOException {
+            this.transferId = transferId;
+            this.fileName = filePath.getFileName().toString();
+            this.fileSize = fileSize;
+            this.filePath = filePath;
+            this.partialPath = filePath.resolveSibling(fileName + Config.PARTIAL_FILE_SUFFIX);
+            this.peerAddress = peerAddress;
+
+            randomAccessFile = new RandomAccessFile(partialPath.toFile(), "rw");
+            fileChannel = randomAccessFile.getChannel();
+
+            // Preallocate so segments can land anywhere in the file
+            randomAccessFile.setLength(fileSize);
+            beginTransfer(transferId, this, 0);
+            meter.start(0);
+
+            log("Receiving file over parallel streams: " + fileName);
+            log("File size: " + fileSize + " bytes");
+        }
 
         @Override
-        protected void process(java.util.List<String> chunks) {
-            for (String message : chunks) {
-                log(message);
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        /**
+         * Writes one segment from the connection at its offset, completing the file after its last byte.
+         * 
+         * @param socketChannel The connection carrying the segment
+         * @param offset The file offset of the segment
+         * @param length The length of the segment
+         */
+        public void receiveSegment(SocketChannel socketChannel, long offset, long length) throws IOException, InterruptedException {
+            long position = offset;
+            long end = offset + length;
+
+            while (position < end) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("File transfer cancelled");
+                }
+
+                long count = Math.min(Config.ZERO_COPY_CHUNK_SIZE, end - position);
+                long bytesRead = fileChannel.transferFrom(socketChannel, position, count);
+                if (bytesRead <= 0) {
+                    throw new EOFException("Connection closed in the middle of a segment");
+                }
+
+                position += bytesRead;
+                meter.update(bytesReceived.addAndGet(bytesRead));
+                transferStats.add(bytesRead);
+            }
+
+            if (bytesReceived.get() == fileSize) {
+                complete();
+            }
+        }
+
+        /**
+         * Closes the finished file, publishes it under its real name and records it in history.
+         */
+        private void complete() throws IOException {
+            if (stripedFiles.remove(transferId, this)) {
+                endTransfer(transferId, this);
+                fileChannel.close();
+                randomAccessFile.close();
+                Files.move(partialPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+
+                log("File received successfully!");
+                log("Saved to: " + filePath);
+
+                // Record the transfer in history
+                recordTransfer(TransferRecord.Outcome.SUCCESS);
+            }
+        }
+
+        /**
+         * Discards the transfer after one of its connections failed, or the receiver was stopped.
+         * 
+         * @param cancelled true if the receiver is being stopped
+         */
+        public void abort(boolean cancelled) {
+            if (stripedFiles.remove(transferId, this)) {
+                endTransfer(transferId, this);
+                try {
+                    fileChannel.close();
+                    randomAccessFile.close();
+                    Files.deleteIfExists(partialPath);
+                } catch (IOException e) {
+                    log("Error discarding " + fileName + ": " + e.getMessage());
+                }
+                log("Parallel transfer of " + fileName + " failed; the partial file was discarded.");
+                recordTransfer(cancelled ? TransferRecord.Outcome.CANCELLED : TransferRecord.Outcome.FAILED);
             }
         }
 
+        /**
+         * Records the transfer in history with the measurements of all its connections.
+         * 
+         * @param outcome How the transfer ended
+         */
+        private void recordTransfer(TransferRecord.Outcome outcome) {
+            if (historyManager != null) {
+                historyManager.addTransferRecord(meter.createRecord(fileName, fileSize, meter.getBytesTransferred(),
+                        TransferRecord.Direction.RECEIVED, peerAddress, outcome, TransferRecord.Integrity.NOT_CHECKED));
+            }
+        }
+    }
+
+    /**
+     * Receives a single file over one accepted connection.
+     * Log messages are prefixed with the connection number so concurrent transfers can be told apart.
+     */
+    private class ConnectionHandler implements Runnable, ActiveTransfer {
+        private final int id;
+        private final SocketChannel clientChannel;
+        private volatile long fileSize;
+        private volatile long totalBytesRead;
+        private long reportedBytes;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private ThroughputMeter meter = new ThroughputMeter();
+        private String peerAddress = "";
+        private WritePipeline writePipeline;
+
+        // The transfer recorded as failed if the connection ends early, or null once recorded
+        private String pendingName;
+        private long pendingSize;
+        private TransferRecord.Integrity pendingIntegrity = TransferRecord.Integrity.NOT_CHECKED;
+
+        public ConnectionHandler(int id, SocketChannel clientChannel) {
+            this.id = id;
+            this.clientChannel = clientChannel;
+        }
+
         @Override
-        protected void done() {
-            // Reset progress when done
-            updateProgress(0);
+        public void run() {
+            try (SocketChannel channel = clientChannel) {
+                // Log connection
+                peerAddress = channel.socket().getInetAddress().getHostAddress();
+                connectionLog("Connection established with: " + peerAddress);
+                SocketTuner.configureAccepted(channel, autotuningEnabled);
+
+                // The stream is unbuffered, so it never reads past the header into the body
+                DataInputStream dataInputStream = new DataInputStream(Channels.newInputStream(channel));
+
+                // Read the filename
+                String fileName = dataInputStream.readUTF();
+
+                // Extended transfers replace the file name with the protocol marker
+                if (Protocol.MAGIC.equals(fileName)) {
+                    int mode = Protocol.readHeader(dataInputStream);
+                    if (mode == Protocol.MODE_STRIPED) {
+                        receiveStripes(dataInputStream, channel);
+                    } else if (mode == Protocol.MODE_RESUMABLE) {
+                        receiveResumable(dataInputStream, channel);
+                    } else if (mode == Protocol.MODE_BATCH) {
+                        receiveBatch(dataInputStream, channel);
+                    } else if (mode == Protocol.MODE_DIRECTORY) {
+                        receiveDirectory(dataInputStream, channel);
+                    } else if (mode == Protocol.MODE_CHUNKED) {
+                        receiveChunked(dataInputStream, channel);
+                    } else {
+                        throw new IOException("Unsupported transfer mode " + mode);
+                    }
+                    return;
+                }
+
+                // Read the file size
+                fileSize = dataInputStream.readLong();
+                if (fileSize < 0) {
+                    throw new IOException("Invalid file size " + fileSize);
+                }
+
+                connectionLog("Receiving file: " + fileName);
+                connectionLog("File size: " + fileSize + " bytes");
+                expectTransfer(fileName, fileSize);
+
+                // Create the complete file path
+                String filePath = resolveFileName(fileName).toString();
+
+                beginProgress();
+                try {
+                    // Stream the body straight from the socket channel into the file
+                    connectionLog("Receiving...");
+                    receiveBody(channel, filePath, fileSize);
+                } finally {
+                    endProgress();
+                }
+
+                connectionLog("File received successfully!");
+                connectionLog("Saved to: " + filePath);
+
+                // Record the transfer in history
+                recordTransfer(fileName, fileSize, TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+
+            } catch (InterruptedException | ClosedChannelException e) {
+                if (isRunning) {
+                    connectionLog("File transfer cancelled");
+                }
+                recordPendingTransfer(TransferRecord.Outcome.CANCELLED);
+            } catch (IOException | RuntimeException e) {
+                if (isRunning) {
+                    connectionLog("Error receiving file: " + e.getMessage());
+                }
+                recordPendingTransfer(isRunning ? TransferRecord.Outcome.FAILED : TransferRecord.Outcome.CANCELLED);
+            } finally {
+                if (writePipeline != null) {
+                    writePipeline.close();
+                }
+                finished.countDown();
+            }
+        }
+
+        @Override
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return reportedBytes;
+        }
+
+        /**
+         * Receives the segments one connection of a striped transfer carries.
+         * Every connection of the transfer writes into the same StripedFile.
+         * 
+         * @param dataInputStream The unbuffered header stream of the connection
+         * @param socketChannel The channel of the connection
+         */
+        private void receiveStripes(DataInputStream dataInputStream, SocketChannel socketChannel) throws IOException, InterruptedException {
+            long transferId = dataInputStream.readLong();
+            String fileName = dataInputStream.readUTF();
+            long stripedFileSize = dataInputStream.readLong();
+            if (stripedFileSize < 0) {
+                throw new IOException("Invalid file size " + stripedFileSize);
+            }
+            Path filePath = resolveFileName(fileName);
+
+            connectionLog("Receiving stream of parallel transfer: " + fileName);
+
+            StripedFile stripedFile = null;
+            try {
+                long offset;
+                while ((offset = dataInputStream.readLong()) != Protocol.END_OF_SEGMENTS) {
+                    long length = dataInputStream.readLong();
+                    if (offset < 0 || length < 0 || offset + length > stripedFileSize) {
+                        throw new IOException("Segment " + offset + "+" + length + " is outside the file");
+                    }
+
+                    // The file is opened by whichever connection delivers the first segment
+                    if (stripedFile == null) {
+                        stripedFile = openStripedFile(transferId, filePath, stripedFileSize, peerAddress);
+                    }
+                    stripedFile.receiveSegment(socketChannel, offset, length);
+                }
+            } catch (IOException | InterruptedException e) {
+                if (stripedFile != null) {
+                    stripedFile.abort(!isRunning);
+                }
+                throw e;
+            }
+
+            // Acknowledge once everything this connection carried has been written
+            socketChannel.write(ByteBuffer.wrap(new byte[] { Protocol.ACK }));
+        }
+
+        /**
+         * Receives a batch of files sent back to back after a manifest.
+         * Every file is recorded in history with a single update once the batch is complete.
+         * 
+         * @param dataInputStream The unbuffered header stream of the connection
+         * @param socketChannel The channel of the connection
+         */
+        private void receiveBatch(DataInputStream dataInputStream, SocketChannel socketChannel) throws IOException, InterruptedException {
+            int fileCount = dataInputStream.readInt();
+            if (fileCount < 0 || fileCount > Config.MAX_BATCH_FILES) {
+                throw new IOException("Invalid batch size " + fileCount);
+            }
+
+            String[] fileNames = new String[fileCount];
+            long[] fileSizes = new long[fileCount];
+            long batchSize = 0;
+            Path[] filePaths = new Path[fileCount];
+            for (int i = 0; i < fileCount; i++) {
+                fileNames[i] = dataInputStream.readUTF();
+                fileSizes[i] = dataInputStream.readLong();
+                if (fileSizes[i] < 0) {
+                    throw new IOException("Invalid size " + fileSizes[i] + " for " + fileNames[i]);
+                }
+                filePaths[i] = resolveFileName(fileNames[i]);
+                batchSize += fileSizes[i];
+            }
+
+            connectionLog("Receiving batch of " + fileCount + " file(s)");
+            connectionLog("Batch size: " + batchSize + " bytes");
+
+            fileSize = batchSize;
+            List<TransferRecord> records = new ArrayList<>();
+
+            beginProgress();
+            try {
+                for (int i = 0; i < fileCount; i++) {
+                    // Each file gets its own meter, so its record shows its own time and throughput
+                    meter = new ThroughputMeter();
+                    meter.start(totalBytesRead);
+                    expectTransfer(fileNames[i], fileSizes[i]);
+                    receiveBody(socketChannel, filePaths[i].toString(), fileSizes[i]);
+                    records.add(meter.createRecord(fileNames[i], fileSizes[i], fileSizes[i],
+                            TransferRecord.Direction.RECEIVED, peerAddress, TransferRecord.Outcome.SUCCESS,
+                            TransferRecord.Integrity.NOT_CHECKED));
+                }
+                pendingName = null;
+            } finally {
+                endProgress();
+
+                // Record whatever arrived, with one history update for the whole batch; the file
+                // that was cut off is recorded as failed once the connection ends
+                if (historyManager != null && !records.isEmpty()) {
+                    historyManager.addTransferRecords(records);
+                }
+            }
+
+            socketChannel.write(ByteBuffer.wrap(new byte[] { Protocol.ACK }));
+
+            connectionLog("Batch received successfully!");
+            connectionLog("Saved " + fileCount + " file(s) to: " + saveDirectory);
+        }
+
+        /**
+         * Receives a file sent as independently encoded chunks.
+         * The connection thread only reads chunks off the network; decoding, verifying and writing
+         * happen on the ChunkCodec pool, with up to Config.CODEC_PIPELINE_DEPTH chunks in flight.
+         * The file is assembled under a partial name and only renamed to its real name once every
+         * chunk has arrived and, for a verified transfer, matched its digest and the Merkle root.
+         * 
+         * @param dataInputStream The unbuffered header stream of the connection
+         * @param socketChannel The channel of the connection
+         */
+        private void receiveChunked(DataInputStream dataInputStream, SocketChannel socketChannel) throws IOException, InterruptedException {
+            String fileName = dataInputStream.readUTF();
+            fileSize = dataInputStream.readLong();
+            int flags = dataInputStream.readInt();
+            int chunkSize = dataInputStream.readInt();
+            if (fileSize < 0 || chunkSize <= 0 || chunkSize > Config.CODEC_MAX_CHUNK_SIZE
+                    || (fileSize + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid chunked header");
+            }
+            int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            boolean verified = (flags & Protocol.FLAG_VERIFIED) != 0;
+
+            connectionLog("Receiving file: " + fileName + describeFlags(flags));
+            connectionLog("File size: " + fileSize + " bytes");
+            expectTransfer(fileName, fileSize);
+
+            ChunkCipher cipher = null;
+            if ((flags & Protocol.FLAG_ENCRYPTED) != 0) {
+                cipher = ChunkCipher.handshakeAsReceiver(
+                        new DataOutputStream(Channels.newOutputStream(socketChannel)), dataInputStream);
+            }
+
+            Path filePath = resolveFileName(fileName);
+            Path partialPath = filePath.resolveSibling(filePath.getFileName() + Config.PARTIAL_FILE_SUFFIX);
+            DataInputStream chunkStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(socketChannel)));
+            DataOutputStream replyStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+            byte[][] digests = verified ? new byte[chunkCount][] : null;
+            boolean received = false;
+
+            beginProgress();
+            try (
+                RandomAccessFile randomAccessFile = new RandomAccessFile(partialPath.toFile(), "rw");
+                FileChannel fileChannel = randomAccessFile.getChannel()
+            ) {
+                randomAccessFile.setLength(fileSize);
+
+                int[] expectedChunks = new int[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    expectedChunks[i] = i;
+                }
+
+                byte[] senderRoot = null;
+                for (int round = 0; ; round++) {
+                    int[] failedChunks = receiveChunkRound(chunkStream, fileChannel, flags, cipher, chunkSize,
+                            expectedChunks, round, digests);
+                    if (!verified) {
+                        break;
+                    }
+                    if (round == 0) {
+                        senderRoot = new byte[ChunkDigests.DIGEST_SIZE];
+                        chunkStream.readFully(senderRoot);
+                    }
+
+                    // Ask for the chunks that failed; an empty list tells the sender the file is complete
+                    replyStream.writeInt(failedChunks.length);
+                    for (int index : failedChunks) {
+                        replyStream.writeInt(index);
+                    }
+                    replyStream.flush();
+
+                    if (failedChunks.length == 0) {
+                        break;
+                    }
+                    connectionLog(failedChunks.length + " chunk(s) failed verification");
+                    if (round + 1 >= Config.VERIFY_MAX_ROUNDS) {
+                        pendingIntegrity = TransferRecord.Integrity.MISMATCH;
+                        throw new IOException("Chunks still failed verification after " + (round + 1) + " rounds");
+                    }
+                    expectedChunks = failedChunks;
+                }
+
+                if (verified) {
+                    byte[] root = ChunkDigests.merkleRoot(digests);
+                    if (!ChunkDigests.matches(senderRoot, root)) {
+                        pendingIntegrity = TransferRecord.Integrity.MISMATCH;
+                        throw new IOException("File does not match the sender's Merkle root");
+                    }
+                    connectionLog("Verified Merkle root: " + ChunkDigests.toHex(root));
+                }
+                received = true;
+            } finally {
+                endProgress();
+                if (!received) {
+                    Files.deleteIfExists(partialPath);
+                }
+            }
+
+            // Publish the file under its real name only now that it is complete
+            Files.move(partialPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+
+            // Record the transfer in history
+            recordTransfer(fileName, fileSize, TransferRecord.Outcome.SUCCESS,
+                    verified ? TransferRecord.Integrity.VERIFIED : TransferRecord.Integrity.NOT_CHECKED);
+
+            socketChannel.write(ByteBuffer.wrap(new byte[] { Protocol.ACK }));
+
+            connectionLog("File received successfully!");
+            connectionLog("Saved to: " + filePath);
+        }
+
+        /**
+         * Receives one round of chunks and hands each to the ChunkCodec pool to be decoded and written.
+         * 
+         * @param chunkStream The buffered stream the chunks arrive on
+         * @param fileChannel The channel of the partial file
+         * @param flags The transfer flags from the header
+         * @param cipher The cipher of an encrypted transfer, or null
+         * @param chunkSize The chunk size from the header
+         * @param indices The chunks the sender sends in this round, in order
+         * @param round The retransmission round
+         * @param digests Receives the digest of every verified chunk, or null if the transfer is not verified
+         * @return The chunks that failed verification, in ascending order
+         */
+        private int[] receiveChunkRound(DataInputStream chunkStream, FileChannel fileChannel, int flags, ChunkCipher cipher,
+                                        int chunkSize, int[] indices, int round, byte[][] digests) throws IOException, InterruptedException {
+            int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            int maxLength = chunkSize + ChunkCipher.TAG_SIZE + ChunkDigests.DIGEST_SIZE;
+            Set<Integer> failedChunks = ConcurrentHashMap.newKeySet();
+            Deque<Future<Integer>> pipeline = new ArrayDeque<>();
+
+            try {
+                for (int index : indices) {
+                    long position = (long) index * chunkSize;
+                    byte encoding = chunkStream.readByte();
+                    int rawLength = chunkStream.readInt();
+                    int length = chunkStream.readInt();
+                    if (rawLength != Math.min(chunkSize, fileSize - position) || length < 0 || length > maxLength) {
+                        throw new IOException("Invalid header for chunk " + index);
+                    }
+                    byte[] data = new byte[length];
+                    chunkStream.readFully(data);
+
+                    ChunkCodec.EncodedChunk chunk = new ChunkCodec.EncodedChunk(encoding, rawLength, data, length);
+                    boolean last = index == chunkCount - 1;
+                    pipeline.add(ChunkCodec.executor().submit(() -> {
+                        ChunkCodec.EncodedChunk decoded;
+                        try {
+                            decoded = ChunkCodec.decode(chunk, flags, cipher, index, round, last);
+                        } catch (IOException e) {
+                            if (digests == null) {
+                                throw e;
+                            }
+                            // A verified transfer asks for the chunk again instead of failing
+                            failedChunks.add(index);
+                            return 0;
+                        }
+                        if (digests != null) {
+                            digests[index] = decoded.getDigest();
+                        }
+                        return writeChunk(fileChannel, position, decoded.getData());
+                    }));
+
+                    if (pipeline.size() >= Config.CODEC_PIPELINE_DEPTH) {
+                        completeChunk(pipeline.poll());
+                    }
+                }
+
+                while (!pipeline.isEmpty()) {
+                    completeChunk(pipeline.poll());
+                }
+            } finally {
+                for (Future<Integer> pending : pipeline) {
+                    pending.cancel(true);
+                }
+            }
+
+            return failedChunks.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        /**
+         * Describes the options of a chunked transfer for the log.
+         */
+        private String describeFlags(int flags) {
+            String description = "";
+            if ((flags & Protocol.FLAG_COMPRESSED) != 0) {
+                description += " (compressed)";
+            }
+            if ((flags & Protocol.FLAG_ENCRYPTED) != 0) {
+                description += " (encrypted)";
+            }
+            if ((flags & Protocol.FLAG_VERIFIED) != 0) {
+                description += " (verified)";
+            }
+            return description;
+        }
+
+        /**
+         * Writes a decoded chunk at its position in the file. Runs on the ChunkCodec pool.
+         * 
+         * @return The number of bytes written
+         */
+        private int writeChunk(FileChannel fileChannel, long position, byte[] raw) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer, position + buffer.position());
+            }
+            return raw.length;
+        }
+
+        /**
+         * Waits for the oldest chunk in the pipeline and counts it towards progress.
+         */
+        private void completeChunk(Future<Integer> future) throws IOException, InterruptedException {
+            try {
+                totalBytesRead += future.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Decoding failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            reportProgress();
+        }
+
+        /**
+         * Receives a directory tree and recreates it under the save directory.
+         * Entries arrive in frames; small files are written out of the frame by a PackedFileWriter
+         * while the next frames are read, and large files are received from the connection after
+         * the frame that announces them.
+         * 
+         * @param dataInputStream The unbuffered header stream of the connection
+         * @param socketChannel The channel of the connection
+         */
+        private void receiveDirectory(DataInputStream dataInputStream, SocketChannel socketChannel) throws IOException, InterruptedException {
+            String directoryName = dataInputStream.readUTF();
+            fileSize = dataInputStream.readLong();
+            int entryCount = dataInputStream.readInt();
+            if (entryCount < 0 || entryCount > Config.MAX_BATCH_FILES) {
+                throw new IOException("Invalid entry count " + entryCount);
+            }
+
+            Path root = resolveFileName(directoryName);
+
+            connectionLog("Receiving directory: " + directoryName);
+            connectionLog("Directory size: " + fileSize + " bytes in " + entryCount + " entries");
+            expectTransfer(directoryName, fileSize);
+
+            Files.createDirectories(root);
+            PackedFileWriter packedFileWriter = new PackedFileWriter(diskWriterPool);
+            int entriesReceived = 0;
+
+            beginProgress();
+            try {
+                int frameLength;
+                while ((frameLength = dataInputStream.readInt()) != Protocol.END_OF_FRAMES) {
+                    if (frameLength < 0 || frameLength > Config.DIRECTORY_FRAME_SIZE) {
+                        throw new IOException("Invalid frame length " + frameLength);
+                    }
+
+                    ByteBuffer frame = packedFileWriter.nextFrame();
+                    frame.limit(frameLength);
+                    while (frame.hasRemaining()) {
+                        if (socketChannel.read(frame) < 0) {
+                            throw new EOFException("Connection closed inside a frame");
+                        }
+                    }
+                    frame.flip();
+
+                    entriesReceived += receiveFrame(frame, root, socketChannel, packedFileWriter);
+                    if (entriesReceived > entryCount) {
+                        throw new IOException("More entries than announced");
+                    }
+                }
+                packedFileWriter.finish();
+            } finally {
+                endProgress();
+                packedFileWriter.close();
+            }
+
+            // Record the directory as one transfer
+            recordTransfer(directoryName, fileSize, TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+
+            socketChannel.write(ByteBuffer.wrap(new byte[] { Protocol.ACK }));
+
+            connectionLog("Directory received successfully!");
+            connectionLog("Saved " + entriesReceived + " entries to: " + root);
+        }
+
+        /**
+         * Creates the directories of one frame of a directory transfer and hands its small files
+         * to the writer. Directories are created here, before the files of the frame are handed
+         * over, so a file never arrives before the directory it goes in.
+         * 
+         * @param frame The frame contents
+         * @param root The directory the tree is recreated in
+         * @param socketChannel The channel of the connection, for large file contents after the frame
+         * @param packedFileWriter The writer of the frame's small files
+         * @return The number of entries in the frame
+         */
+        private int receiveFrame(ByteBuffer frame, Path root, SocketChannel socketChannel,
+                                 PackedFileWriter packedFileWriter) throws IOException, InterruptedException {
+            int entries = 0;
+            List<PackedFileWriter.PackedFile> packedFiles = new ArrayList<>();
+
+            while (frame.hasRemaining()) {
+                byte type = frame.get();
+                byte[] pathBytes = new byte[Short.toUnsignedInt(frame.getShort())];
+                frame.get(pathBytes);
+                long size = frame.getLong();
+                Path path = resolveEntry(root, new String(pathBytes, StandardCharsets.UTF_8));
+                entries++;
+
+                if (type == Protocol.ENTRY_DIRECTORY) {
+                    Files.createDirectories(path);
+                } else if (type == Protocol.ENTRY_FILE) {
+                    if (size < 0 || size > frame.remaining()) {
+                        throw new IOException("Invalid size for packed file: " + path);
+                    }
+                    packedFiles.add(new PackedFileWriter.PackedFile(path, frame.position(), (int) size));
+                    frame.position(frame.position() + (int) size);
+                    totalBytesRead += size;
+                } else if (type == Protocol.ENTRY_LARGE_FILE) {
+                    if (size < 0 || frame.hasRemaining()) {
+                        throw new IOException("Large file must end its frame: " + path);
+                    }
+                    // The small files of the frame are written while the large one is received
+                    packedFileWriter.write(frame, packedFiles);
+                    packedFiles = null;
+                    reportProgress();
+                    receiveBody(socketChannel, path.toString(), size);
+                } else {
+                    throw new IOException("Unknown entry type " + type);
+                }
+            }
+
+            if (packedFiles != null) {
+                packedFileWriter.write(frame, packedFiles);
+                reportProgress();
+            }
+            return entries;
+        }
+
+        /**
+         * Resolves a file or directory name sent by the peer to a path directly inside the save
+         * directory, refusing names with separators, "..", or absolute paths.
+         * 
+         * @param fileName The name sent by the peer
+         * @return The resolved path
+         */
+        private Path resolveFileName(String fileName) throws IOException {
+            Path saveRoot = Paths.get(saveDirectory).toAbsolutePath().normalize();
+            Path path = resolveEntry(saveRoot, fileName);
+            if (!path.getParent().equals(saveRoot)) {
+                throw new IOException("Invalid file name: " + fileName);
+            }
+            return path;
+        }
+
+        /**
+         * Resolves a path sent by the peer, refusing anything that would land outside the given directory.
+         * 
+         * @param root The directory the path must stay inside
+         * @param relativePath The relative path sent by the peer
+         * @return The resolved path
+         */
+        private Path resolveEntry(Path root, String relativePath) throws IOException {
+            if (relativePath.isEmpty() || relativePath.indexOf('\0') >= 0 || relativePath.indexOf('\\') >= 0) {
+                throw new IOException("Invalid path: " + relativePath);
+            }
+
+            Path path = root.resolve(relativePath).normalize();
+            if (Paths.get(relativePath).isAbsolute() || !path.startsWith(root) || path.equals(root)) {
+                throw new IOException("Path escapes the target directory: " + relativePath);
+            }
+            return path;
+        }
+
+        /**
+         * Receives the missing chunks of a resumable transfer.
+         * The file is assembled under a partial name next to its journal and only renamed
+         * to its real name once every chunk is present.
+         * 
+         * @param dataInputStream The unbuffered header stream of the connection
+         * @param socketChannel The channel of the connection
+         */
+        private void receiveResumable(DataInputStream dataInputStream, SocketChannel socketChannel) throws IOException, InterruptedException {
+            String fileName = dataInputStream.readUTF();
+            fileSize = dataInputStream.readLong();
+            long lastModified = dataInputStream.readLong();
+            int chunkSize = dataInputStream.readInt();
+            if (fileSize < 0) {
+                throw new IOException("Invalid file size " + fileSize);
+            }
+            if (chunkSize < Config.RESUME_MIN_CHUNK_SIZE || chunkSize > Config.RESUME_MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+
+            connectionLog("Receiving resumable file: " + fileName);
+            connectionLog("File size: " + fileSize + " bytes");
+            expectTransfer(fileName, fileSize);
+
+            Path filePath = resolveFileName(fileName);
+            Path partialPath = filePath.resolveSibling(filePath.getFileName() + Config.PARTIAL_FILE_SUFFIX);
+            Path journalPath = filePath.resolveSibling(filePath.getFileName() + Config.JOURNAL_FILE_SUFFIX);
+
+            takeOverResumableFile(fileName);
+            try {
+                try (
+                    ResumeJournal journal = ResumeJournal.open(journalPath, fileSize, lastModified, chunkSize, Config.RESUME_COMMIT_INTERVAL);
+                    RandomAccessFile randomAccessFile = new RandomAccessFile(partialPath.toFile(), "rw");
+                    FileChannel fileChannel = randomAccessFile.getChannel()
+                ) {
+                    // Preallocate; chunks already written keep their contents
+                    if (randomAccessFile.length() != fileSize) {
+                        randomAccessFile.setLength(fileSize);
+                    }
+
+                    // Tell the sender which chunks it can skip
+                    DataOutputStream dataOutputStream = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+                    BitSet completedChunks = journal.getCompletedChunks();
+                    long[] words = completedChunks.toLongArray();
+                    dataOutputStream.writeInt(journal.getChunkCount());
+                    dataOutputStream.writeInt(words.length);
+                    for (long word : words) {
+                        dataOutputStream.writeLong(word);
+                    }
+                    dataOutputStream.flush();
+
+                    int completedCount = journal.getCompletedChunkCount();
+                    if (completedCount > 0) {
+                        connectionLog(String.format("Resuming: %d of %d chunks already received",
+                                completedCount, journal.getChunkCount()));
+                    }
+                    // The last chunk is usually short, so once it is in it counts for its real length
+                    long completedBytes = (long) completedCount * chunkSize;
+                    int lastChunk = journal.getChunkCount() - 1;
+                    if (lastChunk >= 0 && completedChunks.get(lastChunk)) {
+                        completedBytes -= (long) journal.getChunkCount() * chunkSize - fileSize;
+                    }
+                    totalBytesRead = completedBytes;
+
+                    Exception failure = null;
+                    beginProgress();
+                    try {
+                        receiveChunks(dataInputStream, socketChannel, fileChannel, journal, chunkSize);
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        failure = e;
+                        throw e;
+                    } finally {
+                        // Keep everything that arrived, even when the connection dropped
+                        endProgress();
+                        try {
+                            journal.commit(fileChannel);
+                        } catch (IOException e) {
+                            // The receive failure says why the transfer ended; this one goes with it
+                            if (failure == null) {
+                                throw e;
+                            }
+                            failure.addSuppressed(e);
+                        }
+                    }
+
+                    if (!journal.isComplete()) {
+                        throw new IOException("Sender finished with chunks still missing");
+                    }
+                }
+
+                Files.move(partialPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(journalPath);
+            } finally {
+                resumableOwners.remove(fileName, this);
+            }
+
+            socketChannel.write(ByteBuffer.wrap(new byte[] { Protocol.ACK }));
+
+            connectionLog("File received successfully!");
+            connectionLog("Saved to: " + filePath);
+
+            // Record the transfer in history
+            recordTransfer(fileName, fileSize, TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+        }
+
+        /**
+         * Reads checksummed chunks until the sender's end marker, writing each one at its offset.
+         * 
+         * @param dataInputStream The unbuffered stream of the connection
+         * @param socketChannel The channel of the connection
+         * @param fileChannel The channel of the partial file
+         * @param journal The journal recording completed chunks
+         * @param chunkSize The chunk size used by the sender
+         */
+        private void receiveChunks(DataInputStream dataInputStream, SocketChannel socketChannel, FileChannel fileChannel,
+                                   ResumeJournal journal, int chunkSize) throws IOException, InterruptedException {
+            ByteBuffer chunkBuffer = BufferPool.shared().acquire(chunkSize);
+            try {
+                CRC32C crc = new CRC32C();
+
+                int index;
+                while ((index = dataInputStream.readInt()) != Protocol.END_OF_CHUNKS) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException("File transfer cancelled");
+                    }
+
+                    int checksum = dataInputStream.readInt();
+                    if (index < 0 || index >= journal.getChunkCount()) {
+                        throw new IOException("Chunk " + index + " is outside the file");
+                    }
+
+                    long offset = (long) index * chunkSize;
+                    int length = (int) Math.min(chunkSize, fileSize - offset);
+
+                    chunkBuffer.clear().limit(length);
+                    while (chunkBuffer.hasRemaining()) {
+                        if (socketChannel.read(chunkBuffer) < 0) {
+                            throw new EOFException("Connection closed in the middle of chunk " + index);
+                        }
+                    }
+                    chunkBuffer.flip();
+
+                    crc.reset();
+                    crc.update(chunkBuffer);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("Checksum mismatch in chunk " + index);
+                    }
+
+                    chunkBuffer.flip();
+                    long position = offset;
+                    while (chunkBuffer.hasRemaining()) {
+                        position += fileChannel.write(chunkBuffer, position);
+                    }
+
+                    journal.markComplete(index, checksum, fileChannel);
+                    totalBytesRead += length;
+                    reportProgress();
+                }
+            } finally {
+                BufferPool.shared().release(chunkBuffer);
+            }
+        }
+
+        /**
+         * Makes this connection the only one writing a resumable file.
+         * A sender only reconnects after giving up on its previous connection, so a
+         * connection still holding the file is stale and is closed.
+         * 
+         * @param fileName The name of the file being received
+         */
+        private void takeOverResumableFile(String fileName) throws InterruptedException {
+            ConnectionHandler previous = resumableOwners.put(fileName, this);
+            if (previous != null) {
+                connectionLog("Taking over " + fileName + " from stale connection #" + previous.id);
+                try {
+                    previous.clientChannel.close();
+                } catch (IOException e) {
+                    // The stale connection is being discarded anyway
+                }
+                previous.finished.await();
+            }
+        }
+
+        /**
+         * Receives a file body into a file preallocated to its announced size. Bodies that fit in one
+         * buffer are written on this thread; larger ones go through the connection's write pipeline.
+         * If the transfer fails part way, the file is truncated to the bytes actually received.
+         * 
+         * @param socketChannel The channel of the accepted connection, positioned at the body
+         * @param filePath The path of the file to write
+         * @param length The size of the file body
+         */
+        private void receiveBody(SocketChannel socketChannel, String filePath, long length) throws IOException, InterruptedException {
+            try (
+                RandomAccessFile randomAccessFile = new RandomAccessFile(filePath, "rw");
+                FileChannel fileChannel = randomAccessFile.getChannel()
+            ) {
+                // Preallocate so the file system can lay the whole file out up front
+                randomAccessFile.setLength(length);
+
+                long bytesBefore = totalBytesRead;
+                long bytesWritten = -1;
+                try {
+                    if (pipelinedWritesEnabled && length >= Config.WRITE_PIPELINE_MIN_SIZE) {
+                        if (writePipeline == null) {
+                            writePipeline = new WritePipeline(Config.WRITE_PIPELINE_BUFFERS, Config.DIRECT_BUFFER_SIZE);
+                        }
+                        try {
+                            receivePipelined(socketChannel, fileChannel, length);
+                        } finally {
+                            bytesWritten = writePipeline.getBytesWritten();
+                        }
+                    } else if (zeroCopyEnabled) {
+                        receiveZeroCopy(socketChannel, fileChannel, length);
+                    } else {
+                        receiveBuffered(socketChannel, fileChannel, length);
+                    }
+                } finally {
+                    // With the pipeline, only what reached the disk counts
+                    long bytesReceived = bytesWritten >= 0 ? bytesWritten : totalBytesRead - bytesBefore;
+                    if (bytesReceived < length) {
+                        randomAccessFile.setLength(bytesReceived);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Receives a file body through the connection's write pipeline: this thread keeps reading
+         * the connection while a disk writer thread writes the buffers it has filled.
+         * 
+         * @param socketChannel The channel to read from
+         * @param fileChannel The channel of the preallocated file
+         * @param length The size of the file body
+         */
+        private void receivePipelined(SocketChannel socketChannel, FileChannel fileChannel, long length)
+                throws IOException, InterruptedException {
+            long bytesBefore = totalBytesRead;
+            writePipeline.transfer(socketChannel, fileChannel, length, diskWriterPool, bytesRead -> {
+                totalBytesRead = bytesBefore + bytesRead;
+                reportProgress();
+            });
+
+            if (length >= Config.WRITE_PIPELINE_LOG_THRESHOLD) {
+                connectionLog(writePipeline.describeMetrics());
+            }
+        }
+
+        /**
+         * Receives a file body with FileChannel.transferFrom.
+         * 
+         * @param socketChannel The channel to read from
+         * @param fileChannel The channel of the preallocated file
+         * @param length The size of the file body
+         */
+        private void receiveZeroCopy(SocketChannel socketChannel, FileChannel fileChannel, long length) throws IOException, InterruptedException {
+            long position = 0;
+
+            while (position < length) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("File transfer cancelled");
+                }
+
+                long count = Math.min(Config.ZERO_COPY_CHUNK_SIZE, length - position);
+                long bytesRead = fileChannel.transferFrom(socketChannel, position, count);
+                if (bytesRead <= 0) {
+                    // A blocking socket only transfers nothing once the sender has closed the connection
+                    throw new EOFException("Connection closed after " + position + " of " + length + " bytes");
+                }
+
+                position += bytesRead;
+                totalBytesRead += bytesRead;
+                reportProgress();
+            }
+        }
+
+        /**
+         * Receives a file body through a direct buffer borrowed from the shared BufferPool.
+         * 
+         * @param socketChannel The channel to read from
+         * @param fileChannel The channel of the preallocated file
+         * @param length The size of the file body
+         */
+        private void receiveBuffered(SocketChannel socketChannel, FileChannel fileChannel, long length) throws IOException, InterruptedException {
+            ByteBuffer directBuffer = BufferPool.shared().acquire(Config.DIRECT_BUFFER_SIZE);
+            long position = 0;
+
+            try {
+                // Read data from socket and write to file
+                while (position < length) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException("File transfer cancelled");
+                    }
+
+                    directBuffer.clear();
+                    directBuffer.limit((int) Math.min(directBuffer.capacity(), length - position));
+                    int bytesRead = socketChannel.read(directBuffer);
+                    if (bytesRead == -1) {
+                        throw new EOFException("Connection closed after " + position + " of " + length + " bytes");
+                    }
+
+                    directBuffer.flip();
+                    while (directBuffer.hasRemaining()) {
+                        position += fileChannel.write(directBuffer, position);
+                    }
+
+                    totalBytesRead += bytesRead;
+                    reportProgress();
+                }
+            } finally {
+                BufferPool.shared().release(directBuffer);
+            }
+        }
+
+        /**
+         * Registers this connection's transfer once its size is known.
+         * Whatever totalBytesRead already holds, such as the chunks of a resumed file, counts as received.
+         */
+        private void beginProgress() {
+            reportedBytes = totalBytesRead;
+            beginTransfer(id, this, reportedBytes);
+            meter.start(reportedBytes);
+        }
+
+        /**
+         * Unregisters this connection's transfer after the last bytes have been reported.
+         */
+        private void endProgress() {
+            reportProgress();
+            endTransfer(id, this);
+            meter.finish();
+        }
+
+        /**
+         * Adds the bytes received since the last call to the transfer stats.
+         * Called from the receive loops, so it only updates counters.
+         */
+        private void reportProgress() {
+            long bytes = totalBytesRead;
+            if (bytes > reportedBytes) {
+                transferStats.add(bytes - reportedBytes);
+                reportedBytes = bytes;
+                meter.update(bytes);
+            }
+        }
+
+        /**
+         * Notes the transfer about to be received, so it is recorded as failed if the connection ends early.
+         * 
+         * @param name The name of the file or directory
+         * @param size The size in bytes
+         */
+        private void expectTransfer(String name, long size) {
+            pendingName = name;
+            pendingSize = size;
+        }
+
+        /**
+         * Records a transfer in history with the measurements of the current meter, which covers
+         * the whole connection, or only the current file of a batch.
+         * 
+         * @param name The name of the file or directory
+         * @param size The size in bytes
+         * @param outcome How the transfer ended
+         * @param integrity Whether the data was verified
+         */
+        private void recordTransfer(String name, long size, TransferRecord.Outcome outcome, TransferRecord.Integrity integrity) {
+            pendingName = null;
+            if (historyManager != null) {
+                long bytesTransferred = Math.min(size, meter.getBytesTransferred());
+                historyManager.addTransferRecord(meter.createRecord(name, size, bytesTransferred,
+                        TransferRecord.Direction.RECEIVED, peerAddress, outcome, integrity));
+            }
+        }
+
+        /**
+         * Records the transfer noted by expectTransfer after the connection ended early.
+         * 
+         * @param outcome FAILED or CANCELLED
+         */
+        private void recordPendingTransfer(TransferRecord.Outcome outcome) {
+            if (pendingName != null) {
+                recordTransfer(pendingName, pendingSize, outcome, pendingIntegrity);
+            }
+        }
+
+        /**
+         * Logs a message tagged with this connection's number.
+         * 
+         * @param message The message to log
+         */
+        private void connectionLog(String message) {
+            log("[#" + id + "] " + message);
         }
     }
 }
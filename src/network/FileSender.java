@@ -4,92 +4,381 @@ import utils.Config;
 import utils.TransferHistoryManager;
 import utils.TransferRecord;
 
-import javax.swing.*;
 import java.io.*;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Handles the network operations for sending files over TCP.
+ * Each send runs as a transfer of the shared TransferEngine, and nothing here touches Swing or AWT,
+ * so the sender works the same in the desktop client and in the headless command line.
  */
 public class FileSender {
     private final Consumer<String> logCallback;
-    private final Consumer<Integer> progressCallback;
     private final TransferHistoryManager historyManager;
+    private final TransferStats transferStats = new TransferStats();
+    private volatile boolean zeroCopyEnabled = Config.ZERO_COPY_ENABLED;
+    private volatile int readAheadDepth = Config.READ_AHEAD_DEPTH;
+    private volatile boolean autotuningEnabled = Config.SOCKET_AUTOTUNING_ENABLED;
+    private volatile int parallelStreams = 1;
+    private volatile boolean resumable = false;
+    private volatile boolean compressionEnabled = false;
+    private volatile boolean encryptionEnabled = false;
+    private volatile boolean verificationEnabled = false;
 
     /**
-     * Creates a new FileSender with callbacks for logging and progress updates.
+     * Creates a new FileSender with a callback for logging.
+     * Progress is read from getTransferStats.
      * 
      * @param logCallback Callback for log messages
-     * @param progressCallback Callback for progress updates
      * @param historyManager Manager for tracking transfer history
      */
-    public FileSender(Consumer<String> logCallback, Consumer<Integer> progressCallback, TransferHistoryManager historyManager) {
+    public FileSender(Consumer<String> logCallback, TransferHistoryManager historyManager) {
         this.logCallback = logCallback;
-        this.progressCallback = progressCallback;
         this.historyManager = historyManager;
     }
 
     /**
-     * Sends a file to a receiver.
+     * Gets the combined progress of the transfers this sender is running.
+     * The send loops only update counters; call TransferStats.sample to read them.
      * 
-     * @param file The file to send
+     * @return The transfer statistics
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * Sends a file to a receiver. A directory is sent with its whole tree.
+     * 
+     * @param file The file or directory to send
      * @param ipAddress The IP address of the receiver
      * @param port The port of the receiver
+     * @return A handle completing with the result once the file is sent, or with the exception that ended the transfer
      */
-    public void sendFile(File file, String ipAddress, int port) {
-        // Create and execute the file sender worker
-        FileSenderWorker worker = new FileSenderWorker(file, ipAddress, port);
-        worker.execute();
+    public TransferHandle<TransferResult> sendFile(File file, String ipAddress, int port) {
+        // Create and start the file sender worker
+        return TransferEngine.shared().submit("send " + file.getName(), new FileSenderWorker(file, ipAddress, port));
     }
 
     /**
-     * Logs a message using the log callback.
+     * Sends several files to a receiver over a single connection.
      * 
-     * @param message The message to log
+     * @param files The files to send, in order
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @return A handle completing with the result once every file is sent, or with the exception that ended the transfer
      */
-    private void log(String message) {
-        if (logCallback != null) {
-            logCallback.accept(message);
+    public TransferHandle<TransferResult> sendFiles(List<File> files, String ipAddress, int port) {
+        // Create and start a worker that sends the whole batch
+        return TransferEngine.shared().submit("send " + files.size() + " file(s)", new FileSenderWorker(files, ipAddress, port));
+    }
+
+    /**
+     * Enables or disables the zero-copy send path.
+     * When disabled, or when the platform cannot transfer directly, files are sent through a heap buffer.
+     * 
+     * @param zeroCopyEnabled true to send file bodies with FileChannel.transferTo
+     */
+    public void setZeroCopyEnabled(boolean zeroCopyEnabled) {
+        this.zeroCopyEnabled = zeroCopyEnabled;
+    }
+
+    /**
+     * Checks if the zero-copy send path is enabled.
+     * 
+     * @return true if file bodies are sent with FileChannel.transferTo
+     */
+    public boolean isZeroCopyEnabled() {
+        return zeroCopyEnabled;
+    }
+
+    /**
+     * Sets how many chunks of Config.READ_AHEAD_CHUNK_SIZE are read from disk ahead of the socket.
+     * With a depth above zero, file bodies are read by a separate thread while earlier chunks
+     * are being sent, so a cold file on a slow disk or network mount does not leave the
+     * connection idle. Zero-copy sends come first; read-ahead sends what zero-copy does not,
+     * which is the whole file when zero-copy is disabled.
+     * 
+     * @param readAheadDepth The number of chunks read ahead, or 0 to read in the send loop
+     */
+    public void setReadAheadDepth(int readAheadDepth) {
+        if (readAheadDepth < 0 || readAheadDepth > Config.MAX_READ_AHEAD_DEPTH) {
+            throw new IllegalArgumentException("Read-ahead depth must be between 0 and " + Config.MAX_READ_AHEAD_DEPTH);
+        }
+        this.readAheadDepth = readAheadDepth;
+    }
+
+    /**
+     * Gets how many chunks are read from disk ahead of the socket.
+     * 
+     * @return The read-ahead depth, or 0 if files are read in the send loop
+     */
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * Enables or disables socket autotuning for single-connection sends.
+     * When enabled, the send buffer and the chunk size grow during the first seconds of a
+     * transfer to match the measured bandwidth-delay product. When disabled, the fixed
+     * Config.FIXED_SOCKET_BUFFER_SIZE and Config.FIXED_CHUNK_SIZE are used, for reproducible benchmarks.
+     * 
+     * @param autotuningEnabled true to tune socket options automatically
+     */
+    public void setAutotuningEnabled(boolean autotuningEnabled) {
+        this.autotuningEnabled = autotuningEnabled;
+    }
+
+    /**
+     * Checks if socket options are tuned automatically.
+     * 
+     * @return true for automatic tuning, false for the fixed profile
+     */
+    public boolean isAutotuningEnabled() {
+        return autotuningEnabled;
+    }
+
+    /**
+     * Sets how many parallel connections large files are sent over.
+     * A value of 1 keeps the single-connection format that every receiver understands,
+     * and 0 lets the sender choose the number of connections from measured throughput.
+     * 
+     * @param parallelStreams The number of connections (0 for automatic, at most Config.MAX_PARALLEL_STREAMS)
+     */
+    public void setParallelStreams(int parallelStreams) {
+        if (parallelStreams < 0 || parallelStreams > Config.MAX_PARALLEL_STREAMS) {
+            throw new IllegalArgumentException("Parallel streams must be between 0 and " + Config.MAX_PARALLEL_STREAMS);
         }
+        this.parallelStreams = parallelStreams;
+    }
+
+    /**
+     * Gets how many parallel connections large files are sent over.
+     * 
+     * @return The number of connections, or 0 if it is chosen automatically
+     */
+    public int getParallelStreams() {
+        return parallelStreams;
+    }
+
+    /**
+     * Enables or disables resumable transfers.
+     * A resumable transfer reconnects after a dropped connection and only sends the chunks
+     * the receiver is missing. It always uses a single connection.
+     * 
+     * @param resumable true to send files in resumable mode
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * Checks if files are sent in resumable mode.
+     * 
+     * @return true if transfers resume after a dropped connection
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Enables or disables on-the-fly compression.
+     * Each chunk of the file is compressed on its own, and chunks that do not shrink
+     * (already compressed formats such as JPEG, zip or video) are sent as they are.
+     * Only single files without resume are sent as chunks; batches, directories and
+     * resumable files fail rather than go out uncompressed.
+     * 
+     * @param compressionEnabled true to compress files while sending
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Checks if files are compressed while sending.
+     * 
+     * @return true if compression is enabled
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Enables or disables encryption of the data stream.
+     * Each chunk is encrypted and authenticated with AES-GCM under a key agreed with the
+     * receiver for this transfer only.
+     * Only single files without resume are sent as chunks; batches, directories and
+     * resumable files fail rather than go out in the clear.
+     * 
+     * @param encryptionEnabled true to encrypt files while sending
+     */
+    public void setEncryptionEnabled(boolean encryptionEnabled) {
+        this.encryptionEnabled = encryptionEnabled;
     }
 
     /**
-     * Updates progress using the progress callback.
+     * Checks if files are encrypted while sending.
      * 
-     * @param percentage The progress percentage (0-100)
+     * @return true if encryption is enabled
      */
-    private void updateProgress(int percentage) {
-        if (progressCallback != null) {
-            progressCallback.accept(percentage);
+    public boolean isEncryptionEnabled() {
+        return encryptionEnabled;
+    }
+
+    /**
+     * Enables or disables end-to-end integrity verification.
+     * Each chunk carries its SHA-256 digest and the transfer ends with a Merkle root over all
+     * of them. The receiver verifies both before publishing the file and asks for failed chunks again.
+     * Verified files are sent as buffered chunks over one connection, so zero-copy, parallel streams,
+     * read-ahead and socket autotuning are not used; batches, directories and resumable files fail
+     * rather than go out unverified. Off by default.
+     * 
+     * @param verificationEnabled true to verify files end to end
+     */
+    public void setVerificationEnabled(boolean verificationEnabled) {
+        this.verificationEnabled = verificationEnabled;
+    }
+
+    /**
+     * Checks if files are verified end to end.
+     * 
+     * @return true if verification is enabled
+     */
+    public boolean isVerificationEnabled() {
+        return verificationEnabled;
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
         }
     }
 
     /**
-     * SwingWorker class to handle file sending in a background thread.
+     * Sends a file, a directory or a batch on an engine thread.
+     * Failures are logged and then thrown, so they also complete the handle.
      */
-    private class FileSenderWorker extends SwingWorker<Void, String> {
+    private class FileSenderWorker implements TransferTask<TransferResult> {
         private final File file;
+        private final List<File> batch;
         private final String ipAddress;
         private final int port;
+        private TransferHandle<TransferResult> handle;
+        private int fileCount = 1;
+        private long expectedBytes = -1;
+        private long reportedBytes;
+        private final ThroughputMeter meter = new ThroughputMeter();
+        private boolean recorded;
+
+        // Batch only: a meter per file, and the file the sent bytes are currently in
+        private final ThroughputMeter[] fileMeters;
+        private int currentFile;
+        private long fileStart;
 
         public FileSenderWorker(File file, String ipAddress, int port) {
             this.file = file;
+            this.batch = null;
+            this.ipAddress = ipAddress;
+            this.port = port;
+            this.fileMeters = null;
+        }
+
+        public FileSenderWorker(List<File> batch, String ipAddress, int port) {
+            this.file = null;
+            this.batch = batch;
             this.ipAddress = ipAddress;
             this.port = port;
+            this.fileMeters = new ThroughputMeter[batch.size()];
+            for (int i = 0; i < fileMeters.length; i++) {
+                fileMeters[i] = new ThroughputMeter();
+            }
         }
 
         @Override
-        protected Void doInBackground() {
-            publish("Connecting to " + ipAddress + ":" + port + "...");
+        public TransferResult run(TransferHandle<TransferResult> handle) throws IOException, InterruptedException {
+            this.handle = handle;
+            long start = System.nanoTime();
+            try {
+                send();
+                synchronized (this) {
+                    return new TransferResult(batch != null ? batch.size() + " file(s)" : file.getName(), fileCount,
+                            Math.max(0, expectedBytes), System.nanoTime() - start);
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                recordTransfer(handle.isCancelled() ? TransferRecord.Outcome.CANCELLED : TransferRecord.Outcome.FAILED,
+                        TransferRecord.Integrity.NOT_CHECKED);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    if (expectedBytes >= 0) {
+                        transferStats.end(expectedBytes, reportedBytes);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Picks the transfer mode for the file and sends it.
+         */
+        private void send() throws IOException, InterruptedException {
+            if (batch != null) {
+                checkChunkOptions("the batch");
+                sendBatch();
+                return;
+            }
+
+            if (file.isDirectory()) {
+                checkChunkOptions("the directory");
+                sendDirectory();
+                return;
+            }
+
+            if (resumable) {
+                checkChunkOptions("the resumable file");
+                sendResumable();
+                return;
+            }
+
+            if (compressionEnabled || encryptionEnabled || verificationEnabled) {
+                if (parallelStreams != 1) {
+                    log("Chunked transfers use a single connection; parallel streams are not used.");
+                }
+                sendChunked((compressionEnabled ? Protocol.FLAG_COMPRESSED : 0)
+                        | (encryptionEnabled ? Protocol.FLAG_ENCRYPTED : 0)
+                        | (verificationEnabled ? Protocol.FLAG_VERIFIED : 0));
+                return;
+            }
+
+            if (parallelStreams != 1 && StripedSender.isWorthStriping(file.length())) {
+                sendStriped();
+                return;
+            }
+
+            log("Connecting to " + ipAddress + ":" + port + "...");
+
+            SocketTuner tuner = new SocketTuner(autotuningEnabled, FileSender.this::log);
 
             try (
-                Socket socket = new Socket(ipAddress, port);
-                OutputStream outputStream = socket.getOutputStream();
-                DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
-                FileInputStream fileInputStream = new FileInputStream(file)
+                SocketChannel socketChannel = tuner.connect(ipAddress, port);
+                FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
             ) {
-                publish("Connected successfully!");
+                log("Connected successfully!");
+
+                // The header still goes through a DataOutputStream so existing receivers can parse it
+                DataOutputStream dataOutputStream = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
 
                 // Send the filename
                 dataOutputStream.writeUTF(file.getName());
@@ -97,60 +386,398 @@ public class FileSender {
                 // Send the file size
                 long fileSize = file.length();
                 dataOutputStream.writeLong(fileSize);
+                dataOutputStream.flush();
 
-                publish("Sending file: " + file.getName());
-                publish("File size: " + fileSize + " bytes");
+                log("Sending file: " + file.getName());
+                log("File size: " + fileSize + " bytes");
+                reportProgress(0, fileSize);
 
-                // Create a buffer for reading the file
-                byte[] buffer = new byte[Config.BUFFER_SIZE];
-                int bytesRead;
-                long totalBytesRead = 0;
-                long lastProgressUpdate = 0;
+                long totalBytesSent = 0;
+                if (zeroCopyEnabled) {
+                    totalBytesSent = sendZeroCopy(fileChannel, socketChannel, fileSize, tuner);
+                    if (totalBytesSent < fileSize) {
+                        log("Zero-copy transfer unavailable, continuing with buffered send.");
+                    }
+                }
 
-                // Read the file and send it in chunks
-                while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-
-                    totalBytesRead += bytesRead;
-
-                    // Update progress every X% or at least every Y bytes
-                    long currentProgress = (totalBytesRead * 100) / fileSize;
-                    if (currentProgress > lastProgressUpdate + Config.PROGRESS_UPDATE_PERCENTAGE || 
-                        totalBytesRead - lastProgressUpdate * fileSize / 100 > Config.PROGRESS_UPDATE_BYTES) {
-                        lastProgressUpdate = currentProgress;
-                        updateProgress((int)currentProgress);
-                        publish(String.format("Progress: %d%%", currentProgress));
+                // Send whatever is left (everything, when zero-copy is disabled) through buffers
+                if (totalBytesSent < fileSize) {
+                    if (readAheadDepth > 0) {
+                        sendReadAhead(fileChannel, socketChannel, totalBytesSent, fileSize, readAheadDepth, tuner);
+                    } else {
+                        sendBuffered(fileChannel, socketChannel, totalBytesSent, fileSize, tuner);
                     }
                 }
 
-                outputStream.flush();
-                publish("File sent successfully!");
+                tuner.finish();
+                log("File sent successfully!");
 
                 // Record the transfer in history
-                if (historyManager != null) {
-                    TransferRecord record = new TransferRecord(file.getName(), fileSize, TransferRecord.Direction.SENT);
-                    historyManager.addTransferRecord(record);
-                }
+                recordTransfer(TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
 
             } catch (IOException e) {
-                publish("Error sending file: " + e.getMessage());
-                e.printStackTrace();
+                logFailure("file", e);
+                throw e;
             }
+        }
 
-            return null;
+        /**
+         * Fails a transfer whose mode cannot apply the enabled chunk options. Only single files sent
+         * as chunks are compressed, encrypted or verified, and a file must never go out in the clear
+         * or unverified when that was asked for.
+         * 
+         * @param what What is being sent, for the message
+         */
+        private void checkChunkOptions(String what) {
+            String option = encryptionEnabled ? "Encryption" : compressionEnabled ? "Compression"
+                    : verificationEnabled ? "Verification" : null;
+            if (option != null) {
+                String message = option + " is only supported for single files sent without resume, so "
+                        + what + " was not sent";
+                log("Error: " + message + ".");
+                throw new IllegalStateException(message);
+            }
         }
 
-        @Override
-        protected void process(java.util.List<String> chunks) {
-            for (String message : chunks) {
-                log(message);
+        /**
+         * Sends every file of the batch over one connection and records them with a single history update.
+         */
+        private void sendBatch() throws IOException, InterruptedException {
+            long batchSize = BatchSender.totalSize(batch);
+            fileCount = batch.size();
+            log("Sending " + batch.size() + " file(s) to " + ipAddress + ":" + port + "...");
+            log("Batch size: " + batchSize + " bytes");
+
+            try {
+                reportProgress(0, batchSize);
+                BatchSender batchSender = new BatchSender(batch, ipAddress, port,
+                        FileSender.this::log, totalBytesSent -> reportProgress(totalBytesSent, batchSize));
+                batchSender.send();
+
+                log("Batch sent successfully!");
+
+                // Record the whole batch in history at once
+                recordTransfer(TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+            } catch (IOException e) {
+                logFailure("files", e);
+                throw e;
             }
         }
 
-        @Override
-        protected void done() {
-            // Reset progress when done
-            updateProgress(0);
+        /**
+         * Sends the directory tree over one connection and records it as a single transfer.
+         */
+        private void sendDirectory() throws IOException, InterruptedException {
+            log("Sending directory to " + ipAddress + ":" + port + ": " + file.getName());
+
+            try {
+                long walkStart = System.nanoTime();
+                List<DirectorySender.Entry> entries = DirectorySender.walk(file);
+                long directorySize = DirectorySender.totalSize(entries);
+                fileCount = (int) entries.stream().filter(entry -> !entry.isDirectory()).count();
+                log(String.format("Found %d entries (%d bytes) in %d ms", entries.size(), directorySize,
+                        (System.nanoTime() - walkStart) / 1_000_000));
+
+                reportProgress(0, directorySize);
+                DirectorySender directorySender = new DirectorySender(file, entries, ipAddress, port,
+                        FileSender.this::log, totalBytesSent -> reportProgress(totalBytesSent, directorySize));
+                directorySender.send();
+
+                log("Directory sent successfully!");
+
+                // Record the transfer in history
+                recordTransfer(TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+            } catch (IOException e) {
+                logFailure("directory", e);
+                throw e;
+            }
+        }
+
+        /**
+         * Sends the file in resumable mode, reconnecting after dropped connections.
+         */
+        private void sendResumable() throws IOException, InterruptedException {
+            long fileSize = file.length();
+            log("Sending resumable file to " + ipAddress + ":" + port + ": " + file.getName());
+            log("File size: " + fileSize + " bytes");
+
+            try {
+                ResumableSender resumableSender = new ResumableSender(file, ipAddress, port,
+                        FileSender.this::log, bytesHeld -> reportProgress(bytesHeld, fileSize));
+                resumableSender.send();
+
+                log("File sent successfully!");
+
+                // Record the transfer in history
+                recordTransfer(TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+            } catch (IOException | InterruptedException e) {
+                logFailure("file", e);
+                throw e;
+            }
+        }
+
+        /**
+         * Sends the file as independently encoded chunks.
+         * 
+         * @param flags The Protocol.FLAG_* options for the transfer
+         */
+        private void sendChunked(int flags) throws IOException, InterruptedException {
+            long fileSize = file.length();
+            log("Connecting to " + ipAddress + ":" + port + "...");
+            log("Sending file: " + file.getName()
+                    + ((flags & Protocol.FLAG_COMPRESSED) != 0 ? " (compressed)" : "")
+                    + ((flags & Protocol.FLAG_ENCRYPTED) != 0 ? " (encrypted)" : "")
+                    + ((flags & Protocol.FLAG_VERIFIED) != 0 ? " (verified)" : ""));
+            log("File size: " + fileSize + " bytes");
+
+            try {
+                reportProgress(0, fileSize);
+                ChunkedSender chunkedSender = new ChunkedSender(file, ipAddress, port, flags,
+                        FileSender.this::log, totalBytesSent -> reportProgress(totalBytesSent, fileSize));
+                chunkedSender.send();
+
+                log("File sent successfully!");
+
+                // Record the transfer in history; a verified transfer only completes once the receiver matched every digest
+                recordTransfer(TransferRecord.Outcome.SUCCESS, (flags & Protocol.FLAG_VERIFIED) != 0
+                        ? TransferRecord.Integrity.VERIFIED : TransferRecord.Integrity.NOT_CHECKED);
+            } catch (IOException | InterruptedException e) {
+                logFailure("file", e);
+                throw e;
+            }
+        }
+
+        /**
+         * Sends the file over several parallel connections.
+         */
+        private void sendStriped() throws IOException, InterruptedException {
+            long fileSize = file.length();
+            log("Sending file over parallel streams to " + ipAddress + ":" + port + ": " + file.getName());
+            log("File size: " + fileSize + " bytes");
+
+            try {
+                reportProgress(0, fileSize);
+                StripedSender stripedSender = new StripedSender(file, ipAddress, port, parallelStreams,
+                        FileSender.this::log, totalBytesSent -> reportProgress(totalBytesSent, fileSize));
+                stripedSender.send();
+
+                log("File sent successfully!");
+
+                // Record the transfer in history
+                recordTransfer(TransferRecord.Outcome.SUCCESS, TransferRecord.Integrity.NOT_CHECKED);
+            } catch (IOException | InterruptedException e) {
+                logFailure("file", e);
+                throw e;
+            }
+        }
+
+        /**
+         * Sends the file body from the given position while a ReadAheadReader reads the next chunks from disk.
+         * 
+         * @param fileChannel The channel of the file being sent
+         * @param socketChannel The connected socket channel
+         * @param position The file position to start sending from
+         * @param fileSize The number of bytes announced in the header
+         * @param depth The number of chunks read ahead
+         * @param tuner The tuner of the connection
+         */
+        private void sendReadAhead(FileChannel fileChannel, SocketChannel socketChannel, long position, long fileSize,
+                                   int depth, SocketTuner tuner) throws IOException {
+            try (ReadAheadReader reader = new ReadAheadReader(fileChannel, position, fileSize, depth, Config.READ_AHEAD_CHUNK_SIZE)) {
+                ByteBuffer buffer;
+                while ((buffer = reader.next()) != null) {
+                    while (buffer.hasRemaining()) {
+                        int bytesSent = socketChannel.write(buffer);
+                        position += bytesSent;
+                        tuner.update(socketChannel, bytesSent);
+                    }
+                    reader.release(buffer);
+                    reportProgress(position, fileSize);
+                }
+
+                if (fileSize >= Config.READ_AHEAD_LOG_THRESHOLD) {
+                    log(reader.describeMetrics());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("File transfer cancelled");
+            }
+        }
+
+        /**
+         * Sends the file body with FileChannel.transferTo, letting the kernel copy
+         * straight from the page cache to the socket.
+         * 
+         * @param fileChannel The channel of the file being sent
+         * @param socketChannel The connected socket channel
+         * @param fileSize The number of bytes announced in the header
+         * @param tuner The tuner of the connection
+         * @return The number of bytes sent; less than fileSize if zero-copy stopped making progress
+         */
+        private long sendZeroCopy(FileChannel fileChannel, SocketChannel socketChannel, long fileSize, SocketTuner tuner) throws IOException {
+            long position = 0;
+
+            try {
+                while (position < fileSize) {
+                    long count = Math.min(Config.ZERO_COPY_CHUNK_SIZE, fileSize - position);
+                    long bytesSent = fileChannel.transferTo(position, count, socketChannel);
+                    if (bytesSent <= 0) {
+                        // No progress: let the buffered path take over from here
+                        break;
+                    }
+
+                    position += bytesSent;
+                    tuner.update(socketChannel, bytesSent);
+                    reportProgress(position, fileSize);
+                }
+            } catch (UnsupportedOperationException e) {
+                // Direct transfer is not supported for this channel pair
+            }
+
+            return position;
+        }
+
+        /**
+         * Sends the file body through a buffer from the shared BufferPool, starting at the given position.
+         * 
+         * @param fileChannel The channel of the file being sent
+         * @param socketChannel The connected socket channel
+         * @param position The file position to start sending from
+         * @param fileSize The number of bytes announced in the header
+         * @param tuner The tuner of the connection, which chooses the chunk size
+         */
+        private void sendBuffered(FileChannel fileChannel, SocketChannel socketChannel, long position, long fileSize,
+                                  SocketTuner tuner) throws IOException {
+            BufferPool pool = BufferPool.shared();
+            ByteBuffer buffer = pool.acquire(tuner.getChunkSize());
+
+            try {
+                // Read the file and send it in chunks
+                while (position < fileSize) {
+                    if (buffer.capacity() < tuner.getChunkSize()) {
+                        // Hand the old buffer back first, so a full pool never holds both
+                        pool.release(buffer);
+                        buffer = null;
+                        buffer = pool.acquire(tuner.getChunkSize());
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), fileSize - position));
+
+                    int bytesRead = fileChannel.read(buffer, position);
+                    if (bytesRead == -1) {
+                        throw new EOFException("File was truncated while sending: " + file.getName());
+                    }
+
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        tuner.update(socketChannel, socketChannel.write(buffer));
+                    }
+
+                    position += bytesRead;
+                    reportProgress(position, fileSize);
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+
+        /**
+         * Logs why the transfer ended early. A cancelled transfer fails with whatever the
+         * interrupt caused, which says nothing useful, so it is only reported as cancelled.
+         * 
+         * @param what What was being sent
+         * @param e The exception that ended the transfer
+         */
+        private void logFailure(String what, Exception e) {
+            if (handle.isCancelled()) {
+                log("Cancelled sending " + what + ".");
+            } else {
+                log("Error sending " + what + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Records the transfer in history with the measurements of the meter. Only the first call
+         * has an effect, so a failure after the transfer was recorded does not record it again.
+         * A batch is recorded as one record per file, each with the measurements of its own meter.
+         * 
+         * @param outcome How the transfer ended
+         * @param integrity Whether the receiver verified the data
+         */
+        private void recordTransfer(TransferRecord.Outcome outcome, TransferRecord.Integrity integrity) {
+            if (historyManager == null || recorded) {
+                return;
+            }
+            recorded = true;
+
+            meter.finish();
+            if (batch == null) {
+                long size;
+                synchronized (this) {
+                    size = expectedBytes >= 0 ? expectedBytes : file.length();
+                }
+                historyManager.addTransferRecord(meter.createRecord(file.getName(), size, meter.getBytesTransferred(),
+                        TransferRecord.Direction.SENT, ipAddress, outcome, integrity));
+                return;
+            }
+
+            // Files that were never reached are recorded with no bytes sent
+            List<TransferRecord> records = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                File batchFile = batch.get(i);
+                long size = batchFile.length();
+                long bytesSent = Math.min(size, fileMeters[i].getBytesTransferred());
+                records.add(fileMeters[i].createRecord(batchFile.getName(), size, bytesSent, TransferRecord.Direction.SENT,
+                        ipAddress, outcome, integrity));
+            }
+            historyManager.addTransferRecords(records);
+        }
+
+        /**
+         * Feeds the byte count of a batch to the meters of its files. Files are sent in order, so
+         * every file before the one the count is in is complete, and the next file starts as soon
+         * as the previous one ends.
+         * 
+         * @param totalBytesSent The number of batch bytes sent so far
+         */
+        private void updateFileMeters(long totalBytesSent) {
+            while (currentFile < fileMeters.length) {
+                ThroughputMeter fileMeter = fileMeters[currentFile];
+                long fileEnd = fileStart + batch.get(currentFile).length();
+                fileMeter.start(fileStart);
+                fileMeter.update(Math.min(totalBytesSent, fileEnd));
+                if (totalBytesSent < fileEnd) {
+                    return;
+                }
+                fileMeter.finish();
+                fileStart = fileEnd;
+                currentFile++;
+            }
+        }
+
+        /**
+         * Adds the bytes sent since the last call to the transfer stats. Called from the send loops,
+         * so it only updates counters. The first call registers the transfer; the bytes it reports
+         * were already in place, as for a resumed transfer, and do not count toward the rate.
+         * 
+         * @param totalBytesSent The number of bytes sent so far
+         * @param fileSize The total number of bytes to send
+         */
+        private synchronized void reportProgress(long totalBytesSent, long fileSize) {
+            if (expectedBytes < 0) {
+                expectedBytes = fileSize;
+                reportedBytes = totalBytesSent;
+                transferStats.begin(fileSize, totalBytesSent);
+                meter.start(totalBytesSent);
+            } else if (totalBytesSent > reportedBytes) {
+                transferStats.add(totalBytesSent - reportedBytes);
+                reportedBytes = totalBytesSent;
+                meter.update(totalBytesSent);
+            }
+            if (fileMeters != null) {
+                updateFileMeters(totalBytesSent);
+            }
+            handle.reportProgress(totalBytesSent, fileSize);
         }
     }
 }
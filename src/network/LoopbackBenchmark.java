@@ -0,0 +1,145 @@
+package network;
+
+import utils.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures transfer throughput over the loopback interface.
+ * Starts a FileReceiver on a free local port and sends a generated file over
+ * 1, 2, 4 and 8 parallel streams, printing the best throughput of a few runs each.
+ * It then compares the plaintext and the encrypted chunked transfer of the same file.
+ * <p>
+ * Usage: java -cp out network.LoopbackBenchmark [sizeMB] [runs]
+ */
+public class LoopbackBenchmark {
+    private static final int[] STREAM_COUNTS = { 1, 2, 4, 8 };
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args Optional file size in MB (default 1024) and number of runs per setting (default 3)
+     */
+    public static void main(String[] args) throws Exception {
+        long sizeMb = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Path sourceFile = createSourceFile(sizeMb * 1024 * 1024);
+        Path saveDirectory = Files.createTempDirectory("secureshare-bench");
+        int port = findFreePort();
+
+        FileReceiver receiver = new FileReceiver(saveDirectory.toString(), null, null);
+        receiver.setMaxConcurrentTransfers(Config.MAX_PARALLEL_STREAMS);
+        // The fixed socket profile keeps runs comparable across machines and invocations
+        receiver.setAutotuningEnabled(false);
+        receiver.start(port);
+        while (!receiver.isRunning()) {
+            Thread.sleep(10);
+        }
+
+        try {
+            System.out.printf("Loopback transfer of %d MB, best of %d run(s)%n", sizeMb, runs);
+            System.out.printf("%-8s %10s %9s%n", "Streams", "MB/s", "Speedup");
+
+            double baseline = 0;
+            for (int streams : STREAM_COUNTS) {
+                double best = 0;
+                for (int run = 0; run < runs; run++) {
+                    best = Math.max(best, measure(sourceFile, port, streams));
+                    Files.deleteIfExists(saveDirectory.resolve(sourceFile.getFileName()));
+                }
+                if (baseline == 0) {
+                    baseline = best;
+                }
+                System.out.printf("%-8d %10.1f %8.2fx%n", streams, best, best / baseline);
+            }
+
+            System.out.println();
+            System.out.printf("%-10s %10s %9s%n", "Chunked", "MB/s", "Relative");
+
+            double plaintext = 0;
+            for (int flags : new int[] { 0, Protocol.FLAG_ENCRYPTED }) {
+                // An untimed run first, so the JIT has compiled the AES and GHASH intrinsics
+                measureChunked(sourceFile, port, flags);
+                Files.deleteIfExists(saveDirectory.resolve(sourceFile.getFileName()));
+
+                double best = 0;
+                for (int run = 0; run < runs; run++) {
+                    best = Math.max(best, measureChunked(sourceFile, port, flags));
+                    Files.deleteIfExists(saveDirectory.resolve(sourceFile.getFileName()));
+                }
+                if (plaintext == 0) {
+                    plaintext = best;
+                }
+                System.out.printf("%-10s %10.1f %8.1f%%%n", flags == 0 ? "Plaintext" : "AES-GCM", best, best * 100 / plaintext);
+            }
+        } finally {
+            receiver.stop();
+            Files.deleteIfExists(sourceFile);
+            deleteDirectory(saveDirectory);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Sends the file once and returns the throughput in MB/s.
+     */
+    private static double measure(Path sourceFile, int port, int streams) throws IOException, InterruptedException {
+        StripedSender sender = new StripedSender(sourceFile.toFile(), "127.0.0.1", port, streams, null, null);
+
+        long start = System.nanoTime();
+        sender.send();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return Files.size(sourceFile) / (1024.0 * 1024.0) / seconds;
+    }
+
+    /**
+     * Sends the file once as a chunked transfer with the given flags and returns the throughput in MB/s.
+     */
+    private static double measureChunked(Path sourceFile, int port, int flags) throws IOException, InterruptedException {
+        ChunkedSender sender = new ChunkedSender(sourceFile.toFile(), "127.0.0.1", port, flags, null, null);
+
+        long start = System.nanoTime();
+        sender.send();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return Files.size(sourceFile) / (1024.0 * 1024.0) / seconds;
+    }
+
+    /**
+     * Creates a file of pseudo-random bytes, so compression or deduplication along the way cannot skew results.
+     */
+    private static Path createSourceFile(long size) throws IOException {
+        Path file = Files.createTempFile("secureshare-bench", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
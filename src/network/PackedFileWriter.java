@@ -0,0 +1,223 @@
+package network;
+
+import utils.Config;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the small files packed into the frames of a directory transfer.
+ * <p>
+ * Creating a file costs far more than writing a few kilobytes into it, so a tree of many small
+ * files is bound by file creation rather than by the network. The connection thread hands each
+ * frame's files to this writer and goes on reading the next frame, while tasks on the disk writer
+ * pool create and write the files, several at a time. A frame stays out of the ring until all of
+ * its files are written, so at most Config.DIRECTORY_FRAME_BUFFERS frames are in flight.
+ */
+public class PackedFileWriter {
+    private final ExecutorService writerPool;
+    private final ByteBuffer[] ring;
+    private final Deque<ByteBuffer> freeFrames = new ArrayDeque<>();
+    private final Deque<Frame> pendingFrames = new ArrayDeque<>();
+
+    // Guarded by this: write tasks that are using a frame, and whether new ones may still start
+    private int runningWrites;
+    private boolean closed;
+
+    /**
+     * A file whose contents are a range of a frame.
+     */
+    public static class PackedFile {
+        private final Path path;
+        private final int offset;
+        private final int length;
+
+        /**
+         * @param path Where the file is written, already checked to be inside the target directory
+         * @param offset The position of the contents in the frame
+         * @param length The size of the contents
+         */
+        public PackedFile(Path path, int offset, int length) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A frame whose files are being written.
+     */
+    private static class Frame {
+        private final ByteBuffer buffer;
+        private final List<Future<?>> writes;
+
+        Frame(ByteBuffer buffer, List<Future<?>> writes) {
+            this.buffer = buffer;
+            this.writes = writes;
+        }
+    }
+
+    /**
+     * Creates a writer and borrows its ring of frames from the shared BufferPool.
+     *
+     * @param writerPool The executor the write tasks run on
+     */
+    public PackedFileWriter(ExecutorService writerPool) throws InterruptedIOException {
+        this.writerPool = writerPool;
+        this.ring = BufferPool.shared().acquire(Config.DIRECTORY_FRAME_BUFFERS, Config.DIRECTORY_FRAME_SIZE);
+        for (ByteBuffer frame : ring) {
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Gets a cleared frame to read the next frame into, waiting for the writes of the oldest
+     * frame if every frame is in use.
+     *
+     * @return The frame
+     */
+    public ByteBuffer nextFrame() throws IOException, InterruptedException {
+        if (freeFrames.isEmpty()) {
+            completeFrame(pendingFrames.poll());
+        }
+        ByteBuffer frame = freeFrames.poll();
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Starts writing the files of a frame. The frame must not be touched until nextFrame hands it out again.
+     *
+     * @param frame The frame returned by nextFrame
+     * @param files The files packed in it
+     */
+    public void write(ByteBuffer frame, List<PackedFile> files) {
+        List<Future<?>> writes = new ArrayList<>();
+        int tasks = Math.min(files.size(), Config.DIRECTORY_WRITE_TASKS);
+        for (int task = 0; task < tasks; task++) {
+            // Contiguous slices, so a task writes neighbouring files of the same directory
+            List<PackedFile> slice = files.subList(files.size() * task / tasks, files.size() * (task + 1) / tasks);
+            ByteBuffer contents = frame.duplicate();
+            writes.add(writerPool.submit(() -> {
+                if (beginWrite()) {
+                    try {
+                        writeFiles(contents, slice);
+                    } finally {
+                        endWrite();
+                    }
+                }
+                return null;
+            }));
+        }
+        pendingFrames.add(new Frame(frame, writes));
+    }
+
+    /**
+     * Waits until the files of every frame are written.
+     */
+    public void finish() throws IOException, InterruptedException {
+        while (!pendingFrames.isEmpty()) {
+            completeFrame(pendingFrames.poll());
+        }
+    }
+
+    /**
+     * Hands the ring back to the pool. After a failure, writes that have not started are skipped
+     * and running ones stop after their current file; if they do not stop within
+     * Config.WRITE_PIPELINE_STOP_TIMEOUT_MS, the frames are given up rather than reused.
+     */
+    public void close() {
+        boolean stopped = stopWrites();
+        pendingFrames.clear();
+        freeFrames.clear();
+
+        if (stopped) {
+            BufferPool.shared().release(ring);
+        } else {
+            BufferPool.shared().discard(ring);
+        }
+    }
+
+    private void completeFrame(Frame frame) throws IOException, InterruptedException {
+        try {
+            for (Future<?> write : frame.writes) {
+                write.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Disk writer was cancelled", e);
+        }
+        freeFrames.add(frame.buffer);
+    }
+
+    private synchronized boolean beginWrite() {
+        if (closed) {
+            return false;
+        }
+        runningWrites++;
+        return true;
+    }
+
+    private synchronized void endWrite() {
+        runningWrites--;
+        notifyAll();
+    }
+
+    /**
+     * Stops new writes from starting and waits a bounded time for the running ones.
+     *
+     * @return true if no write is using a frame any more
+     */
+    private synchronized boolean stopWrites() {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.WRITE_PIPELINE_STOP_TIMEOUT_MS);
+        try {
+            while (runningWrites > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return runningWrites == 0;
+        }
+        return true;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void writeFiles(ByteBuffer frame, List<PackedFile> files) throws IOException {
+        for (PackedFile file : files) {
+            if (isClosed()) {
+                return;
+            }
+            frame.limit(file.offset + file.length).position(file.offset);
+            try (FileChannel fileChannel = FileChannel.open(file.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (frame.hasRemaining()) {
+                    fileChannel.write(frame);
+                }
+            } catch (IOException e) {
+                throw new IOException("Writing " + file.path + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
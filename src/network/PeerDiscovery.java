@@ -2,19 +2,21 @@ package network;
 
 import utils.Config;
 
-import javax.swing.*;
 import java.io.IOException;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
  * Handles peer discovery for the SecureShare application using UDP broadcast.
+ * Discovery runs on daemon threads without Swing, so callbacks arrive on those threads.
  */
 public class PeerDiscovery {
-    
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
     /**
      * Class to represent a discovered receiver device.
      */
@@ -48,9 +50,8 @@ public class PeerDiscovery {
     }
     
     private DatagramSocket socket;
-    private SwingWorker<Void, String> discoveryThread;
+    private ReceiverDiscoveryThread discoveryThread;
     private final List<Consumer<String>> logListeners = new CopyOnWriteArrayList<>();
-    private final List<ReceiverDevice> discoveredDevices = new ArrayList<>();
     
     /**
      * Adds a log listener to receive discovery-related log messages.
@@ -98,7 +99,7 @@ public class PeerDiscovery {
             // Create a new discovery socket
             socket = new DatagramSocket(Config.DISCOVERY_PORT);
             discoveryThread = new ReceiverDiscoveryThread(port);
-            discoveryThread.execute();
+            startThread(discoveryThread, "discovery-responder-");
             log("Discovery service started on port " + Config.DISCOVERY_PORT);
             return true;
         } catch (SocketException e) {
@@ -111,8 +112,8 @@ public class PeerDiscovery {
      * Stops the discovery service.
      */
     public void stop() {
-        if (discoveryThread != null && !discoveryThread.isDone()) {
-            discoveryThread.cancel(true);
+        if (discoveryThread != null) {
+            discoveryThread.cancel();
         }
 
         if (socket != null && !socket.isClosed()) {
@@ -125,31 +126,52 @@ public class PeerDiscovery {
     /**
      * Searches for available receiver devices on the network.
      * 
-     * @param callback A callback that will be called when the search is complete with the list of discovered devices
+     * @param callback A callback that will be called on the discovery thread when the search is complete
+     *                 with the list of discovered devices
      */
     public void searchDevices(Consumer<List<ReceiverDevice>> callback) {
-        // Clear previous discoveries
-        discoveredDevices.clear();
-        
         log("Searching for receiver devices...");
 
-        // Create and execute the discovery worker
-        SenderDiscoveryThread worker = new SenderDiscoveryThread(callback);
-        worker.execute();
+        // Create and start the discovery worker
+        startThread(new SenderDiscoveryThread(callback), "discovery-search-");
+    }
+
+    /**
+     * Runs a discovery task on a new daemon thread.
+     * 
+     * @param task The task to run
+     * @param namePrefix The prefix of the thread name
+     */
+    private static void startThread(Runnable task, String namePrefix) {
+        Thread thread = new Thread(task, namePrefix + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
     }
     
     /**
-     * SwingWorker class to handle UDP discovery for the receiver.
+     * Answers discovery requests for the receiver until cancelled.
      */
-    private class ReceiverDiscoveryThread extends SwingWorker<Void, String> {
+    private class ReceiverDiscoveryThread implements Runnable {
         private final int listeningPort;
+        private volatile boolean cancelled;
         
         public ReceiverDiscoveryThread(int listeningPort) {
             this.listeningPort = listeningPort;
         }
+
+        /**
+         * Stops answering requests. The caller closes the socket, which ends a blocked receive.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
+        }
         
         @Override
-        protected Void doInBackground() throws Exception {
+        public void run() {
             try {
                 byte[] buffer = new byte[1024];
 
@@ -170,7 +192,7 @@ public class PeerDiscovery {
                             InetAddress senderAddress = packet.getAddress();
                             int senderPort = packet.getPort();
 
-                            publish("Discovery request from: " + senderAddress.getHostAddress());
+                            log("Discovery request from: " + senderAddress.getHostAddress());
 
                             // Get the local hostname
                             String deviceName = InetAddress.getLocalHost().getHostName();
@@ -184,11 +206,11 @@ public class PeerDiscovery {
                                 responseData, responseData.length, senderAddress, senderPort);
                             socket.send(responsePacket);
 
-                            publish("Sent availability response to: " + senderAddress.getHostAddress());
+                            log("Sent availability response to: " + senderAddress.getHostAddress());
                         }
                     } catch (IOException e) {
                         if (!isCancelled()) {
-                            publish("Discovery error: " + e.getMessage());
+                            log("Discovery error: " + e.getMessage());
                         }
                     }
                 }
@@ -197,30 +219,22 @@ public class PeerDiscovery {
                     socket.close();
                 }
             }
-
-            return null;
-        }
-
-        @Override
-        protected void process(java.util.List<String> chunks) {
-            for (String message : chunks) {
-                log(message);
-            }
         }
     }
     
     /**
-     * SwingWorker class to handle device discovery for the sender.
+     * Broadcasts a discovery request for the sender and collects the answers until the timeout.
      */
-    private class SenderDiscoveryThread extends SwingWorker<Void, String> {
+    private class SenderDiscoveryThread implements Runnable {
         private final Consumer<List<ReceiverDevice>> callback;
+        private final List<ReceiverDevice> discoveredDevices = new ArrayList<>();
         
         public SenderDiscoveryThread(Consumer<List<ReceiverDevice>> callback) {
             this.callback = callback;
         }
         
         @Override
-        protected Void doInBackground() {
+        public void run() {
             try (DatagramSocket socket = new DatagramSocket()) {
                 // Enable broadcast
                 socket.setBroadcast(true);
@@ -236,7 +250,7 @@ public class PeerDiscovery {
                 DatagramPacket sendPacket = new DatagramPacket(
                     sendData, sendData.length, broadcastAddress, Config.DISCOVERY_PORT);
 
-                publish("Sending discovery broadcast...");
+                log("Sending discovery broadcast...");
                 socket.send(sendPacket);
 
                 // Listen for responses until timeout
@@ -273,7 +287,7 @@ public class PeerDiscovery {
                                 ReceiverDevice device = new ReceiverDevice(deviceName, ipAddress, port);
                                 discoveredDevices.add(device);
 
-                                publish("Found receiver: " + device);
+                                log("Found receiver: " + device);
                             }
                         }
                     } catch (SocketTimeoutException e) {
@@ -282,24 +296,12 @@ public class PeerDiscovery {
                     }
                 }
 
-                publish("Discovery completed. Found " + discoveredDevices.size() + " receiver(s).");
+                log("Discovery completed. Found " + discoveredDevices.size() + " receiver(s).");
 
             } catch (IOException e) {
-                publish("Error during device discovery: " + e.getMessage());
-            }
-
-            return null;
-        }
-
-        @Override
-        protected void process(java.util.List<String> chunks) {
-            for (String message : chunks) {
-                log(message);
+                log("Error during device discovery: " + e.getMessage());
             }
-        }
 
-        @Override
-        protected void done() {
             // Call the callback with the discovered devices
             callback.accept(new ArrayList<>(discoveredDevices));
         }
@@ -0,0 +1,79 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format constants for the extended transfer protocol.
+ * A legacy transfer starts with the file name written by writeUTF. An extended transfer
+ * writes MAGIC in its place, which can never be a valid file name, followed by the
+ * protocol version and the transfer mode. Receivers that only know the legacy format
+ * are never sent an extended header unless the sender explicitly opts into a new mode.
+ */
+public class Protocol {
+    public static final String MAGIC = "\u0000SECURESHARE";
+    public static final int VERSION = 1;
+
+    // Transfer modes
+    public static final int MODE_STRIPED = 1;
+    public static final int MODE_RESUMABLE = 2;
+    public static final int MODE_BATCH = 3;
+    public static final int MODE_DIRECTORY = 4;
+    public static final int MODE_CHUNKED = 5;
+
+    // Flags of a chunked transfer, negotiated in its header
+    public static final int FLAG_COMPRESSED = 1;
+    public static final int FLAG_ENCRYPTED = 2;
+    public static final int FLAG_VERIFIED = 4;
+
+    // Encodings of a single chunk
+    public static final byte CHUNK_STORED = 0;
+    public static final byte CHUNK_DEFLATED = 1;
+
+    // Marks the end of the segment list on a striped connection
+    public static final long END_OF_SEGMENTS = -1L;
+
+    // Marks the end of the chunk list on a resumable connection
+    public static final int END_OF_CHUNKS = -1;
+
+    // Entry types inside the frames of a directory transfer
+    public static final byte ENTRY_DIRECTORY = 1;
+    public static final byte ENTRY_FILE = 2; // Contents follow inside the frame
+    public static final byte ENTRY_LARGE_FILE = 3; // Last entry of its frame, contents follow the frame
+
+    // A frame of this length marks the end of a directory transfer
+    public static final int END_OF_FRAMES = 0;
+
+    // Sent back by the receiver once everything on a connection has been written
+    public static final int ACK = 1;
+
+    private Protocol() {
+    }
+
+    /**
+     * Writes the extended header that precedes every non-legacy transfer.
+     * 
+     * @param out The stream to write to
+     * @param mode The transfer mode
+     */
+    public static void writeHeader(DataOutputStream out, int mode) throws IOException {
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mode);
+    }
+
+    /**
+     * Reads the remainder of an extended header after MAGIC has been consumed.
+     * 
+     * @param in The stream to read from
+     * @return The transfer mode
+     */
+    public static int readHeader(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        return in.readInt();
+    }
+}
@@ -0,0 +1,243 @@
+package network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a range of a file ahead of the code that sends it.
+ * <p>
+ * A reader task on a separate thread fills up to depth buffers with consecutive parts of the
+ * file and queues them, while the sending thread takes filled buffers, writes them to the
+ * connection and hands them back. The disk and the network therefore work at the same time:
+ * a cold file on a spinning disk or a network mount no longer leaves the socket idle while a
+ * chunk is read, and a slow connection no longer leaves the disk idle while a chunk is sent.
+ * <p>
+ * The buffers are borrowed from the shared BufferPool and returned when the reader is closed.
+ * <p>
+ * The time each side spent waiting for the other is measured, so a transfer can report
+ * whether it was bound by the disk or the network.
+ */
+public class ReadAheadReader implements AutoCloseable {
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new PrefetchThreadFactory());
+
+    private final FileChannel fileChannel;
+    private final long end;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<ByteBuffer> filledBuffers;
+    private final int depth;
+    private final ByteBuffer[] buffers;
+    private final CountDownLatch readerExited = new CountDownLatch(1);
+    private Thread readerThread;
+
+    private boolean closed;
+    private volatile IOException readFailure;
+    private volatile long readerWaitNanos;
+    private long consumerWaitNanos;
+    private boolean finished;
+
+    // Queued after the last buffer, or after a failure
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * Creates a reader and starts reading ahead.
+     * 
+     * @param fileChannel The channel of the file to read
+     * @param position The file position to start reading from
+     * @param end The file position to stop reading at
+     * @param depth The number of buffers read ahead of the consumer
+     * @param bufferSize The size of each buffer
+     */
+    public ReadAheadReader(FileChannel fileChannel, long position, long end, int depth, int bufferSize) throws IOException {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Read-ahead depth must be at least 1");
+        }
+        this.fileChannel = fileChannel;
+        this.end = end;
+        this.depth = depth;
+        this.freeBuffers = new ArrayBlockingQueue<>(depth);
+        this.filledBuffers = new ArrayBlockingQueue<>(depth + 1);
+
+        // Buffers never need to be larger than the range itself
+        int size = (int) Math.max(1, Math.min(bufferSize, end - position));
+        this.buffers = BufferPool.shared().acquire(depth, size);
+        Collections.addAll(freeBuffers, buffers);
+
+        try {
+            EXECUTOR.execute(() -> readLoop(position));
+        } catch (RuntimeException e) {
+            BufferPool.shared().release(buffers);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the next part of the file, waiting for the disk if it has not been read yet.
+     * The buffer is flipped and ready to be written; pass it to release once it has been sent.
+     * 
+     * @return The next buffer, or null once the whole range has been returned
+     */
+    public ByteBuffer next() throws IOException, InterruptedException {
+        if (finished) {
+            return null;
+        }
+
+        long waitStart = System.nanoTime();
+        ByteBuffer buffer = filledBuffers.take();
+        consumerWaitNanos += System.nanoTime() - waitStart;
+
+        if (buffer == END) {
+            finished = true;
+            if (readFailure != null) {
+                throw readFailure;
+            }
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back so the reader can fill it again.
+     * 
+     * @param buffer A buffer returned by next
+     */
+    public void release(ByteBuffer buffer) {
+        freeBuffers.add(buffer);
+    }
+
+    /**
+     * Reads the range into free buffers until it is done, the reader is closed or a read fails.
+     * Runs on the prefetch pool.
+     */
+    private void readLoop(long position) {
+        synchronized (this) {
+            if (closed) {
+                readerExited.countDown();
+                return;
+            }
+            readerThread = Thread.currentThread();
+        }
+
+        try {
+            while (position < end) {
+                long waitStart = System.nanoTime();
+                ByteBuffer buffer = freeBuffers.take();
+                readerWaitNanos += System.nanoTime() - waitStart;
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("File was truncated at " + (position + buffer.position()) + " bytes");
+                    }
+                }
+                buffer.flip();
+
+                position += buffer.remaining();
+                filledBuffers.put(buffer);
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (InterruptedException e) {
+            readFailure = new IOException("Read-ahead was interrupted", e);
+        } finally {
+            synchronized (this) {
+                // Clears an interrupt from close, so it cannot leak into the pool thread's next task
+                readerThread = null;
+                Thread.interrupted();
+            }
+            // There is always room for the marker: at most depth buffers can be queued
+            filledBuffers.offer(END);
+            readerExited.countDown();
+        }
+    }
+
+    /**
+     * Gets the number of buffers read ahead of the consumer.
+     * 
+     * @return The read-ahead depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets how long the disk reader waited for the consumer to hand buffers back.
+     * 
+     * @return The wait time in milliseconds
+     */
+    public long getReaderWaitMillis() {
+        return readerWaitNanos / 1_000_000;
+    }
+
+    /**
+     * Gets how long the consumer waited for the disk.
+     * 
+     * @return The wait time in milliseconds
+     */
+    public long getConsumerWaitMillis() {
+        return consumerWaitNanos / 1_000_000;
+    }
+
+    /**
+     * Summarizes the wait times for the log.
+     * 
+     * @return A one-line summary
+     */
+    public String describeMetrics() {
+        return String.format("Read-ahead of %d buffers: network waited %d ms for disk, disk waited %d ms for network",
+                depth, getConsumerWaitMillis(), getReaderWaitMillis());
+    }
+
+    /**
+     * Stops reading ahead and returns the buffers to the pool.
+     * Safe to call whether or not the whole range has been consumed; buffers
+     * returned by next must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (readerThread != null) {
+                // Interrupting a read closes the file channel, which is fine for a transfer that is being abandoned
+                readerThread.interrupt();
+            }
+        }
+
+        try {
+            readerExited.await();
+        } catch (InterruptedException e) {
+            // The reader may still be filling a buffer, so none of them can be reused
+            Thread.currentThread().interrupt();
+            BufferPool.shared().discard(buffers);
+            return;
+        }
+
+        freeBuffers.clear();
+        filledBuffers.clear();
+        BufferPool.shared().release(buffers);
+    }
+
+    /**
+     * Creates the daemon threads that read files ahead of the senders.
+     */
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "file-prefetch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
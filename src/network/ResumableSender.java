@@ -0,0 +1,169 @@
+package network;
+
+import utils.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Sends a file so that an interrupted transfer can pick up where it left off.
+ * <p>
+ * The file is sent in fixed-size chunks, each preceded by its index and CRC32C. The receiver
+ * keeps a ResumeJournal of the chunks it has written and, on every connection, answers
+ * the header with a bitmap of the chunks it already has. Only the missing chunks are sent.
+ * When a connection drops, the sender reconnects with a growing delay and asks again.
+ */
+public class ResumableSender {
+    private final File file;
+    private final String ipAddress;
+    private final int port;
+    private final Consumer<String> logCallback;
+    private final LongConsumer progressCallback;
+
+    /**
+     * Creates a new ResumableSender.
+     * 
+     * @param file The file to send
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @param logCallback Callback for log messages
+     * @param progressCallback Callback receiving the number of bytes the receiver holds so far
+     */
+    public ResumableSender(File file, String ipAddress, int port, Consumer<String> logCallback, LongConsumer progressCallback) {
+        this.file = file;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.logCallback = logCallback;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * Sends the file, reconnecting and resuming after connection failures
+     * until the receiver confirms the whole file or the attempts run out.
+     */
+    public void send() throws IOException, InterruptedException {
+        IOException lastFailure = null;
+
+        for (int attempt = 1; attempt <= Config.RESUME_MAX_ATTEMPTS; attempt++) {
+            try {
+                sendAttempt();
+                return;
+            } catch (IOException e) {
+                lastFailure = e;
+                if (attempt < Config.RESUME_MAX_ATTEMPTS) {
+                    long delay = (long) Config.RESUME_RETRY_DELAY_MS * attempt;
+                    log("Connection lost (" + e.getMessage() + "). Resuming in " + delay / 1000 + " s...");
+                    Thread.sleep(delay);
+                }
+            }
+        }
+
+        throw new IOException("Giving up after " + Config.RESUME_MAX_ATTEMPTS + " attempts", lastFailure);
+    }
+
+    /**
+     * Makes one connection: asks which chunks are missing, sends them and waits for confirmation.
+     */
+    private void sendAttempt() throws IOException {
+        long fileSize = file.length();
+        int chunkSize = Config.RESUME_CHUNK_SIZE;
+
+        try (
+            SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ipAddress, port));
+            FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+        ) {
+            DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+            DataInputStream dataInputStream = new DataInputStream(Channels.newInputStream(socketChannel));
+
+            Protocol.writeHeader(dataOutputStream, Protocol.MODE_RESUMABLE);
+            dataOutputStream.writeUTF(file.getName());
+            dataOutputStream.writeLong(fileSize);
+            dataOutputStream.writeLong(file.lastModified());
+            dataOutputStream.writeInt(chunkSize);
+            dataOutputStream.flush();
+
+            // The receiver answers with the chunks it already holds
+            int chunkCount = dataInputStream.readInt();
+            long[] words = new long[dataInputStream.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = dataInputStream.readLong();
+            }
+            BitSet completedChunks = BitSet.valueOf(words);
+
+            int completedCount = completedChunks.cardinality();
+            long bytesHeld = Math.min(fileSize, (long) completedCount * chunkSize);
+            if (completedCount > 0) {
+                log(String.format("Resuming: receiver already has %d of %d chunks", completedCount, chunkCount));
+            }
+            reportProgress(bytesHeld);
+
+            ByteBuffer chunkBuffer = BufferPool.shared().acquire(chunkSize);
+            CRC32C crc = new CRC32C();
+
+            try {
+                for (int index = completedChunks.nextClearBit(0); index < chunkCount; index = completedChunks.nextClearBit(index + 1)) {
+                    long offset = (long) index * chunkSize;
+                    int length = (int) Math.min(chunkSize, fileSize - offset);
+
+                    chunkBuffer.clear().limit(length);
+                    while (chunkBuffer.hasRemaining()) {
+                        if (fileChannel.read(chunkBuffer, offset + chunkBuffer.position()) < 0) {
+                            throw new EOFException("File was truncated while sending: " + file.getName());
+                        }
+                    }
+                    chunkBuffer.flip();
+
+                    crc.reset();
+                    crc.update(chunkBuffer);
+                    chunkBuffer.flip();
+
+                    dataOutputStream.writeInt(index);
+                    dataOutputStream.writeInt((int) crc.getValue());
+                    dataOutputStream.flush();
+                    while (chunkBuffer.hasRemaining()) {
+                        socketChannel.write(chunkBuffer);
+                    }
+
+                    bytesHeld += length;
+                    reportProgress(bytesHeld);
+                }
+            } finally {
+                BufferPool.shared().release(chunkBuffer);
+            }
+
+            dataOutputStream.writeInt(Protocol.END_OF_CHUNKS);
+            dataOutputStream.flush();
+
+            if (dataInputStream.read() != Protocol.ACK) {
+                throw new IOException("Receiver did not confirm the complete file");
+            }
+        }
+    }
+
+    private void reportProgress(long bytes) {
+        if (progressCallback != null) {
+            progressCallback.accept(bytes);
+        }
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
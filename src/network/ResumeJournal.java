@@ -0,0 +1,214 @@
+package network;
+
+import utils.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Sidecar journal recording which chunks of a partially received file are complete.
+ * <p>
+ * The journal starts with a header identifying the source file (size, modification time
+ * and chunk size) followed by one fixed-size record per completed chunk holding the chunk
+ * index and its CRC32C. Records are buffered and only appended after the data file has been
+ * forced to disk, so the journal never claims a chunk whose bytes could still be lost.
+ * A torn record at the end of the journal is ignored when it is reopened.
+ */
+public class ResumeJournal implements AutoCloseable {
+    private static final int JOURNAL_MAGIC = 0x53534A31; // "SSJ1"
+    private static final int HEADER_SIZE = Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    private static final int RECORD_SIZE = 2 * Integer.BYTES;
+
+    private final FileChannel journalChannel;
+    private final int chunkCount;
+    private final BitSet completedChunks;
+    private final int[] chunkChecksums;
+    private final ByteBuffer pendingRecords;
+
+    private ResumeJournal(FileChannel journalChannel, int chunkCount, BitSet completedChunks, int[] chunkChecksums, int maxPendingRecords) {
+        this.journalChannel = journalChannel;
+        this.chunkCount = chunkCount;
+        this.completedChunks = completedChunks;
+        this.chunkChecksums = chunkChecksums;
+        this.pendingRecords = ByteBuffer.allocate(maxPendingRecords * RECORD_SIZE);
+    }
+
+    /**
+     * Opens the journal for a file, continuing an existing one if it describes the same source file.
+     * Otherwise the journal is started over and every chunk counts as missing.
+     * 
+     * @param journalPath The path of the journal file
+     * @param fileSize The size of the source file
+     * @param lastModified The modification time of the source file
+     * @param chunkSize The chunk size used by the sender
+     * @param maxPendingRecords How many completed chunks may be buffered between commits
+     * @return The opened journal
+     * @throws IOException If the file has more than Config.RESUME_MAX_CHUNK_COUNT chunks, or the journal cannot be opened
+     */
+    public static ResumeJournal open(Path journalPath, long fileSize, long lastModified, int chunkSize, int maxPendingRecords) throws IOException {
+        if (fileSize < 0 || chunkSize <= 0) {
+            throw new IOException("Invalid file size " + fileSize + " or chunk size " + chunkSize);
+        }
+        long chunks = fileSize / chunkSize + (fileSize % chunkSize == 0 ? 0 : 1);
+        if (chunks > Config.RESUME_MAX_CHUNK_COUNT) {
+            throw new IOException("File has " + chunks + " chunks, more than the " + Config.RESUME_MAX_CHUNK_COUNT + " a journal tracks");
+        }
+        int chunkCount = (int) chunks;
+        BitSet completedChunks = new BitSet(chunkCount);
+        int[] chunkChecksums = new int[chunkCount];
+
+        FileChannel channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(JOURNAL_MAGIC).putLong(fileSize).putLong(lastModified).putInt(chunkSize).flip();
+
+            if (matchesHeader(channel, header)) {
+                // Load complete records and drop a torn one at the end
+                long recordBytes = channel.size() - HEADER_SIZE;
+                long validBytes = recordBytes - recordBytes % RECORD_SIZE;
+                ByteBuffer records = ByteBuffer.allocate((int) validBytes);
+                readFully(channel, records, HEADER_SIZE);
+
+                while (records.remaining() >= RECORD_SIZE) {
+                    int index = records.getInt();
+                    int checksum = records.getInt();
+                    if (index >= 0 && index < chunkCount) {
+                        completedChunks.set(index);
+                        chunkChecksums[index] = checksum;
+                    }
+                }
+                channel.truncate(HEADER_SIZE + validBytes);
+                channel.position(HEADER_SIZE + validBytes);
+            } else {
+                // New transfer, or the source file changed since the journal was written
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(false);
+                channel.position(HEADER_SIZE);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new ResumeJournal(channel, chunkCount, completedChunks, chunkChecksums, maxPendingRecords);
+    }
+
+    /**
+     * Checks if the journal on disk starts with the given header.
+     */
+    private static boolean matchesHeader(FileChannel channel, ByteBuffer expected) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+
+        ByteBuffer actual = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, actual, 0);
+        return actual.equals(expected);
+    }
+
+    /**
+     * Fills a buffer from the given file position and flips it for reading.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Journal is shorter than expected");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Gets the number of chunks in the file.
+     * 
+     * @return The chunk count
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Gets the chunks that are already complete, including ones not yet committed.
+     * 
+     * @return A copy of the completed chunk bitmap
+     */
+    public synchronized BitSet getCompletedChunks() {
+        return (BitSet) completedChunks.clone();
+    }
+
+    /**
+     * Gets the number of completed chunks.
+     * 
+     * @return The completed chunk count
+     */
+    public synchronized int getCompletedChunkCount() {
+        return completedChunks.cardinality();
+    }
+
+    /**
+     * Checks if every chunk of the file is complete.
+     * 
+     * @return true if no chunks are missing
+     */
+    public synchronized boolean isComplete() {
+        return completedChunks.cardinality() == chunkCount;
+    }
+
+    /**
+     * Gets the checksum recorded for a completed chunk.
+     * 
+     * @param index The chunk index
+     * @return The CRC32C of the chunk
+     */
+    public synchronized int getChecksum(int index) {
+        return chunkChecksums[index];
+    }
+
+    /**
+     * Records a chunk as complete. The record is written at the next commit.
+     * 
+     * @param index The chunk index
+     * @param checksum The CRC32C of the chunk
+     * @param dataChannel The channel of the data file, forced before the journal is written
+     */
+    public synchronized void markComplete(int index, int checksum, FileChannel dataChannel) throws IOException {
+        completedChunks.set(index);
+        chunkChecksums[index] = checksum;
+
+        pendingRecords.putInt(index).putInt(checksum);
+        if (!pendingRecords.hasRemaining()) {
+            commit(dataChannel);
+        }
+    }
+
+    /**
+     * Makes every completed chunk durable: the data file is forced first, then the journal records are appended.
+     * 
+     * @param dataChannel The channel of the data file
+     */
+    public synchronized void commit(FileChannel dataChannel) throws IOException {
+        if (pendingRecords.position() == 0) {
+            return;
+        }
+
+        dataChannel.force(false);
+
+        pendingRecords.flip();
+        while (pendingRecords.hasRemaining()) {
+            journalChannel.write(pendingRecords);
+        }
+        journalChannel.force(false);
+        pendingRecords.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        journalChannel.close();
+    }
+}
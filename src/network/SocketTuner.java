@@ -0,0 +1,216 @@
+package network;
+
+import utils.Config;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Chooses socket options and the send chunk size for a connection.
+ * <p>
+ * In the automatic profile the round-trip time is taken from how long the TCP handshake
+ * took, and the throughput is sampled every Config.TUNING_SAMPLE_MS during the first
+ * Config.TUNING_WINDOW_MS of the transfer. The send buffer is grown to twice the
+ * bandwidth-delay product, so the sender can keep a full window in flight, and the chunk
+ * size handed to each socket write grows with it. Buffers only ever grow.
+ * <p>
+ * The fixed profile sets Config.FIXED_SOCKET_BUFFER_SIZE and Config.FIXED_CHUNK_SIZE up front
+ * and never changes them, so benchmarks are reproducible.
+ * <p>
+ * Receive buffers are left to the operating system in the automatic profile: on Linux,
+ * setting SO_RCVBUF explicitly turns off the kernel's own receive window autotuning,
+ * which already follows the bandwidth-delay product.
+ */
+public class SocketTuner {
+    private final boolean automatic;
+    private final Consumer<String> logCallback;
+
+    private long rttNanos;
+    private int sendBufferSize;
+    private int chunkSize;
+
+    private long connectedAt;
+    private long sampleStart;
+    private long sampleBytes;
+    private double peakThroughput;
+    private long bandwidthDelayProduct;
+    private boolean reported;
+
+    /**
+     * Creates a tuner for one connection.
+     * 
+     * @param automatic true for the automatic profile, false for the fixed profile
+     * @param logCallback Callback for log messages
+     */
+    public SocketTuner(boolean automatic, Consumer<String> logCallback) {
+        this.automatic = automatic;
+        this.logCallback = logCallback;
+        this.chunkSize = automatic ? Config.TUNING_MIN_CHUNK_SIZE : Config.FIXED_CHUNK_SIZE;
+    }
+
+    /**
+     * Opens a connection with the profile's socket options and measures the round-trip time.
+     * 
+     * @param ipAddress The IP address to connect to
+     * @param port The port to connect to
+     * @return The connected channel
+     */
+    public SocketChannel connect(String ipAddress, int port) throws IOException {
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (!automatic) {
+                // Set before connecting, so the window scale is negotiated for it
+                socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, Config.FIXED_SOCKET_BUFFER_SIZE);
+                socketChannel.setOption(StandardSocketOptions.SO_RCVBUF, Config.FIXED_SOCKET_BUFFER_SIZE);
+            }
+
+            // connect returns once the SYN has been answered, which takes one round trip
+            long start = System.nanoTime();
+            socketChannel.connect(new InetSocketAddress(ipAddress, port));
+            connectedAt = System.nanoTime();
+            rttNanos = Math.max(1, connectedAt - start);
+            sampleStart = connectedAt;
+
+            sendBufferSize = socketChannel.getOption(StandardSocketOptions.SO_SNDBUF);
+            log(String.format("Socket tuning (%s): RTT %.2f ms, SO_SNDBUF %s, SO_RCVBUF %s, chunk %s",
+                    automatic ? "automatic" : "fixed", rttNanos / 1e6, formatSize(sendBufferSize),
+                    formatSize(socketChannel.getOption(StandardSocketOptions.SO_RCVBUF)), formatSize(chunkSize)));
+            return socketChannel;
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Records bytes written to the connection and, while the tuning window is open,
+     * grows the send buffer and chunk size to match the measured bandwidth-delay product.
+     * 
+     * @param socketChannel The connection
+     * @param bytes The number of bytes just written
+     */
+    public void update(SocketChannel socketChannel, long bytes) throws IOException {
+        if (!automatic || reported) {
+            return;
+        }
+
+        sampleBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - sampleStart;
+        if (elapsed < Config.TUNING_SAMPLE_MS * 1_000_000L) {
+            return;
+        }
+
+        double throughput = sampleBytes * 1e9 / elapsed;
+        peakThroughput = Math.max(peakThroughput, throughput);
+        sampleStart = now;
+        sampleBytes = 0;
+
+        bandwidthDelayProduct = (long) (peakThroughput * rttNanos / 1e9);
+        int targetBuffer = clampToPowerOfTwo(2 * bandwidthDelayProduct, Config.TUNING_MIN_SOCKET_BUFFER, Config.TUNING_MAX_SOCKET_BUFFER);
+        if (targetBuffer > sendBufferSize) {
+            socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, targetBuffer);
+            sendBufferSize = socketChannel.getOption(StandardSocketOptions.SO_SNDBUF);
+        }
+
+        // Each write should hand the kernel a sizeable part of the window, but not more than it holds
+        int targetChunk = clampToPowerOfTwo(bandwidthDelayProduct, Config.TUNING_MIN_CHUNK_SIZE, Config.TUNING_MAX_CHUNK_SIZE);
+        chunkSize = Math.max(chunkSize, targetChunk);
+
+        if (now - connectedAt >= Config.TUNING_WINDOW_MS * 1_000_000L) {
+            finish();
+        }
+    }
+
+    /**
+     * Ends the tuning window and logs the values chosen. Transfers that end before the
+     * window closes call this themselves; later calls do nothing.
+     */
+    public void finish() {
+        if (!automatic || reported) {
+            return;
+        }
+        reported = true;
+
+        if (peakThroughput == 0) {
+            log("Socket tuning: transfer ended before the first throughput sample, kept the initial values");
+            return;
+        }
+        log(String.format("Socket tuned: %.1f MB/s over RTT %.2f ms, BDP %s, SO_SNDBUF %s, chunk %s",
+                peakThroughput / (1024 * 1024), rttNanos / 1e6, formatSize(bandwidthDelayProduct),
+                formatSize(sendBufferSize), formatSize(chunkSize)));
+    }
+
+    /**
+     * Gets the number of bytes to hand to each socket write.
+     * 
+     * @return The current chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the round-trip time measured while connecting.
+     * 
+     * @return The round-trip time in nanoseconds
+     */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    /**
+     * Applies a profile to a listening channel, before it is bound.
+     * Connections accepted from it inherit the receive buffer.
+     * 
+     * @param serverChannel The unbound server channel
+     * @param automatic true for the automatic profile, false for the fixed profile
+     */
+    public static void configureServer(ServerSocketChannel serverChannel, boolean automatic) throws IOException {
+        if (!automatic) {
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, Config.FIXED_SOCKET_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Applies a profile to an accepted connection.
+     * 
+     * @param socketChannel The accepted channel
+     * @param automatic true for the automatic profile, false for the fixed profile
+     */
+    public static void configureAccepted(SocketChannel socketChannel, boolean automatic) throws IOException {
+        // Acknowledgements and retransmission requests are small and should not wait for Nagle
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        if (!automatic) {
+            socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, Config.FIXED_SOCKET_BUFFER_SIZE);
+        }
+    }
+
+    private static int clampToPowerOfTwo(long value, int min, int max) {
+        if (value <= min) {
+            return min;
+        }
+        if (value >= max) {
+            return max;
+        }
+        return (int) Math.min(max, Long.highestOneBit(value - 1) << 1);
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package network;
+
+import utils.Config;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends a single file over several parallel TCP connections.
+ * The file is cut into fixed-size segments that the connections claim one at a time
+ * and send with positional FileChannel reads, so a slow connection simply ends up
+ * carrying fewer segments. The receiver writes each segment at its offset into one
+ * preallocated file.
+ * <p>
+ * With a stream count of 0 the number of connections is chosen automatically: the
+ * transfer starts on one connection and adds another after each measurement interval
+ * for as long as the aggregate throughput keeps improving.
+ */
+public class StripedSender {
+    private final File file;
+    private final String ipAddress;
+    private final int port;
+    private final int requestedStreams;
+    private final Consumer<String> logCallback;
+    private final LongConsumer progressCallback;
+
+    private final AtomicLong nextSegmentOffset = new AtomicLong();
+    private final AtomicLong totalBytesSent = new AtomicLong();
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private long transferId;
+    private long fileSize;
+
+    /**
+     * Creates a new StripedSender.
+     * 
+     * @param file The file to send
+     * @param ipAddress The IP address of the receiver
+     * @param port The port of the receiver
+     * @param streams The number of parallel connections, or 0 to choose automatically
+     * @param logCallback Callback for log messages
+     * @param progressCallback Callback receiving the total number of bytes sent so far
+     */
+    public StripedSender(File file, String ipAddress, int port, int streams,
+                         Consumer<String> logCallback, LongConsumer progressCallback) {
+        this.file = file;
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.requestedStreams = Math.min(streams, Config.MAX_PARALLEL_STREAMS);
+        this.logCallback = logCallback;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * Checks if a file is large enough to be worth striping.
+     * 
+     * @param fileSize The size of the file in bytes
+     * @return true if the file spans at least two segments
+     */
+    public static boolean isWorthStriping(long fileSize) {
+        return fileSize >= 2L * Config.STRIPE_SEGMENT_SIZE;
+    }
+
+    /**
+     * Sends the file and blocks until every connection has been acknowledged by the receiver.
+     * 
+     * @return The number of parallel connections that were used
+     */
+    public int send() throws IOException, InterruptedException {
+        fileSize = file.length();
+        transferId = ThreadLocalRandom.current().nextLong();
+
+        // The stream count is already capped at Config.MAX_PARALLEL_STREAMS, so the pool needs no bound
+        ExecutorService streamPool = TransferEngine.shared().newExecutor("striped-sender-");
+        List<Future<Void>> streams = new ArrayList<>();
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (requestedStreams > 0) {
+                log("Sending over " + requestedStreams + " parallel stream(s)");
+                for (int i = 0; i < requestedStreams; i++) {
+                    streams.add(streamPool.submit(() -> runStream(fileChannel)));
+                }
+            } else {
+                streams.add(streamPool.submit(() -> runStream(fileChannel)));
+                rampUpStreams(fileChannel, streamPool, streams);
+            }
+
+            // Wait for every stream, reporting the first failure
+            IOException failure = null;
+            for (Future<Void> stream : streams) {
+                try {
+                    stream.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            streamPool.shutdownNow();
+        }
+
+        return streams.size();
+    }
+
+    /**
+     * Adds connections one at a time while each addition still improves aggregate throughput.
+     * 
+     * @param fileChannel The channel of the file being sent
+     * @param streamPool The pool running the connections
+     * @param streams The futures of the running connections
+     */
+    private void rampUpStreams(FileChannel fileChannel, ExecutorService streamPool, List<Future<Void>> streams) throws InterruptedException {
+        double bestThroughput = 0;
+        long lastBytes = 0;
+        long lastTime = System.nanoTime();
+
+        while (streams.size() < Config.MAX_PARALLEL_STREAMS && !failed.get()) {
+            Thread.sleep(Config.STRIPE_PROBE_INTERVAL_MS);
+
+            long now = System.nanoTime();
+            long bytes = totalBytesSent.get();
+            double throughput = (bytes - lastBytes) / ((now - lastTime) / 1e9);
+            lastBytes = bytes;
+            lastTime = now;
+
+            // Stop once the last connection did not help, or too little is left to share out
+            boolean improved = throughput > bestThroughput * Config.STRIPE_MIN_GAIN;
+            boolean enoughLeft = fileSize - nextSegmentOffset.get() >= 2L * Config.STRIPE_SEGMENT_SIZE;
+            if (!improved || !enoughLeft) {
+                break;
+            }
+
+            bestThroughput = throughput;
+            streams.add(streamPool.submit(() -> runStream(fileChannel)));
+        }
+
+        log(String.format("Using %d parallel stream(s) at %.1f MB/s", streams.size(), bestThroughput / (1024 * 1024)));
+    }
+
+    /**
+     * Runs one connection: claims segments until none are left, then waits for the acknowledgement.
+     * 
+     * @param fileChannel The channel of the file being sent
+     */
+    private Void runStream(FileChannel fileChannel) throws IOException {
+        try (SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(ipAddress, port))) {
+            DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(socketChannel)));
+            Protocol.writeHeader(dataOutputStream, Protocol.MODE_STRIPED);
+            dataOutputStream.writeLong(transferId);
+            dataOutputStream.writeUTF(file.getName());
+            dataOutputStream.writeLong(fileSize);
+            dataOutputStream.flush();
+
+            ByteBuffer segmentHeader = ByteBuffer.allocate(2 * Long.BYTES);
+            long offset;
+            while (!failed.get() && (offset = nextSegmentOffset.getAndAdd(Config.STRIPE_SEGMENT_SIZE)) < fileSize) {
+                long length = Math.min(Config.STRIPE_SEGMENT_SIZE, fileSize - offset);
+
+                segmentHeader.clear();
+                segmentHeader.putLong(offset).putLong(length).flip();
+                while (segmentHeader.hasRemaining()) {
+                    socketChannel.write(segmentHeader);
+                }
+
+                sendSegment(fileChannel, socketChannel, offset, length);
+            }
+
+            // When another connection failed, drop this one too so the receiver discards the partial file
+            if (failed.get()) {
+                throw new IOException("Transfer aborted because another stream failed");
+            }
+
+            segmentHeader.clear();
+            segmentHeader.putLong(Protocol.END_OF_SEGMENTS).flip();
+            while (segmentHeader.hasRemaining()) {
+                socketChannel.write(segmentHeader);
+            }
+
+            // The receiver acknowledges once all of this connection's segments are on disk
+            if (new DataInputStream(Channels.newInputStream(socketChannel)).read() != Protocol.ACK) {
+                throw new EOFException("Receiver closed the connection before acknowledging");
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            failed.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends one segment with positional transfers from the file.
+     * 
+     * @param fileChannel The channel of the file being sent
+     * @param socketChannel The connection to send on
+     * @param offset The file offset of the segment
+     * @param length The length of the segment
+     */
+    private void sendSegment(FileChannel fileChannel, SocketChannel socketChannel, long offset, long length) throws IOException {
+        long position = offset;
+        long end = offset + length;
+
+        while (position < end) {
+            long bytesSent = fileChannel.transferTo(position, end - position, socketChannel);
+            if (bytesSent <= 0) {
+                throw new EOFException("File was truncated while sending: " + file.getName());
+            }
+            position += bytesSent;
+            long total = totalBytesSent.addAndGet(bytesSent);
+            if (progressCallback != null) {
+                progressCallback.accept(total);
+            }
+        }
+    }
+
+    /**
+     * Logs a message using the log callback.
+     * 
+     * @param message The message to log
+     */
+    private void log(String message) {
+        if (logCallback != null) {
+            logCallback.accept(message);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package network;
+
+import utils.Config;
+import utils.TransferRecord;
+
+/**
+ * Measures one transfer for its history record: when it ran, how many bytes it moved, and its
+ * average and peak throughput.
+ * <p>
+ * The transfer loops already report their running byte count for progress, so the meter is fed
+ * from the same place and only compares a clock reading per report. The peak is the highest rate
+ * over a window of Config.PEAK_THROUGHPUT_WINDOW_MS, which is long enough that a single burst
+ * into the socket buffer does not count as a peak.
+ * <p>
+ * The meter is thread-safe, so the connections of a parallel transfer can feed one meter.
+ */
+public class ThroughputMeter {
+    private static final long PEAK_WINDOW_NANOS = Config.PEAK_THROUGHPUT_WINDOW_MS * 1_000_000L;
+
+    private boolean started;
+    private boolean finished;
+    private long startTime;
+    private long endTime;
+    private long startNanos;
+    private long endNanos;
+    private long baselineBytes;
+    private long bytes;
+    private long windowNanos;
+    private long windowBytes;
+    private double peakRate;
+
+    /**
+     * Starts measuring. Only the first call has an effect.
+     *
+     * @param alreadyTransferred Bytes that were already in place, such as the chunks a resumed
+     *                           transfer does not send again; they do not count as transferred
+     */
+    public synchronized void start(long alreadyTransferred) {
+        if (started) {
+            return;
+        }
+        started = true;
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        baselineBytes = alreadyTransferred;
+        bytes = alreadyTransferred;
+        windowNanos = startNanos;
+        windowBytes = alreadyTransferred;
+    }
+
+    /**
+     * Records the running byte count of the transfer.
+     *
+     * @param totalBytes The bytes transferred so far, including the ones passed to start; a count
+     *                   lower than an earlier one, as from concurrent connections, is ignored
+     */
+    public synchronized void update(long totalBytes) {
+        if (!started || finished || totalBytes <= bytes) {
+            return;
+        }
+        bytes = totalBytes;
+
+        long now = System.nanoTime();
+        long elapsed = now - windowNanos;
+        if (elapsed >= PEAK_WINDOW_NANOS) {
+            peakRate = Math.max(peakRate, (bytes - windowBytes) * 1e9 / elapsed);
+            windowNanos = now;
+            windowBytes = bytes;
+        }
+    }
+
+    /**
+     * Stops measuring. Only the first call has an effect.
+     */
+    public synchronized void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        endTime = System.currentTimeMillis();
+        endNanos = System.nanoTime();
+        if (!started) {
+            // Ended before any data was sent, such as a refused connection
+            startTime = endTime;
+            startNanos = endNanos;
+        }
+    }
+
+    /**
+     * Gets the bytes moved since the meter was started.
+     *
+     * @return The transferred bytes
+     */
+    public synchronized long getBytesTransferred() {
+        return bytes - baselineBytes;
+    }
+
+    /**
+     * Gets the average rate between start and finish, or until now if not finished.
+     *
+     * @return The rate in bytes per second
+     */
+    public synchronized double getAverageRate() {
+        long elapsed = (finished ? endNanos : System.nanoTime()) - startNanos;
+        return elapsed > 0 ? getBytesTransferred() * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Gets the highest rate over a full window. A transfer shorter than one window has no
+     * complete window, so its peak is its average.
+     *
+     * @return The rate in bytes per second
+     */
+    public synchronized double getPeakRate() {
+        return Math.max(peakRate, getAverageRate());
+    }
+
+    /**
+     * Finishes the meter and creates a history record with its measurements.
+     *
+     * @param fileName The name of the file, directory or batch file
+     * @param fileSize The size of the file in bytes
+     * @param bytesTransferred The bytes of this file that were transferred
+     * @param direction The direction of the transfer
+     * @param peerAddress The address of the other side
+     * @param outcome How the transfer ended
+     * @param integrity Whether the data was verified
+     * @return The record
+     */
+    public synchronized TransferRecord createRecord(String fileName, long fileSize, long bytesTransferred,
+                                                    TransferRecord.Direction direction, String peerAddress,
+                                                    TransferRecord.Outcome outcome, TransferRecord.Integrity integrity) {
+        finish();
+        return new TransferRecord(fileName, fileSize, direction, peerAddress, startTime, endTime, bytesTransferred,
+                (long) getAverageRate(), (long) getPeakRate(), outcome, integrity);
+    }
+}
@@ -0,0 +1,122 @@
+package network;
+
+import utils.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs transfers in the background and hands out a TransferHandle for each one.
+ * <p>
+ * Every transfer gets its own thread, so any number of concurrent transfers can block on
+ * sockets and disks without waiting for a free worker. On Java 21 and later the threads are
+ * virtual threads, which cost a few kilobytes each; on older runtimes they are daemon platform
+ * threads from a cached pool. Virtual threads are looked up by reflection, so the engine
+ * still builds and runs on Java 17.
+ * <p>
+ * Nothing here touches Swing or AWT. Callers that update a user interface from the result
+ * or from progress listeners have to switch to their own UI thread.
+ */
+public class TransferEngine {
+    private static final TransferEngine SHARED = new TransferEngine(Config.VIRTUAL_THREADS_ENABLED);
+
+    private final boolean virtualThreads;
+    private final ExecutorService executor;
+
+    /**
+     * Creates an engine with its own executor.
+     * 
+     * @param preferVirtualThreads true to use virtual threads when the runtime supports them
+     */
+    public TransferEngine(boolean preferVirtualThreads) {
+        ExecutorService virtualExecutor = preferVirtualThreads ? newVirtualThreadExecutor("transfer-") : null;
+        this.virtualThreads = virtualExecutor != null;
+        this.executor = virtualExecutor != null ? virtualExecutor : newPlatformThreadExecutor("transfer-");
+    }
+
+    /**
+     * Gets the engine shared by the sender and the receiver.
+     * 
+     * @return The shared engine, using virtual threads if Config.VIRTUAL_THREADS_ENABLED allows it
+     */
+    public static TransferEngine shared() {
+        return SHARED;
+    }
+
+    /**
+     * Starts a transfer.
+     * 
+     * @param name A name for the transfer, used in logs and thread dumps
+     * @param task The transfer to run
+     * @return A handle to wait for, cancel or follow the transfer
+     */
+    public <T> TransferHandle<T> submit(String name, TransferTask<T> task) {
+        TransferHandle<T> handle = new TransferHandle<>(name);
+        Future<?> future = executor.submit(() -> handle.run(task));
+        handle.attach(future);
+        return handle;
+    }
+
+    /**
+     * Creates an executor with the same kind of threads as the engine, for callers that need
+     * to shut down their own tasks together, such as the connections of one receiver.
+     * 
+     * @param namePrefix The prefix of the thread names
+     * @return An executor that starts a new thread for every task, or reuses idle platform threads
+     */
+    public ExecutorService newExecutor(String namePrefix) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor(namePrefix) : null;
+        return virtualExecutor != null ? virtualExecutor : newPlatformThreadExecutor(namePrefix);
+    }
+
+    /**
+     * Checks if the engine runs transfers on virtual threads.
+     * 
+     * @return true for virtual threads, false for platform threads
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops the engine and interrupts the transfers it is running. The shared engine is never shut down.
+     */
+    public void shutdownNow() {
+        if (this != SHARED) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1).factory()).
+     * 
+     * @return The executor, or null if the runtime has no virtual threads or only as a disabled preview
+     */
+    private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a cached pool of daemon platform threads.
+     */
+    private static ExecutorService newPlatformThreadExecutor(String namePrefix) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
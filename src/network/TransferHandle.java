@@ -0,0 +1,199 @@
+package network;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A transfer started by the TransferEngine.
+ * <p>
+ * The result is available as a CompletableFuture, which completes with the value returned by the
+ * transfer, exceptionally with the exception it threw, or cancelled. Unlike cancelling the future
+ * itself, cancel also interrupts the thread running the transfer, so it stops promptly.
+ * <p>
+ * Progress listeners are called on the transfer thread every time the transfer reports
+ * progress, so they must be cheap; a user interface should rather sample a TransferStats.
+ * 
+ * @param <T> The type of the result
+ */
+public class TransferHandle<T> {
+    private final String name;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<ProgressListener> progressListeners = new CopyOnWriteArrayList<>();
+
+    private volatile long bytesTransferred;
+    private volatile long totalBytes = -1;
+
+    // Guarded by this
+    private Future<?> task;
+    private boolean cancelled;
+
+    /**
+     * Receives the progress of a transfer.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called on the transfer thread whenever the transfer reports progress.
+         * 
+         * @param bytesTransferred The number of bytes transferred so far
+         * @param totalBytes The number of bytes the transfer will move
+         */
+        void progress(long bytesTransferred, long totalBytes);
+    }
+
+    TransferHandle(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the task and completes the result. Called on the engine thread.
+     */
+    void run(TransferTask<T> task) {
+        if (result.isDone()) {
+            // Cancelled before it started
+            return;
+        }
+        try {
+            result.complete(task.run(this));
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Connects the handle to the engine task running it, so cancel can interrupt it.
+     */
+    synchronized void attach(Future<?> task) {
+        this.task = task;
+        if (cancelled) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Reports the progress of the transfer to the listeners. Called by the transfer.
+     * 
+     * @param bytesTransferred The number of bytes transferred so far
+     * @param totalBytes The number of bytes the transfer will move
+     */
+    public void reportProgress(long bytesTransferred, long totalBytes) {
+        this.bytesTransferred = bytesTransferred;
+        this.totalBytes = totalBytes;
+        for (ProgressListener listener : progressListeners) {
+            listener.progress(bytesTransferred, totalBytes);
+        }
+    }
+
+    /**
+     * Adds a listener that is called whenever the transfer reports progress.
+     * 
+     * @param listener The listener to add
+     * @return This handle
+     */
+    public TransferHandle<T> addProgressListener(ProgressListener listener) {
+        progressListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Removes a previously added progress listener.
+     * 
+     * @param listener The listener to remove
+     */
+    public void removeProgressListener(ProgressListener listener) {
+        progressListeners.remove(listener);
+    }
+
+    /**
+     * Cancels the transfer, interrupting it if it is running.
+     * 
+     * @return true if the transfer was cancelled, false if it had already completed
+     */
+    public synchronized boolean cancel() {
+        // Cancel the result before interrupting, so the failure the interrupt causes cannot complete it first
+        if (!result.cancel(false)) {
+            return false;
+        }
+        cancelled = true;
+        if (task != null) {
+            task.cancel(true);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the result of the transfer as a future.
+     * 
+     * @return A future that completes when the transfer ends
+     */
+    public CompletableFuture<T> getFuture() {
+        return result;
+    }
+
+    /**
+     * Waits for the transfer to end.
+     * 
+     * @return The result of the transfer
+     * @throws ExecutionException If the transfer failed; the cause is the exception it threw
+     * @throws CancellationException If the transfer was cancelled
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public T await() throws ExecutionException, InterruptedException {
+        return result.get();
+    }
+
+    /**
+     * Checks if the transfer has ended, whether it succeeded, failed or was cancelled.
+     * 
+     * @return true if the transfer has ended
+     */
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * Checks if the transfer was cancelled.
+     * 
+     * @return true if the transfer was cancelled
+     */
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    /**
+     * Gets the name of the transfer.
+     * 
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of bytes transferred at the last progress report.
+     * 
+     * @return The bytes transferred
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Gets the number of bytes the transfer will move.
+     * 
+     * @return The total bytes, or -1 before the first progress report
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
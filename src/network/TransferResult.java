@@ -0,0 +1,57 @@
+package network;
+
+/**
+ * The outcome of a successful transfer.
+ */
+public class TransferResult {
+    private final String name;
+    private final int fileCount;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    /**
+     * Creates a result.
+     * 
+     * @param name The name of the file, directory or batch
+     * @param fileCount The number of files transferred
+     * @param bytes The number of bytes transferred
+     * @param elapsedNanos How long the transfer took
+     */
+    public TransferResult(String name, int fileCount, long bytes, long elapsedNanos) {
+        this.name = name;
+        this.fileCount = fileCount;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the average throughput of the transfer.
+     * 
+     * @return The throughput in bytes per second
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d file(s), %d bytes in %.2f s (%.1f MB/s)", name, fileCount, bytes,
+                elapsedNanos / 1e9, getThroughput() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,221 @@
+package network;
+
+import utils.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the transfers running in a sender or a receiver, counted in the copy loops
+ * and sampled elsewhere.
+ * <p>
+ * The copy loops only add to counters, which costs no allocation, no string formatting and no
+ * event dispatch work however often they report. A UI timer calls sample at a fixed rate and
+ * reads the bytes, the current and average rate and the estimated time left from the last sample.
+ * <p>
+ * Transfers that overlap are combined: the totals cover every transfer since the counters were
+ * last idle, so the progress bar of a receiver with several uploads moves forward steadily
+ * instead of jumping whenever one of them finishes.
+ */
+public class TransferStats {
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    // Guarded by this
+    private int activeTransfers;
+    private long baselineBytes;
+    private long startNanos;
+    private long endNanos;
+
+    // Results of the last sample, guarded by this
+    private long sampleNanos;
+    private long sampledBytes;
+    private long sampledTotal;
+    private double currentRate;
+    private double averageRate;
+    private long secondsLeft = -1;
+
+    /**
+     * Registers a transfer. The first transfer after an idle period resets the counters.
+     * 
+     * @param expectedBytes The number of bytes the transfer will move
+     * @param alreadyTransferred Bytes that were already in place, such as the chunks a resumed
+     *                           transfer does not send again; they count as done but not toward the rate
+     */
+    public synchronized void begin(long expectedBytes, long alreadyTransferred) {
+        if (activeTransfers++ == 0) {
+            transferredBytes.set(0);
+            totalBytes.set(0);
+            baselineBytes = 0;
+            startNanos = System.nanoTime();
+            endNanos = 0;
+            sampleNanos = startNanos;
+            sampledBytes = 0;
+            currentRate = 0;
+        }
+        totalBytes.addAndGet(expectedBytes);
+        transferredBytes.addAndGet(alreadyTransferred);
+        baselineBytes += alreadyTransferred;
+    }
+
+    /**
+     * Counts bytes moved by a transfer. Called from the copy loops.
+     * 
+     * @param bytes The number of bytes just moved
+     */
+    public void add(long bytes) {
+        transferredBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Unregisters a transfer. The bytes a failed transfer did not move are taken off the total,
+     * so the combined progress can still reach 100%.
+     * 
+     * @param expectedBytes The number of bytes passed to begin
+     * @param transferred The number of bytes the transfer reported in total
+     */
+    public synchronized void end(long expectedBytes, long transferred) {
+        if (activeTransfers == 0) {
+            return;
+        }
+        if (transferred < expectedBytes) {
+            totalBytes.addAndGet(transferred - expectedBytes);
+        }
+        if (--activeTransfers == 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Takes a sample of the counters and updates the rates and the time left.
+     * Meant to be called at a fixed rate, every Config.PROGRESS_SAMPLE_INTERVAL_MS.
+     */
+    public synchronized void sample() {
+        long now = activeTransfers > 0 ? System.nanoTime() : endNanos;
+        long bytes = transferredBytes.get();
+        long elapsed = now - sampleNanos;
+
+        if (activeTransfers > 0 && elapsed > 0) {
+            // A smoothed rate over the last few samples, so the display does not flicker
+            double rate = (bytes - sampledBytes) * 1e9 / elapsed;
+            currentRate = currentRate == 0 ? rate
+                    : Config.PROGRESS_RATE_SMOOTHING * rate + (1 - Config.PROGRESS_RATE_SMOOTHING) * currentRate;
+        } else if (activeTransfers == 0) {
+            currentRate = 0;
+        }
+
+        long sinceStart = now - startNanos;
+        averageRate = sinceStart > 0 ? (bytes - baselineBytes) * 1e9 / sinceStart : 0;
+
+        sampleNanos = now;
+        sampledBytes = bytes;
+        sampledTotal = totalBytes.get();
+
+        double rateForEstimate = currentRate > 0 ? currentRate : averageRate;
+        secondsLeft = activeTransfers > 0 && rateForEstimate > 0
+                ? (long) Math.ceil(Math.max(0, sampledTotal - bytes) / rateForEstimate)
+                : -1;
+    }
+
+    /**
+     * Checks if a transfer was running at the last sample.
+     * 
+     * @return true while at least one transfer is registered
+     */
+    public synchronized boolean isActive() {
+        return activeTransfers > 0;
+    }
+
+    /**
+     * Checks if any transfer has been registered since the program started.
+     * 
+     * @return true once begin has been called
+     */
+    public synchronized boolean hasStarted() {
+        return startNanos != 0;
+    }
+
+    /**
+     * Gets the bytes moved at the last sample.
+     * 
+     * @return The transferred bytes
+     */
+    public synchronized long getTransferredBytes() {
+        return sampledBytes;
+    }
+
+    /**
+     * Gets the bytes expected at the last sample.
+     * 
+     * @return The total bytes
+     */
+    public synchronized long getTotalBytes() {
+        return sampledTotal;
+    }
+
+    /**
+     * Gets the progress at the last sample.
+     * 
+     * @return The percentage from 0 to 100
+     */
+    public synchronized int getPercentage() {
+        return sampledTotal > 0 ? (int) Math.min(100, sampledBytes * 100 / sampledTotal) : 0;
+    }
+
+    /**
+     * Gets the smoothed rate over the last samples.
+     * 
+     * @return The current rate in bytes per second
+     */
+    public synchronized double getCurrentRate() {
+        return currentRate;
+    }
+
+    /**
+     * Gets the rate since the first transfer began.
+     * 
+     * @return The average rate in bytes per second
+     */
+    public synchronized double getAverageRate() {
+        return averageRate;
+    }
+
+    /**
+     * Gets the estimated time until every registered transfer is done.
+     * 
+     * @return The seconds left, or -1 if unknown
+     */
+    public synchronized long getSecondsLeft() {
+        return secondsLeft;
+    }
+
+    /**
+     * Summarizes the last sample for a status line.
+     * 
+     * @return A one-line summary
+     */
+    public synchronized String describe() {
+        String progress = formatSize(sampledBytes) + " of " + formatSize(sampledTotal);
+        if (activeTransfers == 0) {
+            return String.format("Done: %s at %s/s", progress, formatSize((long) averageRate));
+        }
+        return String.format("%s - %s/s (average %s/s) - %s left", progress, formatSize((long) currentRate),
+                formatSize((long) averageRate), secondsLeft < 0 ? "unknown" : formatDuration(secondsLeft));
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024) {
+            return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
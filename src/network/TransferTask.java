@@ -0,0 +1,20 @@
+package network;
+
+/**
+ * A transfer run by the TransferEngine.
+ * 
+ * @param <T> The type of the result
+ */
+@FunctionalInterface
+public interface TransferTask<T> {
+
+    /**
+     * Runs the transfer on an engine thread. Cancelling the handle interrupts the thread,
+     * which closes any channel it is blocked on.
+     * 
+     * @param handle The handle of the transfer, for reporting progress
+     * @return The result of the transfer
+     * @throws Exception If the transfer failed; the handle completes with this exception
+     */
+    T run(TransferHandle<T> handle) throws Exception;
+}
@@ -0,0 +1,326 @@
+package network;
+
+import utils.Config;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
+
+/**
+ * Decouples reading a file body from the network and writing it to disk.
+ * <p>
+ * The calling thread reads the connection into buffers taken from a fixed ring and queues them;
+ * a writer task writes them to the file in order and returns them to the ring. A disk stall
+ * (fsync, slow USB drive, antivirus scan) therefore only stops the network reader once every
+ * buffer in the ring is waiting for the disk, and until then the socket keeps being drained
+ * and the TCP window stays open. The ring is borrowed from the shared BufferPool on the first
+ * transfer and kept until close, so the files of a batch or directory on one connection share it.
+ * <p>
+ * Queue occupancy is sampled after every network read, and the time each side spent waiting
+ * for the other is measured, so a transfer can report whether it was bound by the network or the disk.
+ */
+public class WritePipeline {
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private final BlockingQueue<Slot> filledBuffers;
+    private final int bufferCount;
+    private final int bufferSize;
+    private ByteBuffer[] ring;
+
+    private volatile long bytesWritten;
+    private volatile IOException writeFailure;
+
+    // Metrics of the last transfer
+    private long occupancySamples;
+    private long occupancySum;
+    private int peakOccupancy;
+    private long readerWaitNanos;
+    private volatile long writerWaitNanos;
+
+    /**
+     * A buffer filled from the network, waiting to be written at a file position.
+     */
+    private static class Slot {
+        private static final Slot END = new Slot(null, -1);
+
+        private final ByteBuffer buffer;
+        private final long position;
+
+        Slot(ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Creates a pipeline. The ring is only borrowed once the first transfer runs.
+     * 
+     * @param bufferCount The number of buffers in the ring
+     * @param bufferSize The size of each buffer
+     */
+    public WritePipeline(int bufferCount, int bufferSize) {
+        this.bufferCount = bufferCount;
+        this.bufferSize = bufferSize;
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        this.filledBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+    }
+
+    /**
+     * Copies a file body from a channel into a file, writing on a separate thread.
+     * 
+     * @param source The channel to read from
+     * @param fileChannel The channel of the file to write
+     * @param length The number of bytes to copy, written from position 0
+     * @param writerPool The executor the writer task runs on
+     * @param progressCallback Callback receiving the number of bytes read from the network so far, or null
+     */
+    public void transfer(ReadableByteChannel source, FileChannel fileChannel, long length, ExecutorService writerPool,
+                         LongConsumer progressCallback) throws IOException, InterruptedException {
+        resetMetrics();
+        bytesWritten = 0;
+        writeFailure = null;
+
+        // An end marker can be left behind if the previous writer was interrupted
+        filledBuffers.clear();
+        freeBuffers.clear();
+
+        if (ring == null) {
+            ring = BufferPool.shared().acquire(bufferCount, bufferSize);
+        }
+        Collections.addAll(freeBuffers, ring);
+
+        Future<?> writer = writerPool.submit(() -> writeLoop(fileChannel));
+        boolean ended = false;
+
+        try {
+            long position = 0;
+            while (position < length) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("File transfer cancelled");
+                }
+                if (writeFailure != null) {
+                    throw writeFailure;
+                }
+
+                // Only blocks once every buffer is waiting for the disk
+                long waitStart = System.nanoTime();
+                ByteBuffer buffer = freeBuffers.take();
+                readerWaitNanos += System.nanoTime() - waitStart;
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - position));
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer) < 0) {
+                            throw new EOFException("Connection closed after " + (position + buffer.position())
+                                    + " of " + length + " bytes");
+                        }
+                    }
+                } catch (IOException e) {
+                    freeBuffers.add(buffer);
+                    throw e;
+                }
+                buffer.flip();
+
+                // The writer owns the buffer as soon as it is queued
+                long slotPosition = position;
+                position += buffer.remaining();
+                filledBuffers.put(new Slot(buffer, slotPosition));
+                sampleOccupancy();
+
+                if (progressCallback != null) {
+                    progressCallback.accept(position);
+                }
+            }
+
+            filledBuffers.put(Slot.END);
+            waitForWriter(writer);
+            ended = true;
+        } finally {
+            if (!ended) {
+                // Drop what has not been written yet and let the writer finish its current buffer
+                Slot slot;
+                while ((slot = filledBuffers.poll()) != null) {
+                    freeBuffers.add(slot.buffer);
+                }
+                filledBuffers.add(Slot.END);
+                stopWriter(writer);
+            }
+            freeBuffers.clear();
+        }
+
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    /**
+     * Writes queued buffers in order until the end marker arrives. Runs on the writer pool.
+     * After a failure the remaining buffers are only returned to the ring, so the reader never blocks.
+     */
+    private void writeLoop(FileChannel fileChannel) {
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Slot slot = filledBuffers.take();
+                writerWaitNanos += System.nanoTime() - waitStart;
+                if (slot == Slot.END) {
+                    return;
+                }
+
+                try {
+                    if (writeFailure == null) {
+                        long position = slot.position;
+                        while (slot.buffer.hasRemaining()) {
+                            position += fileChannel.write(slot.buffer, position);
+                        }
+                        bytesWritten = position;
+                    }
+                } catch (IOException e) {
+                    writeFailure = e;
+                } finally {
+                    freeBuffers.add(slot.buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a failing transfer's writer to finish its current buffer. A writer that never ran,
+     * because its pool was shut down first, is never going to finish, so the wait is bounded; if the
+     * writer may still hold a buffer, the ring is given up instead of being reused.
+     */
+    private void stopWriter(Future<?> writer) {
+        boolean stopped = false;
+        try {
+            writer.get(Config.WRITE_PIPELINE_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            stopped = true;
+        } catch (ExecutionException e) {
+            // The transfer is failing already
+            stopped = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException | TimeoutException e) {
+            // Not known to have stopped
+        }
+
+        if (!stopped) {
+            writer.cancel(true);
+            BufferPool.shared().discard(ring);
+            ring = null;
+        }
+    }
+
+    private void waitForWriter(Future<?> writer) throws IOException, InterruptedException {
+        try {
+            writer.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Disk writer failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (CancellationException e) {
+            throw new IOException("Disk writer was cancelled", e);
+        }
+    }
+
+    /**
+     * Hands the ring back to the pool. The pipeline borrows a new one if it is used again.
+     */
+    public void close() {
+        if (ring != null) {
+            BufferPool.shared().release(ring);
+            ring = null;
+        }
+    }
+
+    private void sampleOccupancy() {
+        int occupancy = filledBuffers.size();
+        occupancySamples++;
+        occupancySum += occupancy;
+        peakOccupancy = Math.max(peakOccupancy, occupancy);
+    }
+
+    private void resetMetrics() {
+        occupancySamples = 0;
+        occupancySum = 0;
+        peakOccupancy = 0;
+        readerWaitNanos = 0;
+        writerWaitNanos = 0;
+    }
+
+    /**
+     * Gets the number of bytes written to disk by the last transfer.
+     * Buffers are written in order, so these bytes always form the start of the file.
+     * 
+     * @return The number of bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets the average number of buffers waiting for the disk during the last transfer.
+     * 
+     * @return The average queue occupancy
+     */
+    public double getAverageOccupancy() {
+        return occupancySamples == 0 ? 0 : (double) occupancySum / occupancySamples;
+    }
+
+    /**
+     * Gets the largest number of buffers waiting for the disk during the last transfer.
+     * 
+     * @return The peak queue occupancy
+     */
+    public int getPeakOccupancy() {
+        return peakOccupancy;
+    }
+
+    /**
+     * Gets the number of buffers in the ring.
+     * 
+     * @return The ring size
+     */
+    public int getBufferCount() {
+        return bufferCount;
+    }
+
+    /**
+     * Gets how long the network reader waited for the disk during the last transfer.
+     * 
+     * @return The wait time in milliseconds
+     */
+    public long getReaderWaitMillis() {
+        return readerWaitNanos / 1_000_000;
+    }
+
+    /**
+     * Gets how long the disk writer waited for the network during the last transfer.
+     * 
+     * @return The wait time in milliseconds
+     */
+    public long getWriterWaitMillis() {
+        return writerWaitNanos / 1_000_000;
+    }
+
+    /**
+     * Summarizes the metrics of the last transfer for the log.
+     * 
+     * @return A one-line summary
+     */
+    public String describeMetrics() {
+        return String.format("Write queue: average %.1f / peak %d of %d buffers; network waited %d ms for disk, disk waited %d ms for network",
+                getAverageOccupancy(), peakOccupancy, bufferCount, getReaderWaitMillis(), getWriterWaitMillis());
+    }
+}
@@ -0,0 +1,129 @@
+package ui;
+
+import utils.Config;
+import utils.HistoryEvent;
+import utils.TransferRecord;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table model showing transfer history newest first, reading rows from the history only
+ * when the table paints them.
+ * <p>
+ * The model keeps no copy of the history. A JTable only asks for the cells it shows, so only
+ * those records are read and formatted, and the formatted rows are kept in a small cache while
+ * they stay on screen. New records are announced as inserted rows at the top, so adding a
+ * record costs the same however long the history is.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ */
+public class HistoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMN_NAMES = {"File Name", "Date & Time", "Size", "Direction", "Speed", "Status"};
+
+    private List<TransferRecord> history;
+    private int rowCount;
+
+    // Formatted rows by history index, which unlike the row number does not change when records are added
+    private final Map<Integer, String[]> rowCache = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > Config.HISTORY_ROW_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Creates a model over a history list. Records must only ever be appended to the list or cleared from it.
+     *
+     * @param history The history, oldest record first
+     */
+    public HistoryTableModel(List<TransferRecord> history) {
+        this.history = history;
+        this.rowCount = history.size();
+    }
+
+    /**
+     * Shows a different list of records, such as the result of a query, or the history again.
+     *
+     * @param records The records, oldest first
+     */
+    public void showRecords(List<TransferRecord> records) {
+        history = records;
+        rowCount = records.size();
+        rowCache.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Updates the model after a change to the history. Appended records become rows inserted at the top.
+     * <p>
+     * The event's size is compared with the model's, so an append the model already counted when
+     * it was created is not inserted twice.
+     *
+     * @param event The change
+     */
+    public void historyChanged(HistoryEvent event) {
+        if (event.getType() == HistoryEvent.Type.CLEARED) {
+            rowCount = 0;
+            rowCache.clear();
+            fireTableDataChanged();
+        } else if (event.getSize() > rowCount) {
+            int added = event.getSize() - rowCount;
+            rowCount = event.getSize();
+            fireTableRowsInserted(0, added - 1);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int index = rowCount - 1 - row;
+        String[] cells = rowCache.get(index);
+        if (cells == null) {
+            TransferRecord record;
+            try {
+                record = history.get(index);
+            } catch (IndexOutOfBoundsException e) {
+                // The history was cleared by a change that has not reached the model yet
+                return "";
+            }
+            cells = new String[]{
+                    record.getFileName(),
+                    record.getFormattedTimestamp(),
+                    record.getFormattedFileSize(),
+                    record.getDirectionString(),
+                    record.getFormattedThroughput(),
+                    record.getStatusString()
+            };
+            rowCache.put(index, cells);
+        }
+        return cells[column];
+    }
+}
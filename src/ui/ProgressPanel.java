@@ -1,5 +1,7 @@
 package ui;
 
+import network.TransferStats;
+import utils.Config;
 import utils.UIStyleUtils;
 
 import javax.swing.*;
@@ -10,12 +12,20 @@ import java.awt.event.ActionListener;
 
 /**
  * A reusable panel for displaying progress information during file transfers.
+ * <p>
+ * The progress bar and the rate line are driven by a timer that samples a TransferStats
+ * every Config.PROGRESS_SAMPLE_INTERVAL_MS, so the transfer threads never post work to the
+ * event dispatch thread however fast they move data.
  */
 public class ProgressPanel extends JPanel {
     private JTextArea logArea;
     private JScrollPane scrollPane;
     private JProgressBar progressBar;
+    private JLabel statsLabel;
     private JButton clearLogButton;
+    private Timer statsTimer;
+    private TransferStats transferStats;
+    private boolean showingTransfer;
 
     /**
      * Creates a new ProgressPanel with a text area for logs and a progress bar.
@@ -43,6 +53,11 @@ public class ProgressPanel extends JPanel {
         progressBar.setFont(UIStyleUtils.REGULAR_FONT);
         progressBar.setForeground(UIStyleUtils.PRIMARY_BLUE); // Use PRIMARY_BLUE as per color palette
 
+        // Create the rate and time-left line, empty until a transfer starts
+        statsLabel = new JLabel(" ");
+        statsLabel.setFont(UIStyleUtils.REGULAR_FONT);
+        statsLabel.setForeground(UIStyleUtils.TEXT_SECONDARY);
+
         // Create clear log button with styling
         clearLogButton = new JButton("Clear Log");
         UIStyleUtils.styleButton(clearLogButton);
@@ -58,8 +73,12 @@ public class ProgressPanel extends JPanel {
         buttonPanel.add(clearLogButton);
 
         // Create a panel for the progress bar and button with spacing
+        JPanel progressBox = new JPanel(new BorderLayout(0, 4));
+        progressBox.add(progressBar, BorderLayout.CENTER);
+        progressBox.add(statsLabel, BorderLayout.SOUTH);
+
         JPanel southPanel = new JPanel(new BorderLayout(8, 0));
-        southPanel.add(progressBar, BorderLayout.CENTER);
+        southPanel.add(progressBox, BorderLayout.CENTER);
         southPanel.add(buttonPanel, BorderLayout.EAST);
         southPanel.setBorder(BorderFactory.createEmptyBorder(8, 0, 0, 0));
 
@@ -82,17 +101,47 @@ public class ProgressPanel extends JPanel {
     }
 
     /**
-     * Updates the progress bar with a new percentage value.
+     * Shows the progress of the transfers counted by a TransferStats, replacing any attached before.
+     * Must be called on the event dispatch thread.
      * 
-     * @param percentage The progress percentage (0-100)
+     * @param stats The stats to sample
      */
-    public void updateProgress(int percentage) {
-        SwingUtilities.invokeLater(() -> {
-            if (!progressBar.isVisible()) {
-                progressBar.setVisible(true);
-            }
-            progressBar.setValue(percentage);
-        });
+    public void attach(TransferStats stats) {
+        transferStats = stats;
+        showingTransfer = false;
+
+        if (statsTimer == null) {
+            statsTimer = new Timer(Config.PROGRESS_SAMPLE_INTERVAL_MS, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    refreshStats();
+                }
+            });
+            statsTimer.start();
+        }
+    }
+
+    /**
+     * Samples the attached stats and updates the progress bar and the rate line.
+     */
+    private void refreshStats() {
+        if (transferStats == null || !transferStats.hasStarted()) {
+            return;
+        }
+
+        transferStats.sample();
+        if (transferStats.isActive()) {
+            showingTransfer = true;
+            progressBar.setVisible(true);
+            progressBar.setValue(transferStats.getPercentage());
+            statsLabel.setText(transferStats.describe());
+        } else if (showingTransfer) {
+            // Leave the summary of the finished transfers until the next one starts
+            showingTransfer = false;
+            progressBar.setValue(0);
+            progressBar.setVisible(false);
+            statsLabel.setText(transferStats.describe());
+        }
     }
 
     /**
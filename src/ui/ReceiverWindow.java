@@ -20,6 +20,7 @@ import java.awt.event.WindowEvent;
  */
 public class ReceiverWindow extends JFrame {
     private JTextField portField;
+    private JTextField maxTransfersField;
     private JTextField saveDirectoryField;
     private JButton chooseDirButton;
     private JButton startButton;
@@ -64,7 +65,7 @@ public class ReceiverWindow extends JFrame {
         controlPanel.setBorder(new EmptyBorder(0, 0, 15, 0));
 
         // Create server settings panel
-        JPanel serverPanel = new JPanel(new GridLayout(1, 2, 8, 8));
+        JPanel serverPanel = new JPanel(new GridLayout(2, 2, 8, 8));
         serverPanel.setBorder(UIStyleUtils.createSectionBorder("Server Settings"));
 
         JLabel portLabel = new JLabel("Listening Port:");
@@ -75,6 +76,14 @@ public class ReceiverWindow extends JFrame {
         UIStyleUtils.styleTextField(portField);
         serverPanel.add(portField);
 
+        JLabel maxTransfersLabel = new JLabel("Max Concurrent Transfers:");
+        UIStyleUtils.styleLabel(maxTransfersLabel);
+        serverPanel.add(maxTransfersLabel);
+
+        maxTransfersField = new JTextField(String.valueOf(Config.MAX_CONCURRENT_TRANSFERS));
+        UIStyleUtils.styleTextField(maxTransfersField);
+        serverPanel.add(maxTransfersField);
+
         // Create directory panel
         JPanel directoryPanel = new JPanel(new BorderLayout(8, 8));
         directoryPanel.setBorder(UIStyleUtils.createSectionBorder("Save Location"));
@@ -181,7 +190,8 @@ public class ReceiverWindow extends JFrame {
         peerDiscovery.addLogListener(progressPanel::log);
 
         // Create file receiver with history manager
-        fileReceiver = new FileReceiver(saveDirectory, progressPanel::log, progressPanel::updateProgress, historyManager);
+        fileReceiver = new FileReceiver(saveDirectory, progressPanel::log, historyManager);
+        progressPanel.attach(fileReceiver.getTransferStats());
     }
 
     /**
@@ -198,7 +208,8 @@ public class ReceiverWindow extends JFrame {
             // Update the file receiver with the new directory
             if (fileReceiver != null) {
                 // We need to create a new FileReceiver with the updated directory
-                fileReceiver = new FileReceiver(saveDirectory, progressPanel::log, progressPanel::updateProgress, historyManager);
+                fileReceiver = new FileReceiver(saveDirectory, progressPanel::log, historyManager);
+                progressPanel.attach(fileReceiver.getTransferStats());
             }
         }
     }
@@ -220,8 +231,16 @@ public class ReceiverWindow extends JFrame {
             port = Config.DEFAULT_PORT;
         }
 
+        try {
+            fileReceiver.setMaxConcurrentTransfers(Integer.parseInt(maxTransfersField.getText().trim()));
+        } catch (IllegalArgumentException e) {
+            progressPanel.log("Error: Invalid concurrent transfer limit. Using default of " + Config.MAX_CONCURRENT_TRANSFERS);
+            fileReceiver.setMaxConcurrentTransfers(Config.MAX_CONCURRENT_TRANSFERS);
+        }
+
         // Disable input controls
         portField.setEnabled(false);
+        maxTransfersField.setEnabled(false);
         chooseDirButton.setEnabled(false);
         startButton.setEnabled(false);
         stopButton.setEnabled(true);
@@ -239,6 +258,7 @@ public class ReceiverWindow extends JFrame {
         } else {
             // Re-enable controls if start failed
             portField.setEnabled(true);
+            maxTransfersField.setEnabled(true);
             chooseDirButton.setEnabled(true);
             startButton.setEnabled(true);
             stopButton.setEnabled(false);
@@ -264,6 +284,7 @@ public class ReceiverWindow extends JFrame {
 
         // Re-enable input controls
         portField.setEnabled(true);
+        maxTransfersField.setEnabled(true);
         chooseDirButton.setEnabled(true);
         startButton.setEnabled(true);
         stopButton.setEnabled(false);
@@ -276,5 +297,6 @@ public class ReceiverWindow extends JFrame {
         if (isRunning) {
             stopReceiving();
         }
+        historyManager.close();
     }
 }
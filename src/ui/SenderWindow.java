@@ -1,5 +1,6 @@
 package ui;
 
+import network.BatchSender;
 import network.FileSender;
 import network.PeerDiscovery;
 import utils.Config;
@@ -21,6 +22,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -29,6 +31,11 @@ import java.util.List;
 public class SenderWindow extends JFrame {
     private JTextField ipAddressField;
     private JTextField portField;
+    private JComboBox<String> streamsComboBox;
+    private JCheckBox resumableCheckBox;
+    private JCheckBox compressionCheckBox;
+    private JCheckBox encryptionCheckBox;
+    private JCheckBox verificationCheckBox;
     private JButton selectFileButton;
     private JButton clearFileButton;
     private JButton sendFileButton;
@@ -39,7 +46,7 @@ public class SenderWindow extends JFrame {
     private TransferHistoryPanel historyPanel;
     private JSplitPane splitPane;
 
-    private File selectedFile;
+    private List<File> selectedFiles = new ArrayList<>();
     private PeerDiscovery peerDiscovery;
     private FileSender fileSender;
     private TransferHistoryManager historyManager;
@@ -71,7 +78,7 @@ public class SenderWindow extends JFrame {
         controlPanel.setBorder(new EmptyBorder(0, 0, 15, 0));
 
         // Create connection panel
-        JPanel connectionPanel = new JPanel(new GridLayout(2, 2, 8, 8));
+        JPanel connectionPanel = new JPanel(new GridLayout(8, 2, 8, 8));
         connectionPanel.setBorder(UIStyleUtils.createSectionBorder("Connection Settings"));
 
         JLabel ipLabel = new JLabel("Receiver IP Address:");
@@ -90,6 +97,58 @@ public class SenderWindow extends JFrame {
         UIStyleUtils.styleTextField(portField);
         connectionPanel.add(portField);
 
+        JLabel streamsLabel = new JLabel("Parallel Streams:");
+        UIStyleUtils.styleLabel(streamsLabel);
+        connectionPanel.add(streamsLabel);
+
+        streamsComboBox = new JComboBox<>(new String[] { "1", "2", "4", "8", "Auto" });
+        streamsComboBox.setFont(UIStyleUtils.REGULAR_FONT);
+        connectionPanel.add(streamsComboBox);
+
+        JLabel resumableLabel = new JLabel("Resume Interrupted Transfers:");
+        UIStyleUtils.styleLabel(resumableLabel);
+        connectionPanel.add(resumableLabel);
+
+        resumableCheckBox = new JCheckBox("Reconnect and send only missing chunks");
+        resumableCheckBox.setFont(UIStyleUtils.REGULAR_FONT);
+        connectionPanel.add(resumableCheckBox);
+
+        JLabel compressionLabel = new JLabel("Compression:");
+        UIStyleUtils.styleLabel(compressionLabel);
+        connectionPanel.add(compressionLabel);
+
+        compressionCheckBox = new JCheckBox("Compress chunks that shrink");
+        compressionCheckBox.setFont(UIStyleUtils.REGULAR_FONT);
+        connectionPanel.add(compressionCheckBox);
+
+        JLabel encryptionLabel = new JLabel("Encryption:");
+        UIStyleUtils.styleLabel(encryptionLabel);
+        connectionPanel.add(encryptionLabel);
+
+        encryptionCheckBox = new JCheckBox("Encrypt with AES-GCM");
+        encryptionCheckBox.setFont(UIStyleUtils.REGULAR_FONT);
+        connectionPanel.add(encryptionCheckBox);
+
+        JLabel verificationLabel = new JLabel("Integrity:");
+        UIStyleUtils.styleLabel(verificationLabel);
+        connectionPanel.add(verificationLabel);
+
+        verificationCheckBox = new JCheckBox("Verify SHA-256 and resend bad chunks");
+        verificationCheckBox.setFont(UIStyleUtils.REGULAR_FONT);
+        connectionPanel.add(verificationCheckBox);
+
+        // The chunk options above trade the fast paths for their features
+        connectionPanel.add(new JLabel());
+        JLabel chunkedHelperLabel = new JLabel("These three send through buffers over one connection");
+        UIStyleUtils.styleHelperLabel(chunkedHelperLabel);
+        connectionPanel.add(chunkedHelperLabel);
+
+        // Keep options that cannot be combined from being selected together
+        resumableCheckBox.addActionListener(e -> updateTransferOptions());
+        compressionCheckBox.addActionListener(e -> updateTransferOptions());
+        encryptionCheckBox.addActionListener(e -> updateTransferOptions());
+        verificationCheckBox.addActionListener(e -> updateTransferOptions());
+
         // Create file selection panel
         JPanel filePanel = new JPanel(new BorderLayout(8, 8));
         filePanel.setBorder(UIStyleUtils.createSectionBorder("File Selection"));
@@ -120,7 +179,7 @@ public class SenderWindow extends JFrame {
         buttonPanel.add(clearFileButton);
 
         // Select file button
-        selectFileButton = new JButton("Select File");
+        selectFileButton = new JButton("Select Files");
         UIStyleUtils.styleButton(selectFileButton);
         selectFileButton.setEnabled(true);
         applyDisabledButtonStyle(selectFileButton);
@@ -132,7 +191,7 @@ public class SenderWindow extends JFrame {
         fileSelectionPanel.add(buttonPanel, BorderLayout.EAST);
 
         // Add drag-drop instruction with helper text styling as per Task 8
-        JLabel dragDropLabel = new JLabel("or drag and drop a file here");
+        JLabel dragDropLabel = new JLabel("or drag and drop files here");
         UIStyleUtils.styleHelperLabel(dragDropLabel);
 
         filePanel.add(fileSelectionPanel, BorderLayout.CENTER);
@@ -223,10 +282,44 @@ public class SenderWindow extends JFrame {
             }
         });
 
+        updateTransferOptions();
+
         // Initial log message
         progressPanel.log("Ready to send files. Please select a file and enter receiver details.");
     }
 
+    /**
+     * Enables only the transfer options that apply together to the current selection.
+     * Compression, encryption and verification only happen when a single file is sent as chunks,
+     * so they are unavailable for folders, several files at once and resumable transfers; a
+     * transfer must not quietly go out unencrypted while the encryption box is ticked. Chunks are
+     * sent through buffers over one connection, which the options say and the stream choice shows.
+     */
+    private void updateTransferOptions() {
+        boolean singleFiles = selectedFiles.size() <= 1 && selectedFiles.stream().noneMatch(File::isDirectory);
+        String singleFileOnly = "Only available when sending a single file without resume";
+
+        String chunkedModes = "Sends through buffers over one connection: no zero-copy, parallel streams, "
+                + "read-ahead or socket autotuning";
+
+        for (JCheckBox checkBox : new JCheckBox[] { compressionCheckBox, encryptionCheckBox, verificationCheckBox }) {
+            boolean available = singleFiles && !resumableCheckBox.isSelected();
+            if (!available && checkBox.isSelected()) {
+                checkBox.setSelected(false);
+                progressPanel.log("\"" + checkBox.getText() + "\" turned off: " + singleFileOnly.toLowerCase() + ".");
+            }
+            checkBox.setEnabled(available);
+            checkBox.setToolTipText(available ? chunkedModes : singleFileOnly);
+        }
+
+        boolean chunked = compressionCheckBox.isSelected() || encryptionCheckBox.isSelected()
+                || verificationCheckBox.isSelected();
+        resumableCheckBox.setEnabled(!chunked);
+        resumableCheckBox.setToolTipText(chunked ? "Not available with compression, encryption or verification" : null);
+        streamsComboBox.setEnabled(!chunked);
+        streamsComboBox.setToolTipText(chunked ? "Compressed, encrypted and verified files use one connection" : null);
+    }
+
     /**
      * Hooks into the enabled property of a button to give it a
      * muted, semi-transparent style when disabled.
@@ -304,18 +397,18 @@ public class SenderWindow extends JFrame {
                     List<File> files = (List<File>) transferable.getTransferData(DataFlavor.javaFileListFlavor);
 
                     if (!files.isEmpty()) {
-                        // Use the first file
-                        File droppedFile = files.get(0);
-
-                        // Set as selected file
-                        selectedFile = droppedFile;
+                        // Set as selected files
+                        selectedFiles = new ArrayList<>(files);
 
                         // Update file info and enable buttons
-                        updateFileInfo(selectedFile);
+                        updateFileInfo(selectedFiles);
+                        updateTransferOptions();
                         sendFileButton.setEnabled(true);
                         clearFileButton.setEnabled(true);
 
-                        progressPanel.log("File dropped: " + selectedFile.getAbsolutePath());
+                        for (File droppedFile : selectedFiles) {
+                            progressPanel.log("File dropped: " + droppedFile.getAbsolutePath());
+                        }
                     }
 
                     dtde.dropComplete(true);
@@ -346,24 +439,28 @@ public class SenderWindow extends JFrame {
         peerDiscovery.addLogListener(progressPanel::log);
 
         // Create file sender with history manager
-        fileSender = new FileSender(progressPanel::log, progressPanel::updateProgress, historyManager);
+        fileSender = new FileSender(progressPanel::log, historyManager);
+        progressPanel.attach(fileSender.getTransferStats());
     }
 
     /**
-     * Opens a file chooser dialog to select a file.
+     * Opens a file chooser dialog to select one or more files.
      */
     private void selectFile() {
-        selectedFile = FileUtils.selectFile((JComponent)getContentPane(), "Select a file to send");
+        selectedFiles = new ArrayList<>(FileUtils.selectFiles((JComponent)getContentPane(), "Select files to send"));
 
-        if (selectedFile != null) {
+        if (!selectedFiles.isEmpty()) {
             // Update the file label and size
-            updateFileInfo(selectedFile);
+            updateFileInfo(selectedFiles);
+            updateTransferOptions();
 
             // Enable buttons
             sendFileButton.setEnabled(true);
             clearFileButton.setEnabled(true);
 
-            progressPanel.log("Selected file: " + selectedFile.getAbsolutePath());
+            for (File selectedFile : selectedFiles) {
+                progressPanel.log("Selected file: " + selectedFile.getAbsolutePath());
+            }
         } else {
             // Reset the file selection
             clearFileSelection();
@@ -376,13 +473,14 @@ public class SenderWindow extends JFrame {
      * Clears the current file selection.
      */
     private void clearFileSelection() {
-        // Reset the file variable
-        selectedFile = null;
+        // Reset the file list
+        selectedFiles = new ArrayList<>();
 
         // Reset the file labels
         fileLabel.setText("No file selected");
         fileLabel.setForeground(UIStyleUtils.TEXT_SECONDARY);
         fileSizeLabel.setText("");
+        updateTransferOptions();
 
         // Disable buttons
         sendFileButton.setEnabled(false);
@@ -391,6 +489,28 @@ public class SenderWindow extends JFrame {
         progressPanel.log("File selection cleared.");
     }
 
+    /**
+     * Updates the file information display for the selected files.
+     * A single file shows its name, size and preview; several files show their count and total size.
+     * 
+     * @param files The files to display information for
+     */
+    private void updateFileInfo(List<File> files) {
+        if (files.isEmpty()) return;
+
+        if (files.size() == 1) {
+            updateFileInfo(files.get(0));
+            return;
+        }
+
+        fileLabel.setText(files.size() + " files selected");
+        fileLabel.setForeground(Color.BLACK);
+        fileLabel.setToolTipText(null);
+
+        double totalSizeMB = BatchSender.totalSize(files) / (1024.0 * 1024.0);
+        fileSizeLabel.setText(String.format("Total size: %.2f MB", totalSizeMB));
+    }
+
     /**
      * Updates the file information display with name, size, and preview.
      * 
@@ -403,6 +523,12 @@ public class SenderWindow extends JFrame {
         fileLabel.setText(file.getName());
         fileLabel.setForeground(Color.BLACK);
 
+        if (file.isDirectory()) {
+            fileSizeLabel.setText("Folder");
+            fileLabel.setToolTipText(null);
+            return;
+        }
+
         // Update file size in MB
         double fileSizeMB = file.length() / (1024.0 * 1024.0);
         fileSizeLabel.setText(String.format("Size: %.2f MB", fileSizeMB));
@@ -485,7 +611,7 @@ public class SenderWindow extends JFrame {
      * Initiates the file sending process.
      */
     private void sendFile() {
-        if (selectedFile == null) {
+        if (selectedFiles.isEmpty()) {
             progressPanel.log("Error: No file selected.");
             return;
         }
@@ -508,17 +634,41 @@ public class SenderWindow extends JFrame {
 
         // Reset progress bar and show sending message
         progressPanel.resetProgress();
-        progressPanel.log("Sending file: " + selectedFile.getName() + "...");
+        if (selectedFiles.size() == 1) {
+            progressPanel.log("Sending file: " + selectedFiles.get(0).getName() + "...");
+        } else {
+            progressPanel.log("Sending " + selectedFiles.size() + " files...");
+        }
 
-        // Send the file
-        fileSender.sendFile(selectedFile, ipAddress, port);
+        // Apply the parallel stream setting ("Auto" lets the sender measure and decide)
+        String streams = (String) streamsComboBox.getSelectedItem();
+        fileSender.setParallelStreams("Auto".equals(streams) ? 0 : Integer.parseInt(streams));
+        fileSender.setResumable(resumableCheckBox.isSelected());
+        fileSender.setCompressionEnabled(compressionCheckBox.isSelected());
+        fileSender.setEncryptionEnabled(encryptionCheckBox.isSelected());
+        fileSender.setVerificationEnabled(verificationCheckBox.isSelected());
+
+        // Folders are sent one tree per connection, the remaining files over one connection together
+        List<File> files = new ArrayList<>();
+        for (File file : selectedFiles) {
+            if (file.isDirectory()) {
+                fileSender.sendFile(file, ipAddress, port);
+            } else {
+                files.add(file);
+            }
+        }
+        if (files.size() == 1) {
+            fileSender.sendFile(files.get(0), ipAddress, port);
+        } else if (files.size() > 1) {
+            fileSender.sendFiles(files, ipAddress, port);
+        }
 
         // Re-enable buttons after a short delay to allow the worker to start
         Timer timer = new Timer(500, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 selectFileButton.setEnabled(true);
-                sendFileButton.setEnabled(selectedFile != null);
+                sendFileButton.setEnabled(!selectedFiles.isEmpty());
                 searchDevicesButton.setEnabled(true);
             }
         });
@@ -533,8 +683,8 @@ public class SenderWindow extends JFrame {
         // Disable the search button during discovery
         searchDevicesButton.setEnabled(false);
 
-        // Search for devices
-        peerDiscovery.searchDevices(this::showDeviceSelectionDialog);
+        // Search for devices; the results arrive on the discovery thread
+        peerDiscovery.searchDevices(devices -> SwingUtilities.invokeLater(() -> showDeviceSelectionDialog(devices)));
     }
 
     /**
@@ -576,6 +726,7 @@ public class SenderWindow extends JFrame {
      * Cleans up resources when the window is closed.
      */
     private void cleanup() {
-        // Nothing to clean up for now
+        // Stop following the shared history file
+        historyManager.close();
     }
 }
\ No newline at end of file
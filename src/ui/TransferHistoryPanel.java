@@ -1,23 +1,39 @@
 package ui;
 
+import utils.Config;
+import utils.HistoryEvent;
+import utils.HistoryQuery;
 import utils.TransferHistoryManager;
 import utils.TransferRecord;
 import utils.UIStyleUtils;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * A panel that displays the history of file transfers.
+ * <p>
+ * The table reads its rows lazily through a HistoryTableModel, so a long history neither
+ * slows down opening the panel nor each transfer that completes while it is shown.
+ * <p>
+ * The filter row above the table narrows the history down by file name prefix and direction.
+ * Filters run as history queries on a background thread, a moment after the user stops typing.
  */
 public class TransferHistoryPanel extends JPanel {
     private final TransferHistoryManager historyManager;
     private final JTable historyTable;
-    private final DefaultTableModel tableModel;
+    private final HistoryTableModel tableModel;
+    private final JTextField filterField;
+    private final JComboBox<String> directionComboBox;
+    private final Timer filterTimer;
+    private HistoryQuery activeFilter;
+    private int filterGeneration;
 
     /**
      * Creates a new TransferHistoryPanel.
@@ -30,19 +46,46 @@ public class TransferHistoryPanel extends JPanel {
         setLayout(new BorderLayout(8, 8));
         setBorder(new EmptyBorder(8, 8, 8, 8));
 
-        // Create table model with non-editable cells
-        tableModel = new DefaultTableModel() {
+        // Listen before reading the history, so no change falls between the two; events run after this constructor
+        historyManager.addHistoryListener(this::updateHistoryTable, SwingUtilities::invokeLater);
+
+        // Create table model reading rows from the history as they are shown
+        tableModel = new HistoryTableModel(historyManager.getTransferHistory());
+
+        // Create the filter row, rerunning the filter a moment after the last change
+        filterTimer = new Timer(Config.HISTORY_FILTER_DELAY_MS, e -> applyFilter());
+        filterTimer.setRepeats(false);
+
+        JPanel filterPanel = new JPanel(new BorderLayout(8, 0));
+        JLabel filterLabel = new JLabel("Filter:");
+        UIStyleUtils.styleLabel(filterLabel);
+        filterField = new JTextField();
+        UIStyleUtils.styleTextField(filterField);
+        filterField.setToolTipText("Show files whose name starts with this text");
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
             }
-        };
 
-        // Add columns
-        tableModel.addColumn("File Name");
-        tableModel.addColumn("Date & Time");
-        tableModel.addColumn("Size");
-        tableModel.addColumn("Direction");
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        directionComboBox = new JComboBox<>(new String[] { "All", "Sent", "Received" });
+        directionComboBox.setFont(UIStyleUtils.REGULAR_FONT);
+        directionComboBox.addActionListener(e -> filterTimer.restart());
+
+        filterPanel.add(filterLabel, BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        filterPanel.add(directionComboBox, BorderLayout.EAST);
+        add(filterPanel, BorderLayout.NORTH);
 
         // Create table with styling
         historyTable = new JTable(tableModel);
@@ -54,10 +97,12 @@ public class TransferHistoryPanel extends JPanel {
 
         // Set column widths with equal spacing as per Task 9
         int totalWidth = 530; // Approximate width of the table
-        historyTable.getColumnModel().getColumn(0).setPreferredWidth((int)(totalWidth * 0.4)); // File name (40%)
-        historyTable.getColumnModel().getColumn(1).setPreferredWidth((int)(totalWidth * 0.3)); // Date & Time (30%)
-        historyTable.getColumnModel().getColumn(2).setPreferredWidth((int)(totalWidth * 0.15)); // Size (15%)
-        historyTable.getColumnModel().getColumn(3).setPreferredWidth((int)(totalWidth * 0.15)); // Direction (15%)
+        historyTable.getColumnModel().getColumn(0).setPreferredWidth((int)(totalWidth * 0.3)); // File name (30%)
+        historyTable.getColumnModel().getColumn(1).setPreferredWidth((int)(totalWidth * 0.2)); // Date & Time (20%)
+        historyTable.getColumnModel().getColumn(2).setPreferredWidth((int)(totalWidth * 0.1)); // Size (10%)
+        historyTable.getColumnModel().getColumn(3).setPreferredWidth((int)(totalWidth * 0.1)); // Direction (10%)
+        historyTable.getColumnModel().getColumn(4).setPreferredWidth((int)(totalWidth * 0.12)); // Speed (12%)
+        historyTable.getColumnModel().getColumn(5).setPreferredWidth((int)(totalWidth * 0.18)); // Status (18%)
 
         // Center-align all columns except the first one
         DefaultTableCellRenderer centerRenderer = new DefaultTableCellRenderer();
@@ -82,32 +127,61 @@ public class TransferHistoryPanel extends JPanel {
 
         buttonPanel.add(clearButton);
         add(buttonPanel, BorderLayout.SOUTH);
-
-        // Register as a listener for history changes
-        historyManager.addHistoryListener(this::updateHistoryTable);
-
-        // Initial population of the table
-        updateHistoryTable(historyManager.getTransferHistory());
     }
 
     /**
-     * Updates the history table with the current list of transfer records.
+     * Updates the history table after the history changed. Called on the event dispatch thread.
      * 
-     * @param records The list of transfer records
+     * @param event What changed
      */
-    private void updateHistoryTable(List<TransferRecord> records) {
-        // Clear the table
-        tableModel.setRowCount(0);
-
-        // Add rows for each record (newest first)
-        for (int i = records.size() - 1; i >= 0; i--) {
-            TransferRecord record = records.get(i);
-            tableModel.addRow(new Object[]{
-                    record.getFileName(),
-                    record.getFormattedTimestamp(),
-                    record.getFormattedFileSize(),
-                    record.getDirectionString()
-            });
+    private void updateHistoryTable(HistoryEvent event) {
+        if (activeFilter == null) {
+            tableModel.historyChanged(event);
+        } else {
+            // The filtered rows are a query result, so run the query again
+            filterTimer.restart();
         }
     }
+
+    /**
+     * Shows the records matching the filter row, or the whole history if it is empty.
+     * The query runs on a background thread, as the first one indexes the whole history.
+     */
+    private void applyFilter() {
+        String prefix = filterField.getText().trim();
+        int direction = directionComboBox.getSelectedIndex();
+        int generation = ++filterGeneration;
+
+        if (prefix.isEmpty() && direction == 0) {
+            activeFilter = null;
+            tableModel.showRecords(historyManager.getTransferHistory());
+            return;
+        }
+
+        HistoryQuery query = new HistoryQuery()
+                .namePrefix(prefix)
+                .direction(direction == 1 ? TransferRecord.Direction.SENT
+                        : direction == 2 ? TransferRecord.Direction.RECEIVED : null);
+        activeFilter = query;
+
+        new SwingWorker<List<TransferRecord>, Void>() {
+            @Override
+            protected List<TransferRecord> doInBackground() {
+                return historyManager.query(query);
+            }
+
+            @Override
+            protected void done() {
+                // A newer filter has been applied meanwhile
+                if (generation != filterGeneration) {
+                    return;
+                }
+                try {
+                    tableModel.showRecords(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Error filtering transfer history: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
 }
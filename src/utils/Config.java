@@ -9,11 +9,73 @@ public class Config {
     public static final String DEFAULT_IP = "127.0.0.1";
     public static final int DISCOVERY_PORT = 8888;
     public static final int DISCOVERY_TIMEOUT = 3000; // 3 seconds
+    public static final int MAX_CONCURRENT_TRANSFERS = 4;
+    public static final int MAX_BATCH_FILES = 1_000_000; // Largest manifest a receiver accepts
 
     // File transfer configuration
     public static final int BUFFER_SIZE = 4096;
-    public static final int PROGRESS_UPDATE_PERCENTAGE = 5;
-    public static final int PROGRESS_UPDATE_BYTES = 262144; // 256KB
+    public static final int PROGRESS_SAMPLE_INTERVAL_MS = 100; // The UI samples transfer stats at 10 Hz
+    public static final double PROGRESS_RATE_SMOOTHING = 0.3; // Weight of the newest sample in the displayed rate
+    public static final int CLI_PROGRESS_INTERVAL_MS = 1000; // The command line prints a status line every second
+    public static final int PEAK_THROUGHPUT_WINDOW_MS = 500; // History records the fastest 500ms of each transfer as its peak
+    public static final boolean VIRTUAL_THREADS_ENABLED = true; // Run transfers on virtual threads where the JVM has them (Java 21+)
+    public static final boolean ZERO_COPY_ENABLED = true;
+    public static final long ZERO_COPY_CHUNK_SIZE = 8L * 1024 * 1024; // 8MB per transferTo/transferFrom call
+    public static final int DIRECT_BUFFER_SIZE = 1024 * 1024; // 1MB off-heap buffer for channel reads
+    public static final long BUFFER_POOL_BUDGET = 256L * 1024 * 1024; // Off-heap memory shared by all transfers
+    public static final boolean PIPELINED_WRITES_ENABLED = true; // Write to disk on a separate thread from socket reads
+    public static final int WRITE_PIPELINE_BUFFERS = 8; // Buffers between network reader and disk writer
+    public static final long WRITE_PIPELINE_MIN_SIZE = DIRECT_BUFFER_SIZE + 1; // Bodies that fit in one buffer are written inline
+    public static final long WRITE_PIPELINE_STOP_TIMEOUT_MS = 5000; // How long a failing transfer waits for its disk writer
+    public static final long WRITE_PIPELINE_LOG_THRESHOLD = 64L * 1024 * 1024; // Log queue metrics for bodies of 64MB and up
+    public static final int READ_AHEAD_DEPTH = 4; // Chunks read ahead of the socket when zero-copy is off or unavailable (0 reads in the send loop)
+    public static final int MAX_READ_AHEAD_DEPTH = 64;
+    public static final int READ_AHEAD_CHUNK_SIZE = 4 * 1024 * 1024; // 4MB per read-ahead chunk
+    public static final long READ_AHEAD_LOG_THRESHOLD = 64L * 1024 * 1024; // Log wait times for files of 64MB and up
+
+    // Socket tuning configuration
+    public static final boolean SOCKET_AUTOTUNING_ENABLED = true; // false uses the fixed profile below
+    public static final int TUNING_SAMPLE_MS = 250; // Throughput sample interval
+    public static final int TUNING_WINDOW_MS = 3000; // Buffers are only grown during the first 3 seconds
+    public static final int TUNING_MIN_SOCKET_BUFFER = 64 * 1024;
+    public static final int TUNING_MAX_SOCKET_BUFFER = 16 * 1024 * 1024;
+    public static final int TUNING_MIN_CHUNK_SIZE = 64 * 1024; // Bytes handed to each socket write
+    public static final int TUNING_MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int FIXED_SOCKET_BUFFER_SIZE = 1024 * 1024; // Fixed profile, for reproducible benchmarks
+    public static final int FIXED_CHUNK_SIZE = 64 * 1024;
+
+    // Parallel (striped) transfer configuration
+    public static final int MAX_PARALLEL_STREAMS = 8;
+    public static final long STRIPE_SEGMENT_SIZE = 16L * 1024 * 1024; // 16MB per segment
+    public static final int STRIPE_PROBE_INTERVAL_MS = 500; // Throughput sample before adding a stream
+    public static final double STRIPE_MIN_GAIN = 1.10; // Keep adding streams while throughput grows by 10%
+
+    // Resumable transfer configuration
+    public static final int RESUME_CHUNK_SIZE = 4 * 1024 * 1024; // 4MB chunks, each with its own checksum
+    public static final int RESUME_MAX_CHUNK_SIZE = 64 * 1024 * 1024; // Largest chunk a receiver accepts
+    public static final int RESUME_MIN_CHUNK_SIZE = 64 * 1024; // Smallest chunk a receiver accepts
+    public static final int RESUME_MAX_CHUNK_COUNT = 1 << 22; // Chunks a journal tracks; 16TB at the default chunk size
+    public static final int RESUME_COMMIT_INTERVAL = 16; // Chunks between journal commits (fsyncs)
+    public static final int RESUME_MAX_ATTEMPTS = 5;
+    public static final int RESUME_RETRY_DELAY_MS = 2000; // Multiplied by the attempt number
+    public static final String PARTIAL_FILE_SUFFIX = ".part";
+    public static final String JOURNAL_FILE_SUFFIX = ".part.journal";
+
+    // Directory transfer configuration
+    public static final int DIRECTORY_FRAME_SIZE = 1024 * 1024; // 1MB frames packing many small files
+    public static final int DIRECTORY_FRAME_BUFFERS = 4; // Frames a receiver reads ahead while their files are written
+    public static final int DIRECTORY_WRITE_TASKS = 4; // Tasks creating the files of one frame at a time
+    public static final long SMALL_FILE_THRESHOLD = 256L * 1024; // Larger files bypass the frames and use zero-copy
+
+    // Chunked (compressed) transfer configuration
+    public static final int CODEC_CHUNK_SIZE = 1024 * 1024; // 1MB chunks, each compressed on its own
+    public static final int CODEC_MAX_CHUNK_SIZE = 64 * 1024 * 1024; // Largest chunk a receiver accepts
+    public static final int CODEC_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int CODEC_PIPELINE_DEPTH = 2 * CODEC_THREADS + 2; // Chunks in flight between reader and socket
+    public static final int COMPRESSION_LEVEL = 1; // Deflater.BEST_SPEED keeps up with fast links
+    public static final double COMPRESSION_MAX_RATIO = 0.9; // Chunks that do not shrink below 90% are sent stored
+    public static final int COMPRESSION_SAMPLE_SIZE = 64 * 1024; // Probe this much of a chunk before compressing all of it
+    public static final int VERIFY_MAX_ROUNDS = 4; // First transmission plus retransmissions of failed chunks
 
     // Discovery protocol messages
     public static final String DISCOVERY_REQUEST = "SECURESHARE_DISCOVERY";
@@ -29,4 +91,12 @@ public class Config {
 
     // History configuration
     public static final String HISTORY_FILE = "transfer_history.csv";
+    public static final int HISTORY_COMPACTION_THRESHOLD = 10_000; // Obsolete lines that trigger a rewrite of the history file
+    public static final long HISTORY_COMPACTION_DELAY_MS = 5000; // Wait before compacting, so a burst of changes is compacted once
+    public static final int HISTORY_QUEUE_CAPACITY = 1024; // Appends waiting for the history writer before callers block
+    public static final long HISTORY_FLUSH_INTERVAL_MS = 200; // Records are committed together every 200ms; 0 forces each commit to disk
+    public static final long HISTORY_SHUTDOWN_TIMEOUT_MS = 5000; // Longest wait for queued records when the JVM exits
+    public static final long HISTORY_TAIL_INTERVAL_MS = 1000; // How often a manager picks up records other windows and processes added
+    public static final int HISTORY_ROW_CACHE_SIZE = 256; // Formatted history rows kept for the table, a few screens' worth
+    public static final int HISTORY_FILTER_DELAY_MS = 250; // Wait after the last keystroke before filtering the history
 }
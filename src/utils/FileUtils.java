@@ -2,6 +2,9 @@ package utils;
 
 import javax.swing.*;
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Utility methods for file operations in the SecureShare application.
@@ -28,6 +31,28 @@ public class FileUtils {
         return null;
     }
     
+    /**
+     * Opens a file chooser dialog that allows selecting several files.
+     * 
+     * @param parent The parent component for the dialog
+     * @param title The dialog title
+     * @return The selected files, or an empty list if selection was cancelled
+     */
+    public static List<File> selectFiles(JComponent parent, String title) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle(title);
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+
+        int result = fileChooser.showOpenDialog(parent);
+
+        if (result == JFileChooser.APPROVE_OPTION) {
+            return Arrays.asList(fileChooser.getSelectedFiles());
+        }
+        
+        return Collections.emptyList();
+    }
+    
     /**
      * Opens a directory chooser dialog to select a directory.
      * 
@@ -0,0 +1,97 @@
+package utils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change to the transfer history, describing only what changed.
+ * <p>
+ * Records are only ever appended to the history or cleared from it, so an event either adds
+ * records at the end or removes every record. Each event carries the history size after the
+ * change, which lets a listener that has fallen behind or started late check where it is.
+ */
+public class HistoryEvent {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        APPENDED, CLEARED
+    }
+
+    private final Type type;
+    private final int fromIndex;
+    private final List<TransferRecord> records;
+    private final int removedCount;
+    private final int size;
+
+    private HistoryEvent(Type type, int fromIndex, List<TransferRecord> records, int removedCount, int size) {
+        this.type = type;
+        this.fromIndex = fromIndex;
+        this.records = records;
+        this.removedCount = removedCount;
+        this.size = size;
+    }
+
+    /**
+     * Creates an event for records appended to the history.
+     *
+     * @param fromIndex The index of the first new record
+     * @param records The new records, oldest first
+     * @return The event
+     */
+    static HistoryEvent appended(int fromIndex, List<TransferRecord> records) {
+        return new HistoryEvent(Type.APPENDED, fromIndex, Collections.unmodifiableList(records), 0,
+                fromIndex + records.size());
+    }
+
+    /**
+     * Creates an event for the history being cleared.
+     *
+     * @param removedCount The number of records removed
+     * @return The event
+     */
+    static HistoryEvent cleared(int removedCount) {
+        return new HistoryEvent(Type.CLEARED, 0, Collections.emptyList(), removedCount, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the index of the first record the event affects: the first new record, or 0 for a clear.
+     *
+     * @return The index
+     */
+    public int getFromIndex() {
+        return fromIndex;
+    }
+
+    /**
+     * Gets the records appended, oldest first. Empty for a clear.
+     *
+     * @return The new records
+     */
+    public List<TransferRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the number of records removed. 0 for an append.
+     *
+     * @return The removed record count
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Gets the number of records in the history right after the change.
+     *
+     * @return The history size
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,57 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An exclusive lock on a history file, held across processes.
+ * <p>
+ * The lock is taken on a separate file next to the history log, so the log itself can still be
+ * replaced by a compaction while the lock is held. Every process appending to, indexing or
+ * rewriting the log takes this lock first, so a command line transfer and a window writing the
+ * same history never interleave their lines or lose each other's records.
+ * <p>
+ * File locks belong to the whole JVM, so within one process the caller must already hold the
+ * in-process lock of the history before acquiring this one.
+ */
+public class HistoryFileLock implements Closeable {
+    public static final String LOCK_SUFFIX = ".lock";
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private HistoryFileLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Waits for the lock of a history log and takes it.
+     *
+     * @param logFile The history log
+     * @return The lock, to be closed when done
+     */
+    public static HistoryFileLock acquire(File logFile) throws IOException {
+        File lockFile = new File(logFile.getPath() + LOCK_SUFFIX);
+        FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            return new HistoryFileLock(channel, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * In-memory indexes over the transfer history, answering HistoryQuery lookups without reading
+ * the records themselves.
+ * <p>
+ * The fields queries filter on are kept in parallel primitive arrays, by position in the history.
+ * Two sorted permutations of the positions serve as indexes: one by timestamp for time ranges,
+ * and one by normalized file name, where all names sharing a prefix form one contiguous run found
+ * by binary search. Records added after the last sort are kept in an unsorted tail that queries
+ * scan; once the tail grows past a fraction of the history it is sorted and merged in, so adding
+ * a record stays cheap.
+ * <p>
+ * The index is not thread-safe; TransferHistoryManager guards it with its lock.
+ */
+class HistoryIndex {
+    private static final int MIN_UNSORTED_TAIL = 1024;
+    private static final TransferRecord.Direction[] DIRECTIONS = TransferRecord.Direction.values();
+    private static final TransferRecord.Outcome[] OUTCOMES = TransferRecord.Outcome.values();
+
+    private int count;
+    private long[] timestamps = new long[16];
+    private long[] sizes = new long[16];
+    private byte[] directions = new byte[16];
+    private String[] names = new String[16];
+    private String[] peers = new String[16];
+    private byte[] outcomes = new byte[16];
+    private long[] bytesTransferred = new long[16];
+    private long[] throughputs = new long[16];
+
+    // A history has few peers, so every record of a peer shares one string
+    private final Map<String, String> peerAddresses = new HashMap<>();
+
+    // Positions [0, sortedCount) in index order; later positions form the unsorted tail
+    private int[] byTime = new int[0];
+    private int[] byName = new int[0];
+    private int sortedCount;
+
+    /**
+     * Adds the next record of the history.
+     *
+     * @param record The record
+     */
+    void add(TransferRecord record) {
+        addUnsorted(record);
+        if (count - sortedCount > Math.max(MIN_UNSORTED_TAIL, count / 8)) {
+            mergeTail();
+        }
+    }
+
+    /**
+     * Adds the next record of the history to the unsorted tail only. Used to load many records
+     * at once, followed by a single call to sort.
+     *
+     * @param record The record
+     */
+    void addUnsorted(TransferRecord record) {
+        if (count == timestamps.length) {
+            int capacity = count * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            directions = Arrays.copyOf(directions, capacity);
+            names = Arrays.copyOf(names, capacity);
+            peers = Arrays.copyOf(peers, capacity);
+            outcomes = Arrays.copyOf(outcomes, capacity);
+            bytesTransferred = Arrays.copyOf(bytesTransferred, capacity);
+            throughputs = Arrays.copyOf(throughputs, capacity);
+        }
+        timestamps[count] = record.getTimestamp();
+        sizes[count] = record.getFileSize();
+        directions[count] = (byte) record.getDirection().ordinal();
+        names[count] = HistoryQuery.normalizeName(record.getFileName());
+        peers[count] = peerAddresses.computeIfAbsent(record.getPeerAddress(), peer -> peer);
+        outcomes[count] = (byte) record.getOutcome().ordinal();
+        bytesTransferred[count] = record.getBytesTransferred();
+        throughputs[count] = record.getAverageThroughput();
+        count++;
+    }
+
+    /**
+     * Sorts the records added with addUnsorted into the indexes.
+     */
+    void sort() {
+        if (sortedCount < count) {
+            mergeTail();
+        }
+    }
+
+    /**
+     * Finds the records matching a query.
+     *
+     * @param query The query
+     * @return The positions of the matching records in the history, in ascending order
+     */
+    int[] find(HistoryQuery query) {
+        int[] matches = new int[16];
+        int found = 0;
+
+        // Narrow the sorted part down with the most selective index, then check the rest of the criteria
+        int from = 0;
+        int to = sortedCount;
+        int[] candidates = null;
+        if (query.getNamePrefix() != null) {
+            candidates = byName;
+            String prefix = query.getNamePrefix();
+            from = lowerBound(byName, position -> names[position].compareTo(prefix) < 0);
+            to = lowerBound(byName, position -> names[position].compareTo(prefix) < 0 || names[position].startsWith(prefix));
+        } else if (query.hasTimeRange()) {
+            candidates = byTime;
+            from = lowerBound(byTime, position -> timestamps[position] < query.getFromTimestamp());
+            to = lowerBound(byTime, position -> timestamps[position] < query.getToTimestamp());
+        }
+
+        for (int i = from; i < to; i++) {
+            int position = candidates == null ? i : candidates[i];
+            if (matches(query, position)) {
+                if (found == matches.length) {
+                    matches = Arrays.copyOf(matches, found * 2);
+                }
+                matches[found++] = position;
+            }
+        }
+        for (int position = sortedCount; position < count; position++) {
+            if (matches(query, position)) {
+                if (found == matches.length) {
+                    matches = Arrays.copyOf(matches, found * 2);
+                }
+                matches[found++] = position;
+            }
+        }
+
+        matches = Arrays.copyOf(matches, found);
+        if (candidates != null) {
+            Arrays.sort(matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Adds up the sizes of the matching records for each calendar day in the local time zone.
+     *
+     * @param query The query
+     * @return The total bytes per day, in date order
+     */
+    SortedMap<LocalDate, Long> bytesPerDay(HistoryQuery query) {
+        ZoneId zone = ZoneId.systemDefault();
+        SortedMap<LocalDate, Long> totals = new TreeMap<>();
+
+        // Records are mostly in time order, so consecutive records usually fall on the same day
+        LocalDate day = null;
+        long dayStart = 0;
+        long dayEnd = 0;
+        long dayTotal = 0;
+        for (int position : find(query)) {
+            long timestamp = timestamps[position];
+            if (day == null || timestamp < dayStart || timestamp >= dayEnd) {
+                if (day != null) {
+                    totals.merge(day, dayTotal, Long::sum);
+                }
+                day = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+                dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+                dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                dayTotal = 0;
+            }
+            dayTotal += sizes[position];
+        }
+        if (day != null) {
+            totals.merge(day, dayTotal, Long::sum);
+        }
+        return totals;
+    }
+
+    /**
+     * Works out the average throughput of the matching records for each peer: the bytes they
+     * moved divided by the time they took, which weights each transfer by its size. Records
+     * without a measured throughput are left out.
+     *
+     * @param query The query
+     * @return The throughput in bytes per second by peer address, in address order
+     */
+    SortedMap<String, Long> throughputByPeer(HistoryQuery query) {
+        Map<String, double[]> totals = new HashMap<>();
+        for (int position : find(query)) {
+            if (throughputs[position] <= 0 || bytesTransferred[position] <= 0) {
+                continue;
+            }
+            // Bytes and seconds
+            double[] peerTotals = totals.computeIfAbsent(peers[position], peer -> new double[2]);
+            peerTotals[0] += bytesTransferred[position];
+            peerTotals[1] += (double) bytesTransferred[position] / throughputs[position];
+        }
+
+        SortedMap<String, Long> throughput = new TreeMap<>();
+        totals.forEach((peer, peerTotals) -> throughput.put(peer, (long) (peerTotals[0] / peerTotals[1])));
+        return throughput;
+    }
+
+    private boolean matches(HistoryQuery query, int position) {
+        return query.matches(names[position], timestamps[position], sizes[position],
+                DIRECTIONS[directions[position]], peers[position], OUTCOMES[outcomes[position]]);
+    }
+
+    /**
+     * A condition on a position that holds for a prefix of an index and not after it.
+     */
+    @FunctionalInterface
+    private interface PositionPredicate {
+        boolean test(int position);
+    }
+
+    /**
+     * Finds the first entry of the sorted part of an index for which the condition no longer holds.
+     */
+    private int lowerBound(int[] index, PositionPredicate before) {
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (before.test(index[mid])) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sorts the unsorted tail into both indexes.
+     */
+    private void mergeTail() {
+        int[] tail = new int[count - sortedCount];
+        for (int i = 0; i < tail.length; i++) {
+            tail[i] = sortedCount + i;
+        }
+
+        IntBinaryOperator byTimestamp = (a, b) -> {
+            int order = Long.compare(timestamps[a], timestamps[b]);
+            return order != 0 ? order : Integer.compare(a, b);
+        };
+        IntBinaryOperator byFileName = (a, b) -> {
+            int order = names[a].compareTo(names[b]);
+            return order != 0 ? order : Integer.compare(a, b);
+        };
+
+        byTime = merge(byTime, sortedCount, sort(tail.clone(), byTimestamp), byTimestamp);
+        byName = merge(byName, sortedCount, sort(tail, byFileName), byFileName);
+        sortedCount = count;
+    }
+
+    /**
+     * Sorts positions with a comparator, without boxing them.
+     */
+    private static int[] sort(int[] positions, IntBinaryOperator comparator) {
+        if (positions.length < 2) {
+            return positions;
+        }
+        int[] buffer = new int[positions.length];
+        mergeSort(positions, buffer, 0, positions.length, comparator);
+        return positions;
+    }
+
+    private static void mergeSort(int[] positions, int[] buffer, int from, int to, IntBinaryOperator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(positions, buffer, from, mid, comparator);
+        mergeSort(positions, buffer, mid, to, comparator);
+        if (comparator.applyAsInt(positions[mid - 1], positions[mid]) <= 0) {
+            // Already in order, as appended records usually are by time
+            return;
+        }
+
+        System.arraycopy(positions, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && comparator.applyAsInt(buffer[left], buffer[right]) <= 0)) {
+                positions[i] = buffer[left++];
+            } else {
+                positions[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static int[] merge(int[] sorted, int sortedLength, int[] tail, IntBinaryOperator comparator) {
+        int[] merged = new int[sortedLength + tail.length];
+        int left = 0;
+        int right = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (right >= tail.length || (left < sortedLength && comparator.applyAsInt(sorted[left], tail[right]) <= 0)) {
+                merged[i] = sorted[left++];
+            } else {
+                merged[i] = tail[right++];
+            }
+        }
+        return merged;
+    }
+}
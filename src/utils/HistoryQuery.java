@@ -0,0 +1,176 @@
+package utils;
+
+import java.util.Locale;
+
+/**
+ * Criteria selecting transfer records from the history. A new query matches every record;
+ * each criterion that is set narrows it down.
+ */
+public class HistoryQuery {
+    private TransferRecord.Direction direction;
+    private long fromTimestamp = Long.MIN_VALUE;
+    private long toTimestamp = Long.MAX_VALUE;
+    private String namePrefix;
+    private long minSize = Long.MIN_VALUE;
+    private long maxSize = Long.MAX_VALUE;
+    private String peerAddress;
+    private TransferRecord.Outcome outcome;
+
+    /**
+     * Only matches transfers in one direction.
+     *
+     * @param direction The direction, or null for both
+     * @return This query
+     */
+    public HistoryQuery direction(TransferRecord.Direction direction) {
+        this.direction = direction;
+        return this;
+    }
+
+    /**
+     * Only matches transfers that occurred in a time range.
+     *
+     * @param fromTimestamp The earliest time in milliseconds since epoch, inclusive
+     * @param toTimestamp The latest time in milliseconds since epoch, exclusive
+     * @return This query
+     */
+    public HistoryQuery timeRange(long fromTimestamp, long toTimestamp) {
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        return this;
+    }
+
+    /**
+     * Only matches files whose name starts with a prefix, ignoring case.
+     *
+     * @param namePrefix The prefix, or null or empty for any name
+     * @return This query
+     */
+    public HistoryQuery namePrefix(String namePrefix) {
+        this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null : normalizeName(namePrefix);
+        return this;
+    }
+
+    /**
+     * Only matches files within a size range.
+     *
+     * @param minSize The smallest size in bytes, inclusive
+     * @param maxSize The largest size in bytes, inclusive
+     * @return This query
+     */
+    public HistoryQuery sizeRange(long minSize, long maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Only matches transfers with one peer.
+     *
+     * @param peerAddress The peer address, or null or empty for any peer
+     * @return This query
+     */
+    public HistoryQuery peer(String peerAddress) {
+        this.peerAddress = peerAddress == null || peerAddress.isEmpty() ? null : peerAddress;
+        return this;
+    }
+
+    /**
+     * Only matches transfers that ended one way.
+     *
+     * @param outcome The outcome, or null for any
+     * @return This query
+     */
+    public HistoryQuery outcome(TransferRecord.Outcome outcome) {
+        this.outcome = outcome;
+        return this;
+    }
+
+    public TransferRecord.Direction getDirection() {
+        return direction;
+    }
+
+    public long getFromTimestamp() {
+        return fromTimestamp;
+    }
+
+    public long getToTimestamp() {
+        return toTimestamp;
+    }
+
+    /**
+     * Gets the name prefix, already in the form normalizeName produces.
+     *
+     * @return The prefix, or null for any name
+     */
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public String getPeerAddress() {
+        return peerAddress;
+    }
+
+    public TransferRecord.Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Checks whether the query restricts the time range.
+     *
+     * @return Whether a time range is set
+     */
+    public boolean hasTimeRange() {
+        return fromTimestamp != Long.MIN_VALUE || toTimestamp != Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks a record against every criterion.
+     *
+     * @param record The record
+     * @return Whether the record matches
+     */
+    public boolean matches(TransferRecord record) {
+        return matches(normalizeName(record.getFileName()), record.getTimestamp(), record.getFileSize(),
+                record.getDirection(), record.getPeerAddress(), record.getOutcome());
+    }
+
+    /**
+     * Checks the fields of a record against every criterion.
+     *
+     * @param normalizedName The file name as normalizeName returns it
+     * @param timestamp The time of the transfer
+     * @param fileSize The size of the file
+     * @param recordDirection The direction of the transfer
+     * @param recordPeer The peer address of the transfer
+     * @param recordOutcome How the transfer ended
+     * @return Whether the record matches
+     */
+    boolean matches(String normalizedName, long timestamp, long fileSize, TransferRecord.Direction recordDirection,
+                    String recordPeer, TransferRecord.Outcome recordOutcome) {
+        return (direction == null || direction == recordDirection)
+                && (outcome == null || outcome == recordOutcome)
+                && (peerAddress == null || peerAddress.equals(recordPeer))
+                && timestamp >= fromTimestamp && timestamp < toTimestamp
+                && fileSize >= minSize && fileSize <= maxSize
+                && (namePrefix == null || normalizedName.startsWith(namePrefix));
+    }
+
+    /**
+     * Puts a file name in the form names are compared in, so matching ignores case.
+     *
+     * @param name The file name
+     * @return The normalized name
+     */
+    public static String normalizeName(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,684 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only view of the history file, opened through an index so that its size does not
+ * matter.
+ * <p>
+ * Next to the CSV log sits an index file holding the byte offset of every valid record line,
+ * followed by a header that says how much of the log the index covers. Opening the store only
+ * indexes the lines appended since the index was last brought up to date, then memory-maps the
+ * offsets; a record is read from the log and parsed only when it is asked for. Opening a
+ * history of a million records therefore costs the same as opening one of ten.
+ * <p>
+ * The index is rebuilt from the whole log if it is missing, damaged, or no longer matches the
+ * log, for example after another version of the application rewrote the file.
+ */
+public class HistoryStore implements Closeable {
+    public static final String HEADER = "FileName,Timestamp,FileSize,Direction,StartTime,Peer,BytesTransferred,"
+            + "AverageThroughput,PeakThroughput,Outcome,Integrity";
+    public static final String CLEARED_MARKER = "#CLEARED";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x53534858; // "SSHX"
+    private static final int VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 48;
+    private static final int TAIL_CHECK_LENGTH = 64;
+    private static final int LINE_READ_SIZE = 512;
+    private static final int LEGACY_FIELDS = 4;
+    private static final int RECORD_FIELDS = 11;
+    private static final TransferRecord.Direction[] DIRECTIONS = TransferRecord.Direction.values();
+    private static final TransferRecord.Outcome[] OUTCOMES = TransferRecord.Outcome.values();
+    private static final TransferRecord.Integrity[] INTEGRITIES = TransferRecord.Integrity.values();
+    private static final long EMPTY_CHECKSUM = new CRC32().getValue();
+
+    private final FileChannel logChannel;
+    private final MappedByteBuffer offsets;
+    private final long liveStart;
+    private final int size;
+    private final int obsoleteLines;
+    private final long endPosition;
+    private final long endChecksum;
+
+    private HistoryStore(FileChannel logChannel, MappedByteBuffer offsets, long liveStart, int size, int obsoleteLines,
+                         long endPosition, long endChecksum) {
+        this.logChannel = logChannel;
+        this.offsets = offsets;
+        this.liveStart = liveStart;
+        this.size = size;
+        this.obsoleteLines = obsoleteLines;
+        this.endPosition = endPosition;
+        this.endChecksum = endChecksum;
+    }
+
+    /**
+     * The complete lines appended to a log after a position, and where the next read continues.
+     */
+    public static class Tail {
+        private final List<String> lines;
+        private final long endPosition;
+        private final long endChecksum;
+
+        Tail(List<String> lines, long endPosition, long endChecksum) {
+            this.lines = lines;
+            this.endPosition = endPosition;
+            this.endChecksum = endChecksum;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public long getEndPosition() {
+            return endPosition;
+        }
+
+        public long getEndChecksum() {
+            return endChecksum;
+        }
+    }
+
+    /**
+     * The contents of the index header: how much of the log is indexed, and where the live records start.
+     */
+    private static class IndexState {
+        long coveredLength;
+        long tailChecksum;
+        long count;
+        long liveStart;
+        long obsoleteLines;
+    }
+
+    /**
+     * Opens the history in a log file, bringing its index up to date first.
+     * The caller holds the in-process lock of the log; the HistoryFileLock is taken here.
+     *
+     * @param logFile The CSV history log
+     * @return The store, which is empty if the log does not exist
+     */
+    public static HistoryStore open(File logFile) throws IOException {
+        HistoryFileLock lock = HistoryFileLock.acquire(logFile);
+        try {
+            if (!logFile.exists()) {
+                return new HistoryStore(null, null, 0, 0, 0, 0, EMPTY_CHECKSUM);
+            }
+
+            File indexFile = new File(logFile.getPath() + INDEX_SUFFIX);
+            FileChannel logChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+            try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                long logLength = logChannel.size();
+                IndexState state = readIndexState(indexChannel, logChannel, logLength);
+                if (state == null) {
+                    state = new IndexState();
+                }
+                if (state.coveredLength < logLength) {
+                    indexTail(logChannel, indexChannel, state, logLength);
+                }
+
+                long indexLength = INDEX_HEADER_SIZE + state.count * Long.BYTES;
+                MappedByteBuffer offsets = state.count > 0
+                        ? indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexLength)
+                        : null;
+                int size = (int) Math.min(Integer.MAX_VALUE, state.count - state.liveStart);
+                return new HistoryStore(logChannel, offsets, state.liveStart, size,
+                        (int) Math.min(Integer.MAX_VALUE, state.obsoleteLines), state.coveredLength, state.tailChecksum);
+            } catch (IOException | RuntimeException e) {
+                logChannel.close();
+                throw e;
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Reads the complete lines appended to a log since a position returned by an earlier read or by
+     * getEndPosition. The caller holds the in-process lock of the log; the HistoryFileLock is taken here.
+     *
+     * @param logFile The CSV history log
+     * @param position Where the previous read ended
+     * @param checksum The checksum returned with that position
+     * @return The new lines, or null if the log was rewritten or removed since, so it has to be opened again
+     */
+    public static Tail readTail(File logFile, long position, long checksum) throws IOException {
+        HistoryFileLock lock = HistoryFileLock.acquire(logFile);
+        try {
+            if (!logFile.exists()) {
+                return position == 0 ? new Tail(new ArrayList<>(), 0, EMPTY_CHECKSUM) : null;
+            }
+
+            try (FileChannel logChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+                long logLength = logChannel.size();
+                if (logLength < position || tailChecksum(logChannel, position) != checksum) {
+                    return null;
+                }
+
+                List<String> lines = new ArrayList<>();
+                long end = scanLines(logChannel, position, logLength, (text, lineStart) -> lines.add(text));
+                return new Tail(lines, end, tailChecksum(logChannel, end));
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Reads the index header and checks that it still describes the log.
+     *
+     * @return The state, or null if the index has to be rebuilt
+     */
+    private static IndexState readIndexState(FileChannel indexChannel, FileChannel logChannel, long logLength) throws IOException {
+        long indexLength = indexChannel.size();
+        if (indexLength < INDEX_HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        readFully(indexChannel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            return null;
+        }
+
+        IndexState state = new IndexState();
+        state.coveredLength = header.getLong();
+        state.tailChecksum = header.getLong();
+        state.count = header.getLong();
+        state.liveStart = header.getLong();
+        state.obsoleteLines = header.getLong();
+
+        if (state.coveredLength < 0 || state.coveredLength > logLength
+                || state.count < 0 || state.liveStart < 0 || state.liveStart > state.count
+                || INDEX_HEADER_SIZE + state.count * Long.BYTES > indexLength) {
+            return null;
+        }
+        if (tailChecksum(logChannel, state.coveredLength) != state.tailChecksum) {
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * Indexes the log from the end of the covered part to its last complete line, then writes the header.
+     * A rebuild starts from an empty state, so its first line is the CSV header and is skipped.
+     */
+    private static void indexTail(FileChannel logChannel, FileChannel indexChannel, IndexState state, long logLength) throws IOException {
+        ByteBuffer newOffsets = ByteBuffer.allocate(64 * 1024);
+        long[] indexPosition = {INDEX_HEADER_SIZE + state.count * Long.BYTES};
+
+        long end = scanLines(logChannel, state.coveredLength, logLength, (text, lineStart) -> {
+            if (text.startsWith(CLEARED_MARKER)) {
+                state.obsoleteLines += state.count - state.liveStart + 1;
+                state.liveStart = state.count;
+            } else if (parseRecord(text) != null) {
+                if (!newOffsets.hasRemaining()) {
+                    newOffsets.flip();
+                    indexPosition[0] += writeFully(indexChannel, newOffsets, indexPosition[0]);
+                    newOffsets.clear();
+                }
+                newOffsets.putLong(lineStart);
+                state.count++;
+            } else {
+                state.obsoleteLines++;
+            }
+        });
+
+        newOffsets.flip();
+        writeFully(indexChannel, newOffsets, indexPosition[0]);
+
+        // A line still being written is indexed by the next open
+        state.coveredLength = end;
+        state.tailChecksum = tailChecksum(logChannel, end);
+        writeIndexState(indexChannel, state);
+    }
+
+    /**
+     * Receives the lines of the log one at a time.
+     */
+    @FunctionalInterface
+    private interface LineHandler {
+        void line(String text, long lineStart) throws IOException;
+    }
+
+    /**
+     * Reads the complete lines of the log between two positions. Scanning from the start of
+     * the log skips its first line, the CSV header.
+     *
+     * @return The position just after the last complete line
+     */
+    private static long scanLines(FileChannel logChannel, long from, long to, LineHandler handler) throws IOException {
+        boolean skipHeader = from == 0;
+        long position = from;
+        long lineStart = position;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = logChannel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                position++;
+                if (b != '\n') {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                    continue;
+                }
+
+                if (skipHeader) {
+                    skipHeader = false;
+                } else {
+                    handler.line(decodeLine(line, lineLength), lineStart);
+                }
+                lineStart = position;
+                lineLength = 0;
+            }
+        }
+        return lineStart;
+    }
+
+    private static void writeIndexState(FileChannel indexChannel, IndexState state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(state.coveredLength);
+        header.putLong(state.tailChecksum);
+        header.putLong(state.count);
+        header.putLong(state.liveStart);
+        header.putLong(state.obsoleteLines);
+        header.flip();
+        writeFully(indexChannel, header, 0);
+    }
+
+    /**
+     * Checksums the bytes just before a log position, so an index can tell when the log
+     * it covers has been replaced by a different one.
+     */
+    private static long tailChecksum(FileChannel logChannel, long end) throws IOException {
+        int length = (int) Math.min(TAIL_CHECK_LENGTH, end);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        readFully(logChannel, tail, end - length);
+        CRC32 crc = new CRC32();
+        crc.update(tail.array(), 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Gets the number of records after the last clear marker.
+     *
+     * @return The record count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the position in the log just after the last line the store covers, where reading its tail starts.
+     *
+     * @return The log position
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    /**
+     * Gets the checksum that goes with getEndPosition when reading the tail of the log.
+     *
+     * @return The checksum
+     */
+    public long getEndChecksum() {
+        return endChecksum;
+    }
+
+    /**
+     * Gets the number of lines in the log that a compaction would remove.
+     *
+     * @return The obsolete line count
+     */
+    public int getObsoleteLines() {
+        return obsoleteLines;
+    }
+
+    /**
+     * Reads and parses a record from the log.
+     *
+     * @param index The position of the record, 0 being the oldest
+     * @return The record
+     */
+    public TransferRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        long offset = offsets.getLong((int) (INDEX_HEADER_SIZE + (liveStart + index) * Long.BYTES));
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(LINE_READ_SIZE);
+            while (true) {
+                int read = logChannel.read(buffer, offset + buffer.position());
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        return parseIndexed(buffer.array(), i, offset);
+                    }
+                }
+                if (read < 0) {
+                    return parseIndexed(buffer.array(), buffer.position(), offset);
+                }
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads every record in order with one sequential pass over the log, which is much faster
+     * than calling get for each of them.
+     *
+     * @param action Called with each record, oldest first
+     */
+    public void forEach(Consumer<TransferRecord> action) throws IOException {
+        if (size == 0) {
+            return;
+        }
+        long from = offsets.getLong((int) (INDEX_HEADER_SIZE + liveStart * Long.BYTES));
+
+        // After the first live record there are no clear markers, only records and invalid lines
+        scanLines(logChannel, from, endPosition, (text, lineStart) -> {
+            TransferRecord record = parseRecord(text);
+            if (record != null) {
+                action.accept(record);
+            }
+        });
+    }
+
+    /**
+     * Gets the records as a list that reads each one from the log when it is asked for.
+     *
+     * @return The records, oldest first
+     */
+    public List<TransferRecord> asList() {
+        return new AbstractList<TransferRecord>() {
+            @Override
+            public TransferRecord get(int index) {
+                return HistoryStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static TransferRecord parseIndexed(byte[] bytes, int length, long offset) throws IOException {
+        TransferRecord record = parseRecord(decodeLine(bytes, length));
+        if (record == null) {
+            throw new IOException("History index points at an invalid line at offset " + offset);
+        }
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (logChannel != null) {
+            logChannel.close();
+        }
+    }
+
+    /**
+     * Formats a record as a CSV line. Line breaks in the file name would split the record, so they are replaced.
+     * The fields after the direction were added later; parseRecord still accepts lines that end with it.
+     *
+     * @param record The record to format
+     * @return The line, without a line separator
+     */
+    public static String formatRecord(TransferRecord record) {
+        return String.format("%s,%d,%d,%s,%d,%s,%d,%d,%d,%s,%s",
+                record.getFileName().replace('\r', ' ').replace('\n', ' '),
+                record.getTimestamp(),
+                record.getFileSize(),
+                record.getDirection().name(),
+                record.getStartTime(),
+                record.getPeerAddress().replace(',', ' ').replace('\r', ' ').replace('\n', ' '),
+                record.getBytesTransferred(),
+                record.getAverageThroughput(),
+                record.getPeakThroughput(),
+                record.getOutcome().name(),
+                record.getIntegrity().name());
+    }
+
+    /**
+     * Parses a CSV line written by formatRecord, or by versions that only wrote the file name, timestamp,
+     * size and direction. The fields are split from the right, so file names containing commas are read
+     * back whole. The last field tells the formats apart, as no direction is also an integrity status.
+     *
+     * @param line The line, without a line separator
+     * @return The record, or null if the line is not a valid record
+     */
+    public static TransferRecord parseRecord(String line) {
+        int lastComma = line.lastIndexOf(',');
+        boolean extended = lastComma >= 0 && valueOf(INTEGRITIES, line.substring(lastComma + 1)) != null;
+        int[] commas = lastCommas(line, extended ? RECORD_FIELDS - 1 : LEGACY_FIELDS - 1);
+        if (commas == null) {
+            return null;
+        }
+
+        try {
+            String fileName = line.substring(0, commas[0]);
+            long timestamp = Long.parseLong(field(line, commas, 0));
+            long fileSize = Long.parseLong(field(line, commas, 1));
+            TransferRecord.Direction direction = valueOf(DIRECTIONS, field(line, commas, 2));
+            if (direction == null) {
+                return null;
+            }
+            if (!extended) {
+                return new TransferRecord(fileName, timestamp, fileSize, direction);
+            }
+
+            TransferRecord.Outcome outcome = valueOf(OUTCOMES, field(line, commas, 8));
+            if (outcome == null) {
+                return null;
+            }
+            return new TransferRecord(fileName, fileSize, direction,
+                    field(line, commas, 4),
+                    Long.parseLong(field(line, commas, 3)),
+                    timestamp,
+                    Long.parseLong(field(line, commas, 5)),
+                    Long.parseLong(field(line, commas, 6)),
+                    Long.parseLong(field(line, commas, 7)),
+                    outcome,
+                    valueOf(INTEGRITIES, field(line, commas, 9)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the last commas of a line, which separate the fields that follow the file name.
+     *
+     * @return The positions of the commas in ascending order, or null if the line has fewer
+     */
+    private static int[] lastCommas(String line, int count) {
+        int[] commas = new int[count];
+        int position = line.length();
+        for (int i = count - 1; i >= 0; i--) {
+            position = position > 0 ? line.lastIndexOf(',', position - 1) : -1;
+            if (position < 0) {
+                return null;
+            }
+            commas[i] = position;
+        }
+        return commas;
+    }
+
+    /**
+     * Gets the field after a comma found by lastCommas.
+     */
+    private static String field(String line, int[] commas, int index) {
+        int end = index + 1 < commas.length ? commas[index + 1] : line.length();
+        return line.substring(commas[index] + 1, end);
+    }
+
+    /**
+     * Looks up an enum constant by name without the exception Enum.valueOf throws for unknown names,
+     * which would be costly when indexing a log of old lines.
+     */
+    private static <E extends Enum<E>> E valueOf(E[] values, String name) {
+        for (E value : values) {
+            if (value.name().equals(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rewrites a log with only the valid records after its last clear marker, and writes a
+     * matching index. Both are written next to the originals and moved over them, so a crash
+     * leaves either the old or the new history, never a partial one. The caller holds the in-process
+     * lock of the log; the HistoryFileLock is taken here, so no other process appends meanwhile.
+     * <p>
+     * Stores already open keep reading the files they opened, so they are not disturbed.
+     *
+     * @param logFile The CSV history log
+     */
+    public static void compact(File logFile) throws IOException {
+        HistoryFileLock lock = HistoryFileLock.acquire(logFile);
+        try {
+            compactLocked(logFile);
+        } finally {
+            lock.close();
+        }
+    }
+
+    private static void compactLocked(File logFile) throws IOException {
+        File indexFile = new File(logFile.getPath() + INDEX_SUFFIX);
+        File compactedLog = new File(logFile.getPath() + ".tmp");
+        File compactedIndex = new File(indexFile.getPath() + ".tmp");
+        List<String> liveLines = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+            // Skip header line
+            String line = reader.readLine();
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(CLEARED_MARKER)) {
+                    liveLines.clear();
+                } else if (parseRecord(line) != null) {
+                    liveLines.add(line);
+                }
+            }
+        }
+
+        try {
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(compactedLog)))) {
+                writer.println(HEADER);
+                for (String line : liveLines) {
+                    writer.println(line);
+                }
+                writer.flush();
+                if (writer.checkError()) {
+                    throw new IOException("could not write to " + compactedLog);
+                }
+            }
+
+            // The new log is indexed from scratch, which also fills in its length and checksum
+            try (FileChannel logChannel = FileChannel.open(compactedLog.toPath(), StandardOpenOption.READ);
+                 FileChannel indexChannel = FileChannel.open(compactedIndex.toPath(), StandardOpenOption.READ,
+                         StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                indexTail(logChannel, indexChannel, new IndexState(), logChannel.size());
+            }
+
+            moveOver(compactedLog.toPath(), logFile.toPath());
+        } catch (IOException e) {
+            compactedLog.delete();
+            compactedIndex.delete();
+            throw e;
+        }
+
+        try {
+            moveOver(compactedIndex.toPath(), indexFile.toPath());
+        } catch (IOException e) {
+            // The old index no longer matches the log, so the next open rebuilds it
+            compactedIndex.delete();
+        }
+    }
+
+    /**
+     * Replaces the target with the source, atomically if the file system supports it.
+     */
+    private static void moveOver(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Decodes a line the way FileReader reads the log, dropping the carriage return of a CRLF line end.
+     */
+    private static String decodeLine(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, Charset.defaultCharset());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
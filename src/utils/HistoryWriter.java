@@ -0,0 +1,256 @@
+package utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends history lines to a file on a background thread.
+ * <p>
+ * Transfer threads only queue their lines; a single writer thread takes everything that is
+ * waiting and commits it with one write, so many transfers finishing together cost one disk
+ * write instead of one each. The queue is bounded: if the disk falls behind, callers block
+ * until there is room rather than holding an unbounded backlog in memory.
+ * <p>
+ * With a flush interval of 0 every commit is forced to disk before the next one starts. With
+ * a positive interval the writer collects lines for up to that long before committing them,
+ * and leaves it to the operating system to write them out. Pending lines are committed when
+ * the JVM shuts down.
+ */
+public class HistoryWriter {
+    private final File file;
+    private final String header;
+    private final Object fileLock;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writerThread;
+
+    private volatile boolean closed;
+
+    /**
+     * Lines to append, or a barrier that is released once everything queued before it is written.
+     */
+    private static class Entry {
+        private final List<String> lines;
+        private final CountDownLatch written = new CountDownLatch(1);
+        private final boolean last;
+
+        Entry(List<String> lines, boolean last) {
+            this.lines = lines;
+            this.last = last;
+        }
+
+        boolean isBarrier() {
+            return lines == null;
+        }
+    }
+
+    /**
+     * Creates a writer and starts its thread.
+     *
+     * @param file The file to append to
+     * @param header The line written first when the file is new or empty
+     * @param fileLock The lock held while the file is written, shared with code that rewrites it
+     * @param queueCapacity The number of appends that can wait for the writer
+     * @param flushIntervalMs How long lines are collected before a commit; 0 forces every commit to disk
+     */
+    public HistoryWriter(File file, String header, Object fileLock, int queueCapacity, long flushIntervalMs) {
+        this.file = file;
+        this.header = header;
+        this.fileLock = fileLock;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        writerThread = new Thread(this::writeLoop, "history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        // Writer threads are daemons, so commit what is still queued before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "history-writer-shutdown"));
+    }
+
+    /**
+     * Queues lines to be appended. Blocks only while the queue is full.
+     * If the writer is closed, or the caller is interrupted while waiting, the lines are written directly.
+     *
+     * @param lines The lines to append
+     */
+    public void append(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        if (!closed) {
+            try {
+                queue.put(new Entry(new ArrayList<>(lines), false));
+                return;
+            } catch (InterruptedException e) {
+                // A cancelled transfer still gets its record
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (fileLock) {
+            commit(lines, flushIntervalNanos == 0);
+        }
+    }
+
+    /**
+     * Waits until every line queued before this call has been written to the file.
+     */
+    public void flush() {
+        if (closed || Thread.currentThread() == writerThread) {
+            return;
+        }
+        Entry barrier = new Entry(null, false);
+        try {
+            queue.put(barrier);
+            barrier.written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes everything still queued and stops the writer thread.
+     * Lines appended afterwards are written directly by the caller.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        // From here on appends are written directly by their callers
+        closed = true;
+        Entry barrier = new Entry(null, true);
+        try {
+            queue.put(barrier);
+            if (!barrier.written.await(Config.HISTORY_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                System.err.println("Timed out writing transfer history; " + queue.size() + " entries were not saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes queued entries in batches and commits each batch with one write. Runs on the writer thread.
+     */
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                collect(batch);
+                boolean last = commitBatch(batch);
+                batch.clear();
+
+                if (last) {
+                    // An append that raced with close may have queued behind the last barrier
+                    queue.drainTo(batch);
+                    commitBatch(batch);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds the entries already waiting to the batch. With a flush interval, keeps waiting for more
+     * until the interval has passed since the first entry, unless someone is waiting on a barrier.
+     */
+    private void collect(List<Entry> batch) throws InterruptedException {
+        queue.drainTo(batch);
+        if (flushIntervalNanos == 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (!containsBarrier(batch)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Entry entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (entry == null) {
+                return;
+            }
+            batch.add(entry);
+            queue.drainTo(batch);
+        }
+    }
+
+    /**
+     * Commits the lines of a batch with one write, then releases everyone waiting on it.
+     *
+     * @return Whether the batch contains the last barrier
+     */
+    private boolean commitBatch(List<Entry> batch) {
+        List<String> lines = new ArrayList<>();
+        for (Entry entry : batch) {
+            if (!entry.isBarrier()) {
+                lines.addAll(entry.lines);
+            }
+        }
+        if (!lines.isEmpty()) {
+            synchronized (fileLock) {
+                commit(lines, flushIntervalNanos == 0);
+            }
+        }
+
+        boolean last = false;
+        for (Entry entry : batch) {
+            entry.written.countDown();
+            last |= entry.last;
+        }
+        return last;
+    }
+
+    private static boolean containsBarrier(List<Entry> batch) {
+        for (Entry entry : batch) {
+            if (entry.isBarrier()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends lines to the file, writing the header first if the file is new. The caller holds the file lock;
+     * the HistoryFileLock is taken here, so other processes do not write at the same time.
+     * The file is opened for each commit, so a rewrite of the file between commits is never written past.
+     */
+    private void commit(List<String> lines, boolean force) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append(System.lineSeparator());
+        }
+
+        try {
+            HistoryFileLock lock = HistoryFileLock.acquire(file);
+            try (FileOutputStream output = new FileOutputStream(file, true);
+                 Writer writer = new OutputStreamWriter(output)) {
+                // Only checked under the lock, as another process may have just created the file
+                if (output.getChannel().size() == 0) {
+                    writer.write(header + System.lineSeparator());
+                }
+                writer.write(text.toString());
+                writer.flush();
+                if (force) {
+                    output.getChannel().force(false);
+                }
+            } finally {
+                lock.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving transfer history: " + e.getMessage());
+        }
+    }
+}
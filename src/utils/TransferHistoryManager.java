@@ -1,24 +1,115 @@
 package utils;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Manages the history of file transfers and handles persistence.
+ * <p>
+ * The history file is an append-only log: every transfer appends its own lines, so recording a
+ * transfer costs the same however long the history is. Clearing the history appends a marker
+ * line instead of truncating the file. Lines hidden by a marker, or that cannot be parsed, are
+ * removed by rewriting the file in the background once there are enough of them.
+ * <p>
+ * The lines are written by a shared HistoryWriter, so the thread that finished a transfer
+ * never waits for the disk, and records from concurrent transfers are committed together.
+ * <p>
+ * Existing history is opened through a HistoryStore, which indexes the file and reads records
+ * only when they are asked for, so creating a manager takes the same time however long the
+ * history is. Records added since then are kept in memory.
+ * <p>
+ * All methods are safe to call from concurrent transfers. Listeners receive a HistoryEvent
+ * describing each change, in order, on the executor they were registered with.
+ * <p>
+ * Several managers, in this process or in others, can share the history file. Writes to it
+ * are serialized by a HistoryFileLock, and every manager reads the lines the others append
+ * every Config.HISTORY_TAIL_INTERVAL_MS, reporting them as its own changes. Lines the manager
+ * wrote itself are recognized and skipped, as they are in memory already. If the file was
+ * rewritten by a compaction, the manager opens it again.
+ * <p>
+ * The history can be searched with a HistoryQuery. The first query builds a HistoryIndex over
+ * all records, which is then kept up to date with every change, so later queries do not
+ * read the history file at all. The index is built without holding the manager's lock, so
+ * reading and adding records carries on while it is built.
  */
 public class TransferHistoryManager {
     private static final String HISTORY_FILE = Config.HISTORY_FILE;
-    private final List<TransferRecord> transferHistory = new ArrayList<>();
-    private final List<Consumer<List<TransferRecord>>> historyListeners = new ArrayList<>();
+
+    // Both windows keep a manager on the same file, so appends and compaction share one lock
+    private static final Object FILE_LOCK = new Object();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final HistoryWriter WRITER = new HistoryWriter(new File(HISTORY_FILE), HistoryStore.HEADER, FILE_LOCK,
+            Config.HISTORY_QUEUE_CAPACITY, Config.HISTORY_FLUSH_INTERVAL_MS);
+
+    private final List<TransferRecord> transferHistory = new HistoryView();
+    private final List<Registration> historyListeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private HistoryStore store;
+    private int storedCount;
+    private final List<TransferRecord> addedRecords = new ArrayList<>();
+    private int obsoleteLines;
+    private boolean compactionScheduled;
+    private long tailPosition;
+    private long tailChecksum;
+    private final Deque<PendingLine> pendingLines = new ArrayDeque<>();
+    private ScheduledFuture<?> tailTask;
+    private boolean closed;
+    private HistoryIndex index;
+    // Changes whenever the records are cleared or the file is opened again, so an index built meanwhile is dropped
+    private long historyGeneration;
+
+    // Held while the index is built, so only one query builds it and the others wait for that one
+    private final Object indexBuildLock = new Object();
+
+    /**
+     * Receives changes to the history.
+     */
+    @FunctionalInterface
+    public interface HistoryListener {
+
+        /**
+         * Called on the listener's executor after the history changed.
+         * 
+         * @param event What changed
+         */
+        void historyChanged(HistoryEvent event);
+    }
 
     /**
      * Creates a new TransferHistoryManager and loads any existing history.
      */
     public TransferHistoryManager() {
         loadHistory();
+        scheduleCompactionIfNeeded();
+
+        synchronized (this) {
+            tailTask = SCHEDULER.scheduleWithFixedDelay(this::tailHistory, Config.HISTORY_TAIL_INTERVAL_MS,
+                    Config.HISTORY_TAIL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -27,13 +118,41 @@ public class TransferHistoryManager {
      * @param record The transfer record to add
      */
     public void addTransferRecord(TransferRecord record) {
-        transferHistory.add(record);
-        saveHistory();
-        notifyListeners();
+        addTransferRecords(Collections.singletonList(record));
+    }
+
+    /**
+     * Adds several transfer records to the history at once, appending them to the history file together.
+     * The records are queued for the history writer, so this returns before they reach the disk.
+     * 
+     * @param records The transfer records to add
+     */
+    public void addTransferRecords(List<TransferRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<String> lines = new ArrayList<>(records.size());
+        for (TransferRecord record : records) {
+            lines.add(HistoryStore.formatRecord(record));
+        }
+
+        synchronized (this) {
+            // Appending under the lock keeps the file in the same order as the events
+            int fromIndex = storedCount + addedRecords.size();
+            addedRecords.addAll(records);
+            indexRecords(records);
+            for (int i = 0; i < records.size(); i++) {
+                pendingLines.add(new PendingLine(lines.get(i), records.get(i)));
+            }
+            WRITER.append(lines);
+            publish(HistoryEvent.appended(fromIndex, new ArrayList<>(records)));
+        }
+        deliverEvents();
     }
 
     /**
      * Gets an unmodifiable view of the transfer history.
+     * Records loaded from the history file are read from it when the view is asked for them.
      * 
      * @return The list of transfer records
      */
@@ -41,102 +160,507 @@ public class TransferHistoryManager {
         return Collections.unmodifiableList(transferHistory);
     }
 
+    /**
+     * Finds the records matching a query.
+     * <p>
+     * The result is a list view that reads the matching records from the history when it is
+     * asked for them. It refers to the history as it was when the query ran; after the history
+     * is cleared, reading it throws IndexOutOfBoundsException.
+     * 
+     * @param query The criteria
+     * @return The matching records, oldest first
+     */
+    public List<TransferRecord> query(HistoryQuery query) {
+        int[] positions = withIndex(historyIndex -> historyIndex.find(query));
+        return new AbstractList<TransferRecord>() {
+            @Override
+            public TransferRecord get(int i) {
+                return transferHistory.get(positions[i]);
+            }
+
+            @Override
+            public int size() {
+                return positions.length;
+            }
+        };
+    }
+
+    /**
+     * Adds up the bytes of the records matching a query for each calendar day, in the local time zone.
+     * 
+     * @param query The criteria
+     * @return The total bytes per day, in date order; days without matching records are left out
+     */
+    public SortedMap<LocalDate, Long> getBytesPerDay(HistoryQuery query) {
+        return withIndex(historyIndex -> historyIndex.bytesPerDay(query));
+    }
+
+    /**
+     * Works out the average throughput of the records matching a query for each peer, weighting
+     * each transfer by its size. Records without measurements, such as those written by older
+     * versions, are left out.
+     * 
+     * @param query The criteria
+     * @return The throughput in bytes per second by peer address, in address order
+     */
+    public SortedMap<String, Long> getThroughputByPeer(HistoryQuery query) {
+        return withIndex(historyIndex -> historyIndex.throughputByPeer(query));
+    }
+
+    /**
+     * Runs a search on the index while holding the lock, building the index first if needed.
+     * Called without the lock.
+     */
+    private <T> T withIndex(Function<HistoryIndex, T> search) {
+        while (true) {
+            ensureIndex();
+            synchronized (this) {
+                // Null if the history was cleared since the index was built
+                if (index != null) {
+                    return search.apply(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the index on first use. Reads the stored records in one pass, which for a large
+     * history takes a moment, so the first query should not run on the event dispatch thread.
+     * <p>
+     * The pass runs over a snapshot of the records without holding the lock, so the history
+     * view and new records are not held up. Records added meanwhile are indexed when the index
+     * is installed; if the history was cleared or opened again meanwhile, the build starts over.
+     * Called without the lock.
+     */
+    private void ensureIndex() {
+        synchronized (indexBuildLock) {
+            while (true) {
+                HistoryStore snapshotStore;
+                int snapshotStored;
+                List<TransferRecord> snapshotAdded;
+                long generation;
+                synchronized (this) {
+                    if (index != null) {
+                        return;
+                    }
+                    snapshotStore = store;
+                    snapshotStored = storedCount;
+                    snapshotAdded = new ArrayList<>(addedRecords);
+                    generation = historyGeneration;
+                }
+
+                HistoryIndex built = new HistoryIndex();
+                try {
+                    if (snapshotStored > 0) {
+                        snapshotStore.forEach(built::addUnsorted);
+                    }
+                } catch (IOException e) {
+                    synchronized (this) {
+                        if (historyGeneration == generation) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    // The store was closed because the file was opened again
+                    continue;
+                }
+                for (TransferRecord record : snapshotAdded) {
+                    built.addUnsorted(record);
+                }
+                built.sort();
+
+                synchronized (this) {
+                    if (historyGeneration != generation) {
+                        continue;
+                    }
+                    for (int i = snapshotAdded.size(); i < addedRecords.size(); i++) {
+                        built.add(addedRecords.get(i));
+                    }
+                    index = built;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the index up to date with appended records, once it exists. Called while holding the lock.
+     */
+    private void indexRecords(List<TransferRecord> records) {
+        if (index != null) {
+            for (TransferRecord record : records) {
+                index.add(record);
+            }
+        }
+    }
+
     /**
      * Clears all transfer history.
      */
     public void clearHistory() {
-        transferHistory.clear();
-        saveHistory();
-        notifyListeners();
+        synchronized (this) {
+            int removedCount = storedCount + addedRecords.size();
+
+            // The cleared records and the marker itself are dropped by the next compaction
+            obsoleteLines += removedCount + 1;
+            storedCount = 0;
+            addedRecords.clear();
+            index = null;
+            historyGeneration++;
+            for (PendingLine pending : pendingLines) {
+                pending.cleared = true;
+            }
+
+            String marker = HistoryStore.CLEARED_MARKER + "," + System.currentTimeMillis();
+            pendingLines.add(new PendingLine(marker, null));
+            WRITER.append(Collections.singletonList(marker));
+            publish(HistoryEvent.cleared(removedCount));
+        }
+        scheduleCompactionIfNeeded();
+        deliverEvents();
     }
 
     /**
-     * Adds a listener that will be notified when the history changes.
+     * Adds a listener that will be told about every later change to the history.
+     * Events reach the listener one at a time and in order, whatever the executor.
      * 
      * @param listener The listener to add
+     * @param executor The executor the listener is called on, such as SwingUtilities::invokeLater
      */
-    public void addHistoryListener(Consumer<List<TransferRecord>> listener) {
-        historyListeners.add(listener);
+    public void addHistoryListener(HistoryListener listener, Executor executor) {
+        historyListeners.add(new Registration(listener, executor));
     }
 
     /**
-     * Removes a previously added history listener.
+     * Removes a previously added history listener. Events already on their way may still arrive.
      * 
      * @param listener The listener to remove
      */
-    public void removeHistoryListener(Consumer<List<TransferRecord>> listener) {
-        historyListeners.remove(listener);
+    public void removeHistoryListener(HistoryListener listener) {
+        historyListeners.removeIf(registration -> registration.listener == listener);
+    }
+
+    /**
+     * Queues an event for every listener. Called while holding the lock, so events are queued in the order of the changes.
+     */
+    private void publish(HistoryEvent event) {
+        for (Registration registration : historyListeners) {
+            registration.pending.add(event);
+        }
     }
 
     /**
-     * Notifies all listeners that the history has changed.
+     * Hands queued events to the listeners' executors. Called without the lock, so a listener
+     * running on a direct executor can call back into the manager.
      */
-    private void notifyListeners() {
-        for (Consumer<List<TransferRecord>> listener : historyListeners) {
-            listener.accept(Collections.unmodifiableList(transferHistory));
+    private void deliverEvents() {
+        for (Registration registration : historyListeners) {
+            registration.schedule();
         }
     }
 
     /**
-     * Saves the transfer history to a CSV file.
+     * A listener with its executor and the events not yet delivered to it.
+     * At most one delivery task per listener is in the executor at a time, which keeps the events in order.
      */
-    private void saveHistory() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(HISTORY_FILE))) {
-            // Write CSV header
-            writer.println("FileName,Timestamp,FileSize,Direction");
+    private static class Registration {
+        private final HistoryListener listener;
+        private final Executor executor;
+        private final Queue<HistoryEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Registration(HistoryListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
 
-            // Write each record
-            for (TransferRecord record : transferHistory) {
-                writer.printf("%s,%d,%d,%s%n",
-                        record.getFileName(),
-                        record.getTimestamp(),
-                        record.getFileSize(),
-                        record.getDirection().name());
+        void schedule() {
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this::deliver);
+            }
+        }
+
+        private void deliver() {
+            try {
+                HistoryEvent event;
+                while ((event = pending.poll()) != null) {
+                    listener.historyChanged(event);
+                }
+            } finally {
+                scheduled.set(false);
+                // An event may have been queued after the last poll but before the flag was cleared
+                schedule();
             }
-        } catch (IOException e) {
-            System.err.println("Error saving transfer history: " + e.getMessage());
         }
     }
 
     /**
-     * Loads the transfer history from a CSV file.
+     * Opens the history file through its index. No records are read until they are asked for.
      */
-    private void loadHistory() {
-        File historyFile = new File(HISTORY_FILE);
-        if (!historyFile.exists()) {
+    private synchronized void loadHistory() {
+        // Records another manager has queued belong in the file before it is opened
+        WRITER.flush();
+
+        synchronized (FILE_LOCK) {
+            try {
+                store = HistoryStore.open(new File(HISTORY_FILE));
+                storedCount = store.size();
+                obsoleteLines = store.getObsoleteLines();
+                tailPosition = store.getEndPosition();
+                tailChecksum = store.getEndChecksum();
+            } catch (IOException e) {
+                System.err.println("Error loading transfer history: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops following the history file and closes it. The manager must not be used afterwards;
+     * records it queued are still written.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (tailTask != null) {
+                tailTask.cancel(false);
+            }
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing transfer history: " + e.getMessage());
+                }
+            }
+        }
+        historyListeners.clear();
+    }
+
+    /**
+     * Reads the lines others appended to the history file since the last read, and applies them.
+     * Runs on the scheduler every Config.HISTORY_TAIL_INTERVAL_MS.
+     */
+    private void tailHistory() {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                HistoryStore.Tail tail;
+                synchronized (FILE_LOCK) {
+                    tail = HistoryStore.readTail(new File(HISTORY_FILE), tailPosition, tailChecksum);
+                }
+                if (tail == null) {
+                    reloadHistory();
+                } else {
+                    applyTail(tail);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep following the file; the next read may succeed
+            System.err.println("Error reading transfer history: " + e.getMessage());
+        }
+        scheduleCompactionIfNeeded();
+        deliverEvents();
+    }
+
+    /**
+     * Applies lines read from the end of the history file. Lines this manager wrote are skipped.
+     * Called while holding the lock.
+     */
+    private void applyTail(HistoryStore.Tail tail) {
+        List<TransferRecord> appended = new ArrayList<>();
+        for (String line : tail.getLines()) {
+            if (removePending(line)) {
+                continue;
+            }
+
+            if (line.startsWith(HistoryStore.CLEARED_MARKER)) {
+                publishAppended(appended);
+                appended = new ArrayList<>();
+                applyForeignClear();
+            } else {
+                TransferRecord record = HistoryStore.parseRecord(line);
+                if (record != null) {
+                    appended.add(record);
+                } else {
+                    obsoleteLines++;
+                }
+            }
+        }
+        publishAppended(appended);
+
+        tailPosition = tail.getEndPosition();
+        tailChecksum = tail.getEndChecksum();
+    }
+
+    /**
+     * Removes a line this manager wrote from the pending lines, if it is one.
+     * Lines are written in order, so pending lines before it were lost by a failed write and are dropped too.
+     *
+     * @return Whether the line was written by this manager
+     */
+    private boolean removePending(String line) {
+        int position = 0;
+        for (PendingLine pending : pendingLines) {
+            if (pending.line.equals(line)) {
+                for (int i = 0; i <= position; i++) {
+                    pendingLines.poll();
+                }
+                return true;
+            }
+            position++;
+        }
+        return false;
+    }
+
+    /**
+     * Clears the history after another manager cleared it. Records this manager added that
+     * are not in the file yet are written after the marker, so they survive the clear.
+     */
+    private void applyForeignClear() {
+        List<TransferRecord> survivors = new ArrayList<>();
+        for (PendingLine pending : pendingLines) {
+            if (pending.record != null && !pending.cleared) {
+                survivors.add(pending.record);
+            }
+        }
+
+        int removedCount = storedCount + addedRecords.size();
+        obsoleteLines += removedCount - survivors.size() + 1;
+        storedCount = 0;
+        addedRecords.clear();
+        index = null;
+        historyGeneration++;
+        publish(HistoryEvent.cleared(removedCount));
+        publishAppended(survivors);
+    }
+
+    /**
+     * Adds records read from the file to the end of the history. Called while holding the lock.
+     */
+    private void publishAppended(List<TransferRecord> records) {
+        if (records.isEmpty()) {
             return;
         }
+        int fromIndex = storedCount + addedRecords.size();
+        addedRecords.addAll(records);
+        indexRecords(records);
+        publish(HistoryEvent.appended(fromIndex, records));
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
-            // Skip header line
-            String line = reader.readLine();
+    /**
+     * Opens the history file again after it was rewritten, and reports the change as a clear
+     * followed by the records of the new file. Called while holding the lock.
+     */
+    private void reloadHistory() throws IOException {
+        // Every record this manager added is then in the file, and nothing is pending
+        WRITER.flush();
 
-            // Read records
-            while ((line = reader.readLine()) != null) {
-                try {
-                    String[] parts = line.split(",");
-                    if (parts.length >= 4) {
-                        String fileName = parts[0];
-                        long timestamp = Long.parseLong(parts[1]);
-                        long fileSize = Long.parseLong(parts[2]);
-                        TransferRecord.Direction direction = TransferRecord.Direction.valueOf(parts[3]);
-
-                        // Create record with custom timestamp
-                        TransferRecord record = new TransferRecord(fileName, fileSize, direction) {
-                            @Override
-                            public long getTimestamp() {
-                                return timestamp;
-                            }
-                        };
-
-                        transferHistory.add(record);
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error parsing history line: " + line);
+        HistoryStore reopened;
+        synchronized (FILE_LOCK) {
+            reopened = HistoryStore.open(new File(HISTORY_FILE));
+        }
+
+        int removedCount = storedCount + addedRecords.size();
+        if (store != null) {
+            store.close();
+        }
+        store = reopened;
+        storedCount = store.size();
+        addedRecords.clear();
+        pendingLines.clear();
+        index = null;
+        historyGeneration++;
+        obsoleteLines = store.getObsoleteLines();
+        tailPosition = store.getEndPosition();
+        tailChecksum = store.getEndChecksum();
+
+        publish(HistoryEvent.cleared(removedCount));
+        if (storedCount > 0) {
+            publish(HistoryEvent.appended(0, store.asList()));
+        }
+    }
+
+    /**
+     * Schedules a compaction once the obsolete lines reach Config.HISTORY_COMPACTION_THRESHOLD
+     * or outnumber the live records. The delay lets a burst of changes be compacted once.
+     */
+    private synchronized void scheduleCompactionIfNeeded() {
+        if (compactionScheduled || obsoleteLines == 0) {
+            return;
+        }
+        if (obsoleteLines < Config.HISTORY_COMPACTION_THRESHOLD && obsoleteLines <= storedCount + addedRecords.size()) {
+            return;
+        }
+
+        compactionScheduled = true;
+        SCHEDULER.schedule(this::compactHistory, Config.HISTORY_COMPACTION_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rewrites the history file with only the valid records after the last clear marker.
+     * <p>
+     * The file is read again rather than written from memory, so records appended by another
+     * manager on the same file are kept.
+     */
+    private void compactHistory() {
+        synchronized (this) {
+            compactionScheduled = false;
+        }
+
+        // The clear marker that triggered the compaction may still be queued
+        WRITER.flush();
+
+        synchronized (FILE_LOCK) {
+            try {
+                HistoryStore.compact(new File(HISTORY_FILE));
+            } catch (IOException e) {
+                System.err.println("Error compacting transfer history: " + e.getMessage());
+                return;
+            }
+        }
+
+        // The next read of the tail finds the file rewritten and opens it again
+        synchronized (this) {
+            obsoleteLines = 0;
+        }
+    }
+
+    /**
+     * A line this manager queued for the history file, kept until it is read back from the file.
+     */
+    private static class PendingLine {
+        private final String line;
+        private final TransferRecord record;
+        private boolean cleared;
+
+        PendingLine(String line, TransferRecord record) {
+            this.line = line;
+            this.record = record;
+        }
+    }
+
+    /**
+     * The stored records that are still visible, followed by the records added since the file was opened.
+     */
+    private class HistoryView extends AbstractList<TransferRecord> {
+        @Override
+        public TransferRecord get(int index) {
+            synchronized (TransferHistoryManager.this) {
+                if (index < storedCount) {
+                    return store.get(index);
                 }
+                return addedRecords.get(index - storedCount);
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (TransferHistoryManager.this) {
+                return storedCount + addedRecords.size();
             }
-        } catch (IOException e) {
-            System.err.println("Error loading transfer history: " + e.getMessage());
         }
     }
 }
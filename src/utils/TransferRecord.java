@@ -7,6 +7,11 @@ import java.util.Date;
 /**
  * Represents a record of a file transfer (sent or received).
  * This class is used to store information about file transfers for history tracking.
+ * <p>
+ * Besides what was transferred, a record keeps how the transfer went: when it started and ended,
+ * the peer, how many bytes it actually moved, the average and peak throughput, and
+ * whether it completed and was verified. Records written before these were kept only know the
+ * file, so their throughput is 0 (unknown) and they count as successful and not checked.
  */
 public class TransferRecord implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -15,10 +20,31 @@ public class TransferRecord implements Serializable {
         SENT, RECEIVED
     }
     
+    /**
+     * How a transfer ended.
+     */
+    public enum Outcome {
+        SUCCESS, CANCELLED, FAILED
+    }
+    
+    /**
+     * Whether the transferred data was checked against the sender's digests.
+     */
+    public enum Integrity {
+        NOT_CHECKED, VERIFIED, MISMATCH
+    }
+    
     private final String fileName;
     private final long timestamp;
     private final long fileSize;
     private final Direction direction;
+    private final String peerAddress;
+    private final long startTime;
+    private final long bytesTransferred;
+    private final long averageThroughput;
+    private final long peakThroughput;
+    private final Outcome outcome;
+    private final Integrity integrity;
     
     /**
      * Creates a new transfer record.
@@ -28,10 +54,51 @@ public class TransferRecord implements Serializable {
      * @param direction The direction of the transfer (SENT or RECEIVED)
      */
     public TransferRecord(String fileName, long fileSize, Direction direction) {
+        this(fileName, System.currentTimeMillis(), fileSize, direction);
+    }
+    
+    /**
+     * Creates a transfer record for a transfer that occurred at a given time, such as one read back from the history file.
+     * 
+     * @param fileName The name of the transferred file
+     * @param timestamp The time of the transfer in milliseconds since epoch
+     * @param fileSize The size of the file in bytes
+     * @param direction The direction of the transfer (SENT or RECEIVED)
+     */
+    public TransferRecord(String fileName, long timestamp, long fileSize, Direction direction) {
+        this(fileName, fileSize, direction, "", timestamp, timestamp, fileSize, 0, 0, Outcome.SUCCESS, Integrity.NOT_CHECKED);
+    }
+    
+    /**
+     * Creates a transfer record with the measurements of the transfer.
+     * 
+     * @param fileName The name of the transferred file
+     * @param fileSize The size of the file in bytes
+     * @param direction The direction of the transfer (SENT or RECEIVED)
+     * @param peerAddress The address of the other side, or an empty string if unknown
+     * @param startTime When the transfer started, in milliseconds since epoch
+     * @param endTime When the transfer ended, in milliseconds since epoch; this is the record's timestamp
+     * @param bytesTransferred The bytes of the file this transfer moved, which is less than the file size
+     *                         for a resumed or interrupted transfer
+     * @param averageThroughput The average rate in bytes per second, or 0 if unknown
+     * @param peakThroughput The highest rate over Config.PEAK_THROUGHPUT_WINDOW_MS in bytes per second, or 0 if unknown
+     * @param outcome How the transfer ended
+     * @param integrity Whether the data was verified
+     */
+    public TransferRecord(String fileName, long fileSize, Direction direction, String peerAddress, long startTime,
+                          long endTime, long bytesTransferred, long averageThroughput, long peakThroughput,
+                          Outcome outcome, Integrity integrity) {
         this.fileName = fileName;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = endTime;
         this.fileSize = fileSize;
         this.direction = direction;
+        this.peerAddress = peerAddress == null ? "" : peerAddress;
+        this.startTime = startTime;
+        this.bytesTransferred = bytesTransferred;
+        this.averageThroughput = averageThroughput;
+        this.peakThroughput = peakThroughput;
+        this.outcome = outcome;
+        this.integrity = integrity;
     }
     
     /**
@@ -106,6 +173,117 @@ public class TransferRecord implements Serializable {
         return direction == Direction.SENT ? "Sent" : "Received";
     }
     
+    /**
+     * Gets the address of the other side of the transfer.
+     * 
+     * @return The peer address, or an empty string if unknown
+     */
+    public String getPeerAddress() {
+        return peerAddress;
+    }
+    
+    /**
+     * Gets the time the transfer started.
+     * 
+     * @return The start time in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+    
+    /**
+     * Gets the time the transfer ended, which is also its timestamp.
+     * 
+     * @return The end time in milliseconds since epoch
+     */
+    public long getEndTime() {
+        return timestamp;
+    }
+    
+    /**
+     * Gets how long the transfer took.
+     * 
+     * @return The duration in milliseconds
+     */
+    public long getDuration() {
+        return Math.max(0, timestamp - startTime);
+    }
+    
+    /**
+     * Gets the bytes of the file this transfer moved, not counting the ones a resumed transfer skipped.
+     * 
+     * @return The transferred bytes
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+    
+    /**
+     * Gets the average throughput of the transfer.
+     * 
+     * @return The rate in bytes per second, or 0 if unknown
+     */
+    public long getAverageThroughput() {
+        return averageThroughput;
+    }
+    
+    /**
+     * Gets the highest throughput the transfer sustained over Config.PEAK_THROUGHPUT_WINDOW_MS.
+     * 
+     * @return The rate in bytes per second, or 0 if unknown
+     */
+    public long getPeakThroughput() {
+        return peakThroughput;
+    }
+    
+    /**
+     * Gets the formatted average throughput as a string with appropriate units.
+     * 
+     * @return The formatted rate (e.g., "12.34 MB/s"), or "-" if unknown
+     */
+    public String getFormattedThroughput() {
+        if (averageThroughput <= 0) {
+            return "-";
+        } else if (averageThroughput < 1024 * 1024) {
+            return String.format("%.2f KB/s", averageThroughput / 1024.0);
+        } else {
+            return String.format("%.2f MB/s", averageThroughput / (1024.0 * 1024.0));
+        }
+    }
+    
+    /**
+     * Gets how the transfer ended.
+     * 
+     * @return The outcome
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+    
+    /**
+     * Gets whether the data was verified.
+     * 
+     * @return The integrity status
+     */
+    public Integrity getIntegrity() {
+        return integrity;
+    }
+    
+    /**
+     * Gets the outcome and integrity status as a string.
+     * 
+     * @return For example "Completed, verified" or "Failed"
+     */
+    public String getStatusString() {
+        String status = outcome == Outcome.SUCCESS ? "Completed" : outcome == Outcome.CANCELLED ? "Cancelled" : "Failed";
+        if (integrity == Integrity.VERIFIED) {
+            return status + ", verified";
+        } else if (integrity == Integrity.MISMATCH) {
+            return status + ", corrupt";
+        }
+        return status;
+    }
+    
     @Override
     public String toString() {
         return String.format("%s | %s | %s | %s", 